@@ -806,6 +806,10 @@ public class PigServer {
      */
     public Iterator<Tuple> openIterator(String id) throws IOException {
         try {
+            if (pigContext.getExecType() == ExecType.SPARK) {
+                // stream the result from the executors instead of reading back a temporary file
+                return openSparkIterator(id);
+            }
             ExecJob job = store(id, FileLocalizer.getTemporaryPath(pigContext)
                     .toString(), Utils.getTmpFileCompressorName(pigContext)
                     + "()");
@@ -918,6 +922,22 @@ public class PigServer {
         }
     }
 
+    private Iterator<Tuple> openSparkIterator(String alias) throws Exception {
+        currDAG.parseQuery();
+        currDAG.buildPlan( alias );
+
+        // the store is only there to compile the plan, it is not run
+        QueryParserUtils.attachStorePlan(scope, currDAG.lp, FileLocalizer.getTemporaryPath(pigContext)
+                .toString(), Utils.getTmpFileCompressorName(pigContext) + "()",
+                currDAG.getOperator( alias ), alias, pigContext);
+        currDAG.compile();
+        // discover pig features used in this script
+        ScriptState.get().setScriptFeatures( currDAG.lp );
+        PhysicalPlan pp = compilePp();
+
+        return launchSparkIterator(pp);
+    }
+
     private PigStats storeEx(String alias, String filename, String func)
     throws IOException {
         currDAG.parseQuery();
@@ -1295,6 +1315,33 @@ public class PigServer {
         return stats;
     }
 
+    /**
+     * Launches the jobs of the physical plan of a DUMP on Spark, like {@link #launchPlan} does
+     * for a store.
+     * @param pp The physical plan, with a single store
+     * @return The output of the store, computed as it is read
+     * @throws ExecException
+     * @throws FrontendException
+     */
+    private Iterator<Tuple> launchSparkIterator(PhysicalPlan pp) throws ExecException, FrontendException {
+        SparkLauncher launcher = new SparkLauncher();
+        try {
+            return launcher.launchIterator(pp, pigContext);
+        } catch (Exception e) {
+            if (e instanceof ExecException){
+                throw (ExecException)e;
+            } else if (e instanceof FrontendException) {
+                throw (FrontendException)e;
+            } else {
+                int errCode = 2043;
+                String msg = "Unexpected error during execution.";
+                throw new ExecException(msg, errCode, PigException.BUG, e);
+            }
+        } finally {
+            launcher.reset();
+        }
+    }
+
     /**
      * NOTE: For testing only. Don't use.
      * @throws IOException
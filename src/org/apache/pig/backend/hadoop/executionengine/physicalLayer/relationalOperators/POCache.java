@@ -46,12 +46,22 @@ public class POCache extends PhysicalOperator {
     // The expression plan
     transient PhysicalPlan plan;
     String key;
+    // how the relation is cached, null for the default
+    String storageLevel;
 
     public POCache(OperatorKey k, PhysicalPlan plan) {
         super(k);
         this.plan = plan;
     }
 
+    public String getStorageLevel() {
+        return storageLevel;
+    }
+
+    public void setStorageLevel(String storageLevel) {
+        this.storageLevel = storageLevel;
+    }
+
     /**
      * Counts the number of tuples processed into static variable soFar, if the number of tuples processed reach the
      * limit, return EOP; Otherwise, return the tuple
@@ -87,6 +97,7 @@ public class POCache extends PhysicalOperator {
             NodeIdGenerator.getGenerator().getNextNodeId(this.mKey.scope)),
             this.plan.clone());
         newCache.setInputs(inputs);
+        newCache.setStorageLevel(storageLevel);
         return newCache;
     }
 
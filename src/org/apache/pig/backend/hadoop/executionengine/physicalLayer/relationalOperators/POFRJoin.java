@@ -20,10 +20,11 @@ package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOp
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
@@ -326,7 +327,7 @@ public class POFRJoin extends PhysicalOperator {
         }
     }
 
-    private static class TupleToMapKey {
+    public static class TupleToMapKey {
         private HashMap<Tuple, TuplesToSchemaTupleList> tuples;
         private SchemaTupleFactory tf;
 
@@ -357,6 +358,46 @@ public class POFRJoin extends PhysicalOperator {
      * @throws ExecException
      */
     private void setUpHashMap() throws ExecException {
+        List<Iterator<Tuple>> replicatedInputs = new ArrayList<Iterator<Tuple>>(replFiles.length);
+        int i = -1;
+        for (FileSpec replFile : replFiles) {
+            ++i;
+            if (i == fragment) {
+                replicatedInputs.add(null);
+                continue;
+            }
+
+            POLoad ld = new POLoad(new OperatorKey("Repl File Loader", 1L),
+                    replFile);
+            
+            Properties props = ConfigurationUtil.getLocalFSProperties();
+            PigContext pc = new PigContext(ExecType.LOCAL, props);   
+            ld.setPc(pc);
+            replicatedInputs.add(new LoadIterator(ld));
+        }
+        try {
+            replicates = buildReplicates(replicatedInputs);
+        } catch (RuntimeException e) {
+            // the errors of the loads, see LoadIterator
+            if (e.getCause() instanceof ExecException) {
+                throw (ExecException)e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the HashMaps from replicated inputs that are already available as
+     * tuples, one iterator per input (the entry for the fragment is ignored).
+     * The result can be shared by several instances of this operator through
+     * {@link #setReplicates(TupleToMapKey[])}, since it is only read once built.
+     * 
+     * @param replicatedInputs
+     * @return the hash tables, one per input, null for the fragment
+     * @throws ExecException
+     */
+    public TupleToMapKey[] buildReplicates(List<Iterator<Tuple>> replicatedInputs)
+            throws ExecException {
         List<SchemaTupleFactory> inputSchemaTupleFactories = Lists.newArrayListWithCapacity(inputSchemas.size());
         List<SchemaTupleFactory> keySchemaTupleFactories = Lists.newArrayListWithCapacity(inputSchemas.size());
         for (int i = 0; i < inputSchemas.size(); i++) {
@@ -372,25 +413,17 @@ public class POFRJoin extends PhysicalOperator {
             }
         }
 
-        int i = -1;
+        TupleToMapKey[] replicates = new TupleToMapKey[replicatedInputs.size()];
         long time1 = System.currentTimeMillis();
-        for (FileSpec replFile : replFiles) {
-            ++i;
-
-            SchemaTupleFactory inputSchemaTupleFactory = inputSchemaTupleFactories.get(i);
-            SchemaTupleFactory keySchemaTupleFactory = keySchemaTupleFactories.get(i);
-
+        for (int i = 0; i < replicatedInputs.size(); i++) {
             if (i == fragment) {
                 replicates[i] = null;
                 continue;
             }
 
-            POLoad ld = new POLoad(new OperatorKey("Repl File Loader", 1L),
-                    replFile);
-            
-            Properties props = ConfigurationUtil.getLocalFSProperties();
-            PigContext pc = new PigContext(ExecType.LOCAL, props);   
-            ld.setPc(pc);
+            SchemaTupleFactory inputSchemaTupleFactory = inputSchemaTupleFactories.get(i);
+            SchemaTupleFactory keySchemaTupleFactory = keySchemaTupleFactories.get(i);
+
             // We use LocalRearrange Operator to seperate Key and Values
             // eg. ( a, b, c ) would generate a, ( a, b, c )
             // And we use 'a' as the key to the HashMap
@@ -398,14 +431,20 @@ public class POFRJoin extends PhysicalOperator {
             // We could have manually done this, but LocalRearrange does the
             // same thing, so utilizing its functionality
             POLocalRearrange lr = LRs[i];
-            lr.setInputs(Arrays.asList((PhysicalOperator) ld));
+            lr.setInputs(null);
 
             TupleToMapKey replicate = new TupleToMapKey(1000, keySchemaTupleFactory);
 
             log.debug("Completed setup. Trying to build replication hash table");
-            for (Result res = lr.getNext(dummyTuple);res.returnStatus != POStatus.STATUS_EOP;res = lr.getNext(dummyTuple)) {
+            Iterator<Tuple> replicatedInput = replicatedInputs.get(i);
+            while (replicatedInput.hasNext()) {
                 if (reporter != null)
                     reporter.progress();               
+                lr.attachInput(replicatedInput.next());
+                Result res = lr.getNext(dummyTuple);
+                if (res.returnStatus != POStatus.STATUS_OK) {
+                    continue;
+                }
                 Tuple tuple = (Tuple) res.result;
                 if (isKeyNull(tuple.get(1))) continue;
                 Tuple key = mTupleFactory.newTuple(1);
@@ -422,6 +461,69 @@ public class POFRJoin extends PhysicalOperator {
         }
         long time2 = System.currentTimeMillis();
         log.debug("Hash Table built. Time taken: " + (time2 - time1));
+        return replicates;
+    }
+
+    /**
+     * Uses hash tables built by {@link #buildReplicates(List)} instead of
+     * loading the replicated inputs from replFiles.
+     * 
+     * @param replicates
+     */
+    public void setReplicates(TupleToMapKey[] replicates) {
+        this.replicates = replicates;
+        setUp = true;
+    }
+
+    /**
+     * Reads all the tuples of a replicated input through its POLoad. The errors of the load are
+     * thrown as RuntimeExceptions caused by an ExecException.
+     */
+    private static class LoadIterator implements Iterator<Tuple> {
+        private final POLoad ld;
+        private Result next;
+
+        LoadIterator(POLoad ld) {
+            this.ld = ld;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    Result res = ld.getNext(dummyTuple);
+                    if (res.returnStatus == POStatus.STATUS_EOP) {
+                        return false;
+                    }
+                    if (res.returnStatus == POStatus.STATUS_ERR) {
+                        int errCode = 6018;
+                        String msg = "Error while reading replicated input " + ld.getLFile().getFileName();
+                        throw new ExecException(msg, errCode, PigException.REMOTE_ENVIRONMENT);
+                    }
+                    if (res.returnStatus == POStatus.STATUS_OK) {
+                        next = res;
+                    }
+                }
+                return true;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple tuple = (Tuple) next.result;
+            next = null;
+            return tuple;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
 
     private boolean isKeyNull(Object key) throws ExecException {
@@ -107,6 +107,9 @@ public class POMergeCogroup extends PhysicalOperator {
     // call or not.
     private transient boolean workingOnNewKey;
 
+    // split of the base relation being processed, when it isn't read by a Hadoop mapper
+    private int splitIndex = -1;
+
     public POMergeCogroup(OperatorKey k,List<PhysicalOperator> inpPOs, 
             POLocalRearrange[] lrs, int parallel) {
 
@@ -317,7 +320,8 @@ public class POMergeCogroup extends PhysicalOperator {
     private void setup(Tuple firstRearrangedTup) throws IOException{
 
         // Read our own split Index.
-        int  curSplitIdx = ((PigSplit)((Context)PigMapReduce.sJobContext).getInputSplit()).getSplitIndex();
+        int  curSplitIdx = splitIndex >= 0 ? splitIndex :
+            ((PigSplit)((Context)PigMapReduce.sJobContext).getInputSplit()).getSplitIndex();
         Object firstBaseKey = firstRearrangedTup.get(1);
         List<Pair<Integer,Tuple>> index = readIndex();
 
@@ -520,6 +524,10 @@ public class POMergeCogroup extends PhysicalOperator {
         this.idxFuncSpec = idxFileSpec;
     }
 
+    public void setSplitIndex(int splitIndex) {
+        this.splitIndex = splitIndex;
+    }
+
     public void setLoaderSignatures(List<String> loaderSignatures) {
         this.loaderSignatures = loaderSignatures;
     }
@@ -647,6 +647,10 @@ public class POMergeJoin extends PhysicalOperator {
         return inpPlans.get(inputs.get(index));
     }
 
+    public List<PhysicalPlan> getLRInnerPlansOf(int i) {
+        return this.LRs[i].getPlans();
+    }
+
     @Override
     public void visit(PhyPlanVisitor v) throws VisitorException {
         v.visitMergeJoin(this);
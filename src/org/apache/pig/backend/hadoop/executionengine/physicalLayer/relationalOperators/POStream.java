@@ -342,6 +342,27 @@ public class POStream extends PhysicalOperator {
         executableManager.close();
     }
 
+    /**
+     * Kills the streaming binary if it is still running, when the output of this operator is
+     * not read to the end.
+     */
+    public void kill() throws IOException {
+        if (initialized) {
+            executableManager.kill();
+            // unblocks the thread reading the output of the binary
+            binaryOutputQueue.clear();
+        }
+    }
+
+    /**
+     * Sets the number of tuples queued for and from the binary, one by default
+     * @param bufferSize the capacity of each queue
+     */
+    public void setBufferSize(int bufferSize) {
+        binaryInputQueue = new ArrayBlockingQueue<Result>(bufferSize);
+        binaryOutputQueue = new ArrayBlockingQueue<Result>(bufferSize);
+    }
+
     /**
      * @return the Queue which has input to binary
      */
@@ -0,0 +1,115 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.apache.pig.impl.util.UDFContext;
+
+import spark.SparkContext;
+import spark.broadcast.Broadcast;
+
+/**
+ * Ships the serialized PigContext, UDFContext and UDF import list to the executors once per
+ * launch, as a single broadcast, instead of in the JobConf of every Hadoop RDD and task function.
+ * A launch starts its own broadcast and hands it to the converters building JobConfs, which then
+ * only hold a handle on it, and {@link #initialize(Configuration)} puts the entries back in the
+ * configuration of the tasks. The broadcast is read once per executor JVM.
+ */
+public class JobConfBroadcast {
+
+    private static final Log LOG = LogFactory.getLog(JobConfBroadcast.class);
+
+    // the serialized broadcast, set in the JobConfs instead of the entries
+    static final String BROADCAST_KEY = "pig.spark.jobconf.broadcast";
+
+    // the last broadcast read by this JVM
+    private static String receivedHandle = null;
+    private static Map<String, String> receivedEntries = null;
+
+    // the broadcast of the launch, and the entries it holds
+    private final String handle;
+    private final Map<String, String> entries;
+
+    private JobConfBroadcast(String handle, Map<String, String> entries) {
+        this.handle = handle;
+        this.entries = entries;
+    }
+
+    /**
+     * Broadcasts the context of a launch about to run.
+     */
+    static JobConfBroadcast start(SparkContext sparkContext, PigContext pigContext) throws IOException {
+        HashMap<String, String> broadcastEntries = new HashMap<String, String>();
+        broadcastEntries.put("pig.pigContext", ObjectSerializer.serialize(pigContext));
+        broadcastEntries.put("udf.import.list", ObjectSerializer.serialize(PigContext.getPackageImportList()));
+        broadcastEntries.putAll(getUDFContextEntries());
+
+        Broadcast<HashMap<String, String>> broadcast = sparkContext.broadcast(broadcastEntries);
+        LOG.info("Broadcast the Pig context of the launch as " + broadcast);
+        return new JobConfBroadcast(ObjectSerializer.serialize(broadcast), broadcastEntries);
+    }
+
+    /**
+     * Sets the context of the tasks in jobConf: a handle on broadcast, or the serialized context if
+     * broadcast is null. UDFContext properties set since the launch started, by the LoadFuncs and
+     * StoreFuncs being configured, are still set in jobConf.
+     */
+    static void configure(JobConfBroadcast broadcast, PigContext pigContext, Configuration jobConf)
+            throws IOException {
+        Map<String, String> udfContextEntries = getUDFContextEntries();
+        if (broadcast == null) {
+            jobConf.set("pig.pigContext", ObjectSerializer.serialize(pigContext));
+            jobConf.set("udf.import.list", ObjectSerializer.serialize(PigContext.getPackageImportList()));
+        } else {
+            jobConf.set(BROADCAST_KEY, broadcast.handle);
+        }
+        for (Map.Entry<String, String> entry : udfContextEntries.entrySet()) {
+            if (broadcast == null || !entry.getValue().equals(broadcast.entries.get(entry.getKey()))) {
+                jobConf.set(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Completes a configuration made by {@link #configure(JobConfBroadcast, PigContext, Configuration)}
+     * with the broadcast context, if it was left out.
+     */
+    public static void initialize(Configuration conf) throws IOException {
+        String broadcastHandle = conf.get(BROADCAST_KEY);
+        if (broadcastHandle == null) {
+            return;
+        }
+        Map<String, String> broadcastEntries;
+        synchronized (JobConfBroadcast.class) {
+            if (!broadcastHandle.equals(receivedHandle)) {
+                @SuppressWarnings("unchecked")
+                Broadcast<HashMap<String, String>> broadcast =
+                        (Broadcast<HashMap<String, String>>)ObjectSerializer.deserialize(broadcastHandle);
+                receivedEntries = broadcast.value();
+                receivedHandle = broadcastHandle;
+            }
+            broadcastEntries = receivedEntries;
+        }
+        for (Map.Entry<String, String> entry : broadcastEntries.entrySet()) {
+            if (conf.get(entry.getKey()) == null) {
+                conf.set(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> getUDFContextEntries() throws IOException {
+        Configuration udfConf = new Configuration(false);
+        UDFContext.getUDFContext().serialize(udfConf);
+        Map<String, String> udfContextEntries = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : udfConf) {
+            udfContextEntries.put(entry.getKey(), entry.getValue());
+        }
+        return udfContextEntries;
+    }
+}
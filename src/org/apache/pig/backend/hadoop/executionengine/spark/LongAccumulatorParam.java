@@ -0,0 +1,30 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import spark.AccumulatorParam;
+
+/**
+ * Sums longs in Spark accumulators.
+ */
+@SuppressWarnings({ "serial"})
+public class LongAccumulatorParam implements AccumulatorParam<Long> {
+
+    public static final LongAccumulatorParam INSTANCE = new LongAccumulatorParam();
+
+    private LongAccumulatorParam() {
+    }
+
+    @Override
+    public Long addAccumulator(Long t1, Long t2) {
+        return t1 + t2;
+    }
+
+    @Override
+    public Long addInPlace(Long t1, Long t2) {
+        return t1 + t2;
+    }
+
+    @Override
+    public Long zero(Long initialValue) {
+        return 0L;
+    }
+}
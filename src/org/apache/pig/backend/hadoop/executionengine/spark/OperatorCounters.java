@@ -0,0 +1,62 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.impl.plan.OperatorKey;
+
+import spark.Accumulator;
+import spark.SparkContext;
+
+/**
+ * Spark accumulators counting the tuples an operator produces and the time spent in the operator
+ * itself, not in the ones pipelined before it. They are updated for every tuple by the functions
+ * of the converter, inside the RDDs it creates, so a partition that is not read to the end is
+ * counted too. A partition that is computed several times (sampling, recomputation of an uncached
+ * RDD) is counted every time.
+ */
+@SuppressWarnings({ "serial"})
+public class OperatorCounters implements Serializable {
+
+    private final Accumulator<Long> tuples;
+    private final Accumulator<Long> nanos;
+
+    private OperatorCounters(SparkContext sparkContext) {
+        this.tuples = sparkContext.accumulator(0L, LongAccumulatorParam.INSTANCE);
+        this.nanos = sparkContext.accumulator(0L, LongAccumulatorParam.INSTANCE);
+    }
+
+    /**
+     * Creates the counters of physicalOperator, read back by the launch from counters once its
+     * jobs are done.
+     * @return null if counters is null, when the plan is converted outside of a launch
+     */
+    public static OperatorCounters register(Map<OperatorKey, OperatorCounters> counters,
+            PhysicalOperator physicalOperator, SparkContext sparkContext) {
+        if (counters == null) {
+            return null;
+        }
+        OperatorCounters operatorCounters = new OperatorCounters(sparkContext);
+        counters.put(physicalOperator.getOperatorKey(), operatorCounters);
+        return operatorCounters;
+    }
+
+    /**
+     * Counts tupleCount tuples produced and nanoCount nanoseconds spent in the operator.
+     */
+    public void add(long tupleCount, long nanoCount) {
+        if (tupleCount != 0) {
+            tuples.$plus$eq(tupleCount);
+        }
+        nanos.$plus$eq(nanoCount);
+    }
+
+    public long getTuples() {
+        return tuples.value();
+    }
+
+    public long getTimeMillis() {
+        return nanos.value() / 1000000L;
+    }
+}
@@ -0,0 +1,144 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.ShuffleStrategy;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperator;
+import org.python.google.common.collect.Sets;
+
+/**
+ * Sets the number of partitions of the shuffles without PARALLEL, like InputSizeReducerEstimator
+ * does for the reducers: one partition per pig.exec.reducers.bytes.per.reducer bytes of input,
+ * up to pig.exec.reducers.max. The input of a shuffle is made of the loads it reads from, or of
+ * the relations already computed and cached in memory. When no input size is known, the shuffle
+ * keeps the default parallelism of the SparkContext. As in MapReduce, nothing is estimated when
+ * default_parallel is set: it is requested on the shuffles without PARALLEL instead.
+ */
+public class ParallelismEstimator {
+
+    private static final Log LOG = LogFactory.getLog(ParallelismEstimator.class);
+
+    public static final String BYTES_PER_REDUCER = "pig.exec.reducers.bytes.per.reducer";
+    public static final String MAX_REDUCERS = "pig.exec.reducers.max";
+
+    private static final long DEFAULT_BYTES_PER_REDUCER = 1000 * 1000 * 1000;
+    private static final int DEFAULT_MAX_REDUCERS = 999;
+
+    private final PhysicalPlan physicalPlan;
+    private final Configuration conf;
+    private final RDDCacheManager cacheManager;
+    private final int defaultParallel;
+    private final long bytesPerReducer;
+    private final int maxReducers;
+
+    // sizes of the loads, which may be read by several shuffles
+    private final Map<POLoad, Long> loadSizes = new HashMap<POLoad, Long>();
+
+    /**
+     * @param cacheManager the cached relations, or null if they are not known
+     * @param defaultParallel the default_parallel of the script, 0 or less if not set
+     */
+    public ParallelismEstimator(PhysicalPlan physicalPlan, Configuration conf, RDDCacheManager cacheManager,
+            int defaultParallel) {
+        this.physicalPlan = physicalPlan;
+        this.conf = conf;
+        this.cacheManager = cacheManager;
+        this.defaultParallel = defaultParallel;
+        this.bytesPerReducer = conf.getLong(BYTES_PER_REDUCER, DEFAULT_BYTES_PER_REDUCER);
+        this.maxReducers = conf.getInt(MAX_REDUCERS, DEFAULT_MAX_REDUCERS);
+    }
+
+    /**
+     * Estimates the parallelism of the shuffle stages of sparkPlan whose operator has no requested
+     * parallelism, or takes default_parallel if set, and requests it on the operator.
+     */
+    public void estimate(SparkOperPlan sparkPlan) {
+        for (SparkOperator stage : sparkPlan) {
+            PhysicalOperator head = stage.getHead();
+            if (!stage.isShuffle() || stage.getShuffleStrategy() == ShuffleStrategy.TOP_K || stage.isConstantKey() || head.getRequestedParallelism() > 0
+                    || !isPartitioned(head)) {
+                continue;
+            }
+            if (defaultParallel > 0) {
+                LOG.info("Using default_parallel " + defaultParallel + " for " + head);
+                head.setRequestedParallelism(defaultParallel);
+                continue;
+            }
+            long inputSize = getInputSize(head, Sets.<PhysicalOperator>newHashSet());
+            if (inputSize < 0) {
+                continue;
+            }
+            int parallelism = (int)Math.ceil((double)inputSize / bytesPerReducer);
+            parallelism = Math.max(1, parallelism);
+            parallelism = Math.min(maxReducers, parallelism);
+            LOG.info("Estimated parallelism of " + head + ": " + parallelism + " for an input of "
+                    + inputSize + " bytes, BytesPerReducer=" + bytesPerReducer + " maxReducers="
+                    + maxReducers);
+            head.setRequestedParallelism(parallelism);
+            stage.setEstimatedParallelism(parallelism);
+        }
+    }
+
+    private static boolean isPartitioned(PhysicalOperator physicalOperator) {
+        return physicalOperator instanceof POGlobalRearrange || physicalOperator instanceof PODistinct
+                || physicalOperator instanceof POSort || physicalOperator instanceof POSkewedJoin;
+    }
+
+    /**
+     * @return the size in bytes of the inputs physicalOperator is computed from, leaving out the
+     * ones of unknown size, or -1 if none is known
+     */
+    private long getInputSize(PhysicalOperator physicalOperator, Set<PhysicalOperator> seen) {
+        if (!seen.add(physicalOperator)) {
+            // already counted through another path
+            return -1;
+        }
+        if (physicalOperator instanceof POLoad) {
+            POLoad poLoad = (POLoad)physicalOperator;
+            Long size = loadSizes.get(poLoad);
+            if (size == null) {
+                size = SparkUtil.getInputSize(poLoad, conf);
+                loadSizes.put(poLoad, size);
+            }
+            return size;
+        }
+        if (physicalOperator instanceof POCache && cacheManager != null) {
+            try {
+                String key = ((POCache)physicalOperator).computeCacheKey();
+                long size = key == null ? -1 : cacheManager.getMemorySize(key);
+                if (size > 0) {
+                    return size;
+                }
+            } catch (IOException e) {
+                LOG.debug("Could not compute the cache key of " + physicalOperator, e);
+            }
+        }
+        long inputSize = -1;
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(physicalOperator);
+        if (predecessors != null) {
+            for (PhysicalOperator predecessor : predecessors) {
+                long size = getInputSize(predecessor, seen);
+                if (size >= 0) {
+                    inputSize = Math.max(inputSize, 0) + size;
+                }
+            }
+        }
+        return inputSize;
+    }
+}
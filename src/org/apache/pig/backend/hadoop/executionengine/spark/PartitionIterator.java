@@ -0,0 +1,152 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.tools.pigstats.OutputStats;
+import org.apache.pig.tools.pigstats.ScriptState;
+import org.apache.pig.tools.pigstats.SparkStats;
+import org.python.google.common.collect.Lists;
+
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+
+/**
+ * Iterates over the tuples of an RDD from the driver, computing its partitions one at a time
+ * when the iteration reaches them: only one partition is held in memory, and the partitions
+ * after the last one read are never computed. The Spark session is only held while a partition
+ * is computed, so an iterator that is not read to the end does not keep the session running.
+ * Once all the partitions are read, the RDDs persisted by the launch are unpersisted and the
+ * output and launch completion are notified, as a store would.
+ */
+@SuppressWarnings({ "serial"})
+class PartitionIterator implements Iterator<Tuple> {
+
+    private static final Log LOG = LogFactory.getLog(PartitionIterator.class);
+
+    private static final CollectFunction COLLECT_FUNCTION = new CollectFunction();
+
+    private final RDD<Tuple> rdd;
+    private final SparkSession session;
+    private final List<RDD<Tuple>> persisted;
+    private final SparkStats stats;
+    private final POStore poStore;
+    private final int partitionCount;
+
+    // the next partition to compute, and the tuples left in the current one
+    private int partition = 0;
+    private Iterator<Tuple> tuples = Collections.<Tuple>emptyList().iterator();
+    private long tupleCount = 0;
+
+    /**
+     * Must be called by a launch holding session.
+     */
+    PartitionIterator(RDD<Tuple> rdd, SparkSession session, List<RDD<Tuple>> persisted,
+            SparkStats stats, POStore poStore) {
+        this.rdd = rdd;
+        this.session = session;
+        this.persisted = persisted;
+        this.stats = stats;
+        this.poStore = poStore;
+        this.partitionCount = rdd.splits().length;
+        if (partitionCount == 0) {
+            SparkLauncher.unpersist(persisted);
+            complete(true);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!tuples.hasNext() && partition < partitionCount) {
+            List<Tuple> computed;
+            try {
+                computed = compute(partition++);
+            } catch (RuntimeException e) {
+                // the job failed, there is nothing more to read
+                partition = partitionCount;
+                complete(false);
+                throw e;
+            }
+            tupleCount += computed.size();
+            tuples = computed.iterator();
+            if (partition == partitionCount) {
+                complete(true);
+            } else {
+                ScriptState.get().emitProgressUpdatedNotification(100 * partition / partitionCount);
+            }
+        }
+        return tuples.hasNext();
+    }
+
+    @Override
+    public Tuple next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return tuples.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void complete(boolean success) {
+        OutputStats outputStats = stats.addOutputInfo(poStore, -1, tupleCount, success);
+        if (success) {
+            ScriptState.get().emitOutputCompletedNotification(outputStats);
+            ScriptState.get().emitProgressUpdatedNotification(100);
+        }
+        ScriptState.get().emitLaunchCompletedNotification(success ? 1 : 0);
+        stats.stop();
+    }
+
+    /**
+     * Computes a partition in a job of its own, holding the session during the job only.
+     */
+    private List<Tuple> compute(int index) {
+        if (!session.retain()) {
+            throw new IllegalStateException("The Spark session was stopped before partition " + index
+                    + " of " + partitionCount + " was read");
+        }
+        boolean last = true;
+        try {
+            List<Object> partitions = Lists.newArrayList();
+            partitions.add(index);
+            Object[] results = (Object[])rdd.context().runJob(rdd, COLLECT_FUNCTION,
+                    SparkUtil.toScalaSeq(partitions), false, SparkUtil.getManifest(Tuple[].class));
+            Tuple[] result = (Tuple[])results[0];
+            if (LOG.isDebugEnabled())
+                LOG.debug("Read " + result.length + " tuples from partition " + index + " of " + partitionCount);
+            last = index == partitionCount - 1;
+            return Arrays.asList(result);
+        } finally {
+            if (last) {
+                // done with the RDDs shared by the operators of the launch, or failed
+                SparkLauncher.unpersist(persisted);
+            }
+            session.release();
+        }
+    }
+
+    private static class CollectFunction extends AbstractFunction1<scala.collection.Iterator<Tuple>, Tuple[]>
+            implements Serializable {
+
+        @Override
+        public Tuple[] apply(scala.collection.Iterator<Tuple> i) {
+            List<Tuple> tuples = Lists.newArrayList();
+            while (i.hasNext()) {
+                tuples.add(i.next());
+            }
+            return tuples.toArray(new Tuple[tuples.size()]);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.InterStorage;
+
+import scala.Tuple2;
+import scala.runtime.AbstractFunction1;
+import spark.PairRDDFunctions;
+import spark.RDD;
+import spark.SparkContext;
+
+/**
+ * Durable tier of the CACHE statements. Cached relations are written under pig.spark.cache.dir
+ * (local or HDFS) with the binary format of InterStorage and reused by later scripts and
+ * sessions. An entry is keyed by the POCache key and by the modification time and size of every
+ * file of the inputs it was computed from, so it is not reused once an input has changed.
+ * A new entry is written after the stores of the launch, from the relation they computed.
+ */
+public class PersistentResultCache {
+
+    private static final Log LOG = LogFactory.getLog(PersistentResultCache.class);
+
+    // directory of the durable cache, which is disabled when not set
+    public static final String CACHE_DIR = "pig.spark.cache.dir";
+
+    private static final ToTupleFunction TO_TUPLE_FUNCTION = new ToTupleFunction();
+    private static final FromTupleFunction FROM_TUPLE_FUNCTION = new FromTupleFunction();
+
+    private final Path cacheDir;
+    private final JobConf jobConf;
+
+    // the relations to write once the stores of the launch have computed them, by entry key
+    private final Map<String, RDD<Tuple>> pendingSaves = new LinkedHashMap<String, RDD<Tuple>>();
+
+    private PersistentResultCache(Path cacheDir, JobConf jobConf) {
+        this.cacheDir = cacheDir;
+        this.jobConf = jobConf;
+    }
+
+    /**
+     * @return the durable cache configured in properties, or null if there is none
+     */
+    public static PersistentResultCache create(Properties properties) {
+        String cacheDir = properties.getProperty(CACHE_DIR);
+        if (cacheDir == null) {
+            return null;
+        }
+        return new PersistentResultCache(new Path(cacheDir),
+                new JobConf(ConfigurationUtil.toConfiguration(properties)));
+    }
+
+    /**
+     * @return the key of the entry for this relation, or null if it can't be cached durably
+     * because it doesn't only depend on files
+     */
+    public String getEntryKey(POCache poCache) throws IOException {
+        String cacheKey = poCache.computeCacheKey();
+        if (cacheKey == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(cacheKey);
+        if (!addInputFingerprints(poCache.getInputs(), sb)) {
+            return null;
+        }
+        return UUID.nameUUIDFromBytes(sb.toString().getBytes("UTF-8")).toString();
+    }
+
+    private boolean addInputFingerprints(List<PhysicalOperator> inputs, StringBuilder sb)
+            throws IOException {
+        if (inputs == null) {
+            return true;
+        }
+        for (PhysicalOperator input : inputs) {
+            if (input instanceof POLoad) {
+                String location = ((POLoad)input).getLFile().getFileName();
+                Path path = new Path(location);
+                FileSystem fs;
+                FileStatus[] statuses;
+                try {
+                    fs = path.getFileSystem(jobConf);
+                    statuses = fs.globStatus(path);
+                } catch (IOException e) {
+                    LOG.debug("Not caching durably, can't list " + location, e);
+                    return false;
+                }
+                if (statuses == null || statuses.length == 0) {
+                    return false;
+                }
+                sb.append('\n').append(location);
+                for (FileStatus status : statuses) {
+                    addFileFingerprints(fs, status, sb);
+                }
+            } else if (!addInputFingerprints(input.getInputs(), sb)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addFileFingerprints(FileSystem fs, FileStatus status, StringBuilder sb)
+            throws IOException {
+        if (status.isDir()) {
+            for (FileStatus child : fs.listStatus(status.getPath())) {
+                addFileFingerprints(fs, child, sb);
+            }
+        } else {
+            sb.append('\n').append(status.getPath()).append(' ').append(status.getModificationTime())
+                    .append(' ').append(status.getLen());
+        }
+    }
+
+    /**
+     * @return the cached relation, or null if there is no entry for this key
+     */
+    public RDD<Tuple> load(SparkContext sparkContext, String entryKey) throws IOException {
+        Path path = new Path(cacheDir, entryKey);
+        if (!path.getFileSystem(jobConf).exists(path)) {
+            return null;
+        }
+        LOG.info("Reading cached relation from " + path);
+        RDD<Tuple2<Text, Tuple>> hadoopRDD = sparkContext.newAPIHadoopFile(path.toString(),
+                InterStorage.InterInputFormat.class, Text.class, Tuple.class, new JobConf(jobConf));
+        return hadoopRDD.map(TO_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * Writes the relation once the stores of the launch have computed it, see {@link #savePending()}.
+     */
+    public synchronized void saveLater(RDD<Tuple> rdd, String entryKey) {
+        pendingSaves.put(entryKey, rdd);
+    }
+
+    /**
+     * Writes the relations computed by the stores of the launch. The stores are done already, so
+     * an entry that can't be written is only logged.
+     */
+    public synchronized void savePending() {
+        for (Map.Entry<String, RDD<Tuple>> pendingSave : pendingSaves.entrySet()) {
+            try {
+                save(pendingSave.getValue(), pendingSave.getKey());
+            } catch (Exception e) {
+                LOG.warn("Could not write cached relation " + pendingSave.getKey(), e);
+            }
+        }
+        pendingSaves.clear();
+    }
+
+    /**
+     * Writes the relation to a temporary directory and renames it once complete, so that a
+     * partially written entry is never read. The temporary directory is removed if the write fails.
+     */
+    private void save(RDD<Tuple> rdd, String entryKey) throws IOException {
+        Path path = new Path(cacheDir, entryKey);
+        Path tmpPath = new Path(cacheDir, "_tmp-" + entryKey + "-" + UUID.randomUUID());
+        FileSystem fs = path.getFileSystem(jobConf);
+        LOG.info("Writing cached relation to " + path);
+        RDD<Tuple2<Text, Tuple>> rddPairs = rdd.map(FROM_TUPLE_FUNCTION, SparkUtil.<Text, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Text, Tuple> pairRDDFunctions = new PairRDDFunctions<Text, Tuple>(rddPairs,
+                SparkUtil.getManifest(Text.class), SparkUtil.getManifest(Tuple.class));
+        boolean written = false;
+        try {
+            pairRDDFunctions.saveAsNewAPIHadoopFile(tmpPath.toString(), Text.class, Tuple.class,
+                    InterStorage.InterOutputFormat.class, new JobConf(jobConf));
+            written = true;
+        } finally {
+            if (!written) {
+                fs.delete(tmpPath, true);
+            }
+        }
+
+        if (!fs.rename(tmpPath, path)) {
+            // another script cached the same relation in the meantime
+            LOG.info("Could not rename " + tmpPath + " to " + path);
+            fs.delete(tmpPath, true);
+        }
+    }
+
+    @SuppressWarnings({ "serial"})
+    private static class ToTupleFunction extends AbstractFunction1<Tuple2<Text, Tuple>, Tuple>
+            implements Serializable {
+
+        public Tuple apply(Tuple2<Text, Tuple> v1) {
+            return v1._2();
+        }
+    }
+
+    @SuppressWarnings({ "serial"})
+    private static class FromTupleFunction extends AbstractFunction1<Tuple, Tuple2<Text, Tuple>>
+            implements Serializable {
+
+        private static Text EMPTY_TEXT = new Text();
+
+        public Tuple2<Text, Tuple> apply(Tuple v1) {
+            return new Tuple2<Text, Tuple>(EMPTY_TEXT, v1);
+        }
+    }
+}
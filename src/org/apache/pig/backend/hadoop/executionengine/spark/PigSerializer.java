@@ -0,0 +1,398 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.impl.io.NullableBag;
+import org.apache.pig.impl.io.NullableBooleanWritable;
+import org.apache.pig.impl.io.NullableBytesWritable;
+import org.apache.pig.impl.io.NullableDoubleWritable;
+import org.apache.pig.impl.io.NullableFloatWritable;
+import org.apache.pig.impl.io.NullableIntWritable;
+import org.apache.pig.impl.io.NullableLongWritable;
+import org.apache.pig.impl.io.NullablePartitionWritable;
+import org.apache.pig.impl.io.NullableText;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.io.NullableUnknownWritable;
+import org.apache.pig.impl.io.PigNullableWritable;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.collection.mutable.ArrayBuffer;
+import spark.DeserializationStream;
+import spark.SerializationStream;
+import spark.Serializer;
+import spark.SerializerInstance;
+
+/**
+ * Spark serializer writing Pig data with BinInterSedes, the compact encoding Pig uses between
+ * map and reduce (including the generated SchemaTuple classes when they are enabled). Pig
+ * datums, the Nullable writables, scala pairs and the lists used as combiners are written
+ * natively; anything else falls back to Java serialization.
+ */
+public class PigSerializer implements Serializer {
+
+    // type markers preceding every object
+    private static final byte PIG_DATUM = 0;
+    private static final byte PAIR = 1;
+    private static final byte NULLABLE_WRITABLE = 2;
+    private static final byte ARRAY_LIST = 3;
+    private static final byte ARRAY_BUFFER = 4;
+    private static final byte JAVA_OBJECT = 5;
+
+    // the Nullable writables written with a one byte tag, their index + 1, instead of their class
+    // name, which follows a tag of 0
+    private static final List<Class<? extends PigNullableWritable>> NULLABLE_WRITABLE_CLASSES =
+            Arrays.<Class<? extends PigNullableWritable>>asList(
+                    NullableTuple.class,
+                    NullableText.class,
+                    NullableIntWritable.class,
+                    NullableLongWritable.class,
+                    NullableFloatWritable.class,
+                    NullableDoubleWritable.class,
+                    NullableBooleanWritable.class,
+                    NullableBytesWritable.class,
+                    NullableBag.class,
+                    NullablePartitionWritable.class,
+                    NullableUnknownWritable.class);
+
+    private static final InterSedes SEDES = InterSedesFactory.getInterSedesInstance();
+
+    @Override
+    public SerializerInstance newInstance() {
+        return new PigSerializerInstance();
+    }
+
+    private static void write(DataOutputStream out, Object o) throws IOException {
+        if (o instanceof Tuple2) {
+            out.writeByte(PAIR);
+            write(out, ((Tuple2<?, ?>)o)._1());
+            write(out, ((Tuple2<?, ?>)o)._2());
+        } else if (o instanceof PigNullableWritable) {
+            out.writeByte(NULLABLE_WRITABLE);
+            int tag = NULLABLE_WRITABLE_CLASSES.indexOf(o.getClass()) + 1;
+            out.writeByte(tag);
+            if (tag == 0) {
+                out.writeUTF(o.getClass().getName());
+            }
+            ((PigNullableWritable)o).write(out);
+        } else if (o != null && o.getClass() == ArrayList.class) {
+            out.writeByte(ARRAY_LIST);
+            List<?> list = (List<?>)o;
+            out.writeInt(list.size());
+            for (Object element : list) {
+                write(out, element);
+            }
+        } else if (o != null && o.getClass() == ArrayBuffer.class) {
+            out.writeByte(ARRAY_BUFFER);
+            ArrayBuffer<?> buffer = (ArrayBuffer<?>)o;
+            out.writeInt(buffer.size());
+            for (int i = 0; i < buffer.size(); i++) {
+                write(out, buffer.apply(i));
+            }
+        } else if (isPigDatum(o)) {
+            out.writeByte(PIG_DATUM);
+            SEDES.writeDatum(out, o);
+        } else {
+            out.writeByte(JAVA_OBJECT);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(o);
+            objectOut.close();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    private static Object read(DataInputStream in, ClassLoader loader) throws IOException {
+        byte marker = in.readByte();
+        switch (marker) {
+        case PAIR:
+            Object first = read(in, loader);
+            return new Tuple2<Object, Object>(first, read(in, loader));
+        case NULLABLE_WRITABLE:
+            int tag = in.readByte();
+            String className = tag == 0 ? in.readUTF() : null;
+            PigNullableWritable writable;
+            try {
+                Class<?> writableClass = className == null ? NULLABLE_WRITABLE_CLASSES.get(tag - 1)
+                        : Class.forName(className, true, loader);
+                writable = (PigNullableWritable)writableClass.newInstance();
+            } catch (Exception e) {
+                throw new IOException("Could not instantiate the Nullable writable of tag " + tag
+                        + (className == null ? "" : ", " + className), e);
+            }
+            writable.readFields(in);
+            return writable;
+        case ARRAY_LIST:
+            int listSize = in.readInt();
+            ArrayList<Object> list = new ArrayList<Object>(listSize);
+            for (int i = 0; i < listSize; i++) {
+                list.add(read(in, loader));
+            }
+            return list;
+        case ARRAY_BUFFER:
+            int bufferSize = in.readInt();
+            ArrayBuffer<Object> buffer = new ArrayBuffer<Object>(bufferSize);
+            for (int i = 0; i < bufferSize; i++) {
+                buffer.$plus$eq(read(in, loader));
+            }
+            return buffer;
+        case PIG_DATUM:
+            return SEDES.readDatum(in);
+        case JAVA_OBJECT:
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream objectIn = new ClassLoaderObjectInputStream(
+                    new ByteArrayInputStream(bytes), loader);
+            try {
+                return objectIn.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Could not deserialize object", e);
+            } finally {
+                objectIn.close();
+            }
+        default:
+            throw new IOException("Unexpected type marker " + marker);
+        }
+    }
+
+    /**
+     * @return true for the types BinInterSedes writes on its own. Maps are left out since only
+     * Pig maps (with chararray keys) are supported.
+     */
+    private static boolean isPigDatum(Object o) {
+        switch (DataType.findType(o)) {
+        case DataType.NULL:
+        case DataType.BOOLEAN:
+        case DataType.BYTE:
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+        case DataType.BYTEARRAY:
+        case DataType.CHARARRAY:
+        case DataType.TUPLE:
+        case DataType.BAG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Rethrows a checked exception from the methods of the Scala traits, which declare none.
+     * Spark relies on EOFException to detect the end of a stream.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> RuntimeException rethrow(Throwable t) throws E {
+        throw (E)t;
+    }
+
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader loader;
+
+        private ClassLoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+            super(in);
+            this.loader = loader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, loader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+
+    private static class PigSerializerInstance implements SerializerInstance {
+
+        @Override
+        public <T> ByteBuffer serialize(T t) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializeStream(bytes).writeObject(t).close();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        @Override
+        public <T> T deserialize(ByteBuffer bytes) {
+            return this.<T>deserialize(bytes, getClassLoader());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T deserialize(ByteBuffer bytes, ClassLoader loader) {
+            return (T)new PigDeserializationStream(toInputStream(bytes), loader).readObject();
+        }
+
+        @Override
+        public SerializationStream serializeStream(OutputStream s) {
+            return new PigSerializationStream(s);
+        }
+
+        @Override
+        public DeserializationStream deserializeStream(InputStream s) {
+            return new PigDeserializationStream(s, getClassLoader());
+        }
+
+        private static ClassLoader getClassLoader() {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            return loader == null ? PigSerializer.class.getClassLoader() : loader;
+        }
+
+        public <T> ByteBuffer serializeMany(Iterator<T> iterator) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            serializeStream(bytes).writeAll(iterator).close();
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        public Iterator<Object> deserializeMany(ByteBuffer buffer) {
+            return deserializeStream(toInputStream(buffer)).asIterator();
+        }
+
+        private static InputStream toInputStream(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                        buffer.remaining());
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    private static class PigSerializationStream implements SerializationStream {
+        private final DataOutputStream out;
+
+        private PigSerializationStream(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        @Override
+        public <T> SerializationStream writeObject(T t) {
+            try {
+                write(out, t);
+            } catch (IOException e) {
+                throw PigSerializer.<RuntimeException>rethrow(e);
+            }
+            return this;
+        }
+
+        public <T> SerializationStream writeAll(Iterator<T> iterator) {
+            while (iterator.hasNext()) {
+                writeObject(iterator.next());
+            }
+            return this;
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw PigSerializer.<RuntimeException>rethrow(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw PigSerializer.<RuntimeException>rethrow(e);
+            }
+        }
+    }
+
+    private static class PigDeserializationStream implements DeserializationStream {
+        private final DataInputStream in;
+        private final ClassLoader loader;
+
+        private PigDeserializationStream(InputStream in, ClassLoader loader) {
+            this.in = new DataInputStream(in);
+            this.loader = loader;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readObject() {
+            try {
+                return (T)read(in, loader);
+            } catch (IOException e) {
+                throw PigSerializer.<RuntimeException>rethrow(e);
+            }
+        }
+
+        public Iterator<Object> asIterator() {
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Object>() {
+                private Object next = null;
+                private boolean gotNext = false;
+                private boolean finished = false;
+
+                private void getNext() {
+                    if (!gotNext) {
+                        try {
+                            next = read(in, loader);
+                        } catch (EOFException e) {
+                            finished = true;
+                            close();
+                        } catch (IOException e) {
+                            throw new RuntimeException("Could not deserialize object", e);
+                        }
+                        gotNext = true;
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    getNext();
+                    return !finished;
+                }
+
+                @Override
+                public Object next() {
+                    getNext();
+                    if (finished) {
+                        throw new NoSuchElementException();
+                    }
+                    gotNext = false;
+                    return next;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw PigSerializer.<RuntimeException>rethrow(e);
+            }
+        }
+    }
+}
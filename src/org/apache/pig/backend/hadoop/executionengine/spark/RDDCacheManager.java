@@ -0,0 +1,248 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.data.Tuple;
+
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.Accumulator;
+import spark.RDD;
+import spark.storage.StorageLevel;
+
+/**
+ * Keeps track of the RDDs cached by CACHE statements across the scripts run on the same
+ * SparkContext. The estimated in-memory size of the cached RDDs is kept under a budget by
+ * unpersisting the least recently used ones.
+ */
+public class RDDCacheManager {
+
+    private static final Log LOG = LogFactory.getLog(RDDCacheManager.class);
+
+    // estimated bytes of cached tuples kept in memory, negative for no limit
+    public static final String MEMORY_BUDGET = "pig.spark.cache.memory.budget";
+    // storage level of the CACHE statements that don't specify one
+    public static final String DEFAULT_STORAGE_LEVEL = "pig.spark.cache.storage.level";
+
+    private static final long DEFAULT_MEMORY_BUDGET = 1024L * 1024 * 1024;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private String defaultStorageLevel = "MEMORY_ONLY";
+    private PersistentResultCache persistentCache = null;
+
+    // in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static class Entry {
+        private final RDD<Tuple> rdd;
+        private final StorageLevel storageLevel;
+        private final Accumulator<Long> size;
+
+        private Entry(RDD<Tuple> rdd, StorageLevel storageLevel, Accumulator<Long> size) {
+            this.rdd = rdd;
+            this.storageLevel = storageLevel;
+            this.size = size;
+        }
+
+        /**
+         * @return the estimated size in memory, 0 until the RDD is computed
+         */
+        private long getMemorySize() {
+            return storageLevel.useMemory() ? size.value() : 0;
+        }
+    }
+
+    public synchronized void configure(Properties properties) {
+        memoryBudget = Long.parseLong(properties.getProperty(MEMORY_BUDGET,
+                String.valueOf(DEFAULT_MEMORY_BUDGET)));
+        defaultStorageLevel = properties.getProperty(DEFAULT_STORAGE_LEVEL, defaultStorageLevel);
+        persistentCache = PersistentResultCache.create(properties);
+    }
+
+    /**
+     * @return the durable tier, or null if it is not enabled
+     */
+    public synchronized PersistentResultCache getPersistentCache() {
+        return persistentCache;
+    }
+
+    /**
+     * @return the cached RDD, or null if there is none for this key with the given storage level
+     * (or the default one if null). An RDD cached with another storage level is unpersisted, to be
+     * put again with this one.
+     */
+    public synchronized RDD<Tuple> get(String key, String storageLevelName) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.storageLevel.equals(resolveStorageLevel(storageLevelName))) {
+            LOG.info("Unpersisting cached RDD " + key + " to cache it with storage level "
+                    + storageLevelName);
+            entry.rdd.unpersist();
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.rdd;
+    }
+
+    /**
+     * Persists rdd with the given storage level (or the default one if null) and registers it
+     * under key.
+     * @return the persisted RDD
+     */
+    public synchronized RDD<Tuple> put(String key, RDD<Tuple> rdd, String storageLevelName)
+            throws IOException {
+        StorageLevel storageLevel = resolveStorageLevel(storageLevelName);
+        Accumulator<Long> size = rdd.context().accumulator(0L, LongAccumulatorParam.INSTANCE);
+        RDD<Tuple> cachedRdd = rdd.mapPartitions(new SizeEstimationFunction(size),
+                SparkUtil.getManifest(Tuple.class));
+        cachedRdd.persist(storageLevel);
+        entries.put(key, new Entry(cachedRdd, storageLevel, size));
+        return cachedRdd;
+    }
+
+    /**
+     * Unpersists the least recently used RDDs until the cached ones fit in the memory budget.
+     * Sizes are only known once the RDDs are computed, so this is called after every script.
+     */
+    public synchronized void evictIfNeeded() {
+        if (memoryBudget < 0) {
+            return;
+        }
+        long memorySize = getMemorySize();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (memorySize > memoryBudget && it.hasNext()) {
+            Map.Entry<String, Entry> lru = it.next();
+            long entrySize = lru.getValue().getMemorySize();
+            if (entrySize == 0) {
+                continue;
+            }
+            LOG.info("Evicting cached RDD " + lru.getKey() + " (" + entrySize + " bytes), "
+                    + memorySize + " bytes cached for a budget of " + memoryBudget);
+            lru.getValue().rdd.unpersist();
+            it.remove();
+            memorySize -= entrySize;
+            ++evictions;
+        }
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.rdd.unpersist();
+        }
+        entries.clear();
+    }
+
+    /**
+     * @return the estimated size in bytes of the cached RDDs kept in memory
+     */
+    public synchronized long getMemorySize() {
+        long memorySize = 0;
+        for (Entry entry : entries.values()) {
+            memorySize += entry.getMemorySize();
+        }
+        return memorySize;
+    }
+
+    /**
+     * @return the estimated size in bytes of the cached RDD of key, or -1 if it is not cached in
+     * memory or not computed yet
+     */
+    public synchronized long getMemorySize(String key) {
+        Entry entry = entries.get(key);
+        long memorySize = entry == null ? 0 : entry.getMemorySize();
+        return memorySize > 0 ? memorySize : -1;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private StorageLevel resolveStorageLevel(String name) throws IOException {
+        return getStorageLevel(name == null ? defaultStorageLevel : name);
+    }
+
+    private static StorageLevel getStorageLevel(String name) throws IOException {
+        String level = name.trim().toUpperCase();
+        if (level.equals("MEMORY_ONLY")) {
+            return StorageLevel.MEMORY_ONLY();
+        } else if (level.equals("MEMORY_ONLY_SER")) {
+            return StorageLevel.MEMORY_ONLY_SER();
+        } else if (level.equals("MEMORY_AND_DISK")) {
+            return StorageLevel.MEMORY_AND_DISK();
+        } else if (level.equals("MEMORY_AND_DISK_SER")) {
+            return StorageLevel.MEMORY_AND_DISK_SER();
+        } else if (level.equals("DISK_ONLY")) {
+            return StorageLevel.DISK_ONLY();
+        }
+        throw new IOException("Unknown cache storage level: " + name + ", expected one of MEMORY_ONLY,"
+                + " MEMORY_ONLY_SER, MEMORY_AND_DISK, MEMORY_AND_DISK_SER or DISK_ONLY");
+    }
+
+    /**
+     * Adds up the memory size of the tuples, as estimated by Tuple.getMemorySize.
+     */
+    @SuppressWarnings({ "serial"})
+    private static class SizeEstimationFunction
+            extends AbstractFunction1<scala.collection.Iterator<Tuple>, scala.collection.Iterator<Tuple>>
+            implements Serializable {
+
+        private final Accumulator<Long> size;
+
+        private SizeEstimationFunction(Accumulator<Long> size) {
+            this.size = size;
+        }
+
+        @Override
+        public scala.collection.Iterator<Tuple> apply(scala.collection.Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private long partitionSize = 0;
+
+                @Override
+                public boolean hasNext() {
+                    boolean hasNext = input.hasNext();
+                    if (!hasNext && partitionSize > 0) {
+                        size.$plus$eq(partitionSize);
+                        partitionSize = 0;
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Tuple next() {
+                    Tuple t = input.next();
+                    partitionSize += t.getMemorySize();
+                    return t;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCross;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CrossConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.GlobalRearrangeConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.ShuffleStrategy;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.OperatorFusionOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SparkAccumulatorOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SparkCombinerOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SparkCrossOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SparkGroupAllOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.optimizer.SparkSecondaryKeyOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperator;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.plan.optimizer.OptimizerException;
+import org.apache.pig.impl.util.Pair;
+import org.python.google.common.collect.Lists;
+import org.python.google.common.collect.Sets;
+
+/**
+ * Prepares a physical plan to be converted to RDDs, in place of MRCompiler: the packages are
+ * annotated with the keys of their inputs, the Spark specific optimizations are applied, and the
+ * operators are grouped into a SparkOperPlan of stages, cut at the shuffles and at the outputs
+ * read by several operators.
+ */
+public class SparkCompiler {
+
+    private static final Log LOG = LogFactory.getLog(SparkCompiler.class);
+
+    // the operators whose input is repartitioned or brought together
+    @SuppressWarnings("unchecked")
+    private static final Set<Class<? extends PhysicalOperator>> SHUFFLE_OPERATORS = Sets.newHashSet(
+            POGlobalRearrange.class, POSort.class, PODistinct.class, POSkewedJoin.class,
+            POLimit.class, POCross.class);
+
+    private final PhysicalPlan physicalPlan;
+    private final PigContext pigContext;
+    private final String scope;
+
+    private Map<OperatorKey, PhysicalPlan> combinePlans = new HashMap<OperatorKey, PhysicalPlan>();
+    private Map<OperatorKey, boolean[]> secondarySortOrders = new HashMap<OperatorKey, boolean[]>();
+    private Set<OperatorKey> accumulativeGroups = new HashSet<OperatorKey>();
+    private Set<OperatorKey> constantKeyGroups = new HashSet<OperatorKey>();
+    private SparkOperPlan sparkPlan = null;
+
+    public SparkCompiler(PhysicalPlan physicalPlan, PigContext pigContext) {
+        this.physicalPlan = physicalPlan;
+        this.pigContext = pigContext;
+        List<PhysicalOperator> roots = physicalPlan.getRoots();
+        this.scope = roots.isEmpty() ? "" : roots.get(0).getOperatorKey().scope;
+    }
+
+    public void compile() throws IOException, PlanException, VisitorException {
+        annotatePackages();
+
+        // GROUP ALL and other GROUPs by a constant key, before the combiner rewrites their keys
+        SparkGroupAllOptimizer groupAllOptimizer = new SparkGroupAllOptimizer(physicalPlan);
+        groupAllOptimizer.optimize();
+        constantKeyGroups = groupAllOptimizer.getConstantKeyGroups();
+
+        // map-side combining for algebraic GROUPs, see CombinerOptimizer
+        String noCombiner = pigContext.getProperties().getProperty("pig.exec.nocombiner");
+        if (noCombiner == null || !noCombiner.equals("true")) {
+            SparkCombinerOptimizer combinerOptimizer = new SparkCombinerOptimizer(physicalPlan);
+            combinerOptimizer.optimize();
+            combinePlans = combinerOptimizer.getCombinePlans();
+        }
+
+        // CROSS is planned with GFCross for MapReduce, run it as a cartesian product instead
+        new SparkCrossOptimizer(physicalPlan).optimize();
+
+        // sort the values of a GROUP with a nested ORDER BY in the shuffle, see SecondaryKeyOptimizer
+        String noSecondaryKey = pigContext.getProperties().getProperty("pig.exec.nosecondarykey");
+        if (noSecondaryKey == null || !noSecondaryKey.equals("true")) {
+            SparkSecondaryKeyOptimizer secondaryKeyOptimizer = new SparkSecondaryKeyOptimizer(physicalPlan);
+            secondaryKeyOptimizer.optimize();
+            secondarySortOrders = secondaryKeyOptimizer.getSecondarySortOrders();
+        }
+
+        // feed the values of a GROUP to Accumulator UDFs in batches, see AccumulatorOptimizer
+        if ("true".equalsIgnoreCase(pigContext.getProperties().getProperty("opt.accumulator", "true"))) {
+            SparkAccumulatorOptimizer accumulatorOptimizer = new SparkAccumulatorOptimizer(physicalPlan);
+            accumulatorOptimizer.optimize();
+            accumulativeGroups = accumulatorOptimizer.getAccumulativeGroups();
+        }
+
+        pushLimitsToLoads(physicalPlan);
+
+        // run chains of narrow operators in a single mapPartitions
+        String noFusion = pigContext.getProperties().getProperty("pig.spark.nofusion");
+        if (noFusion == null || !noFusion.equals("true")) {
+            new OperatorFusionOptimizer(physicalPlan).optimize();
+        }
+
+        sparkPlan = buildStages();
+        LOG.info("Compiled " + physicalPlan.size() + " physical operators into " + sparkPlan.size()
+                + " Spark stages");
+    }
+
+    /**
+     * @return the combine plans of the GROUPs, by key of their POGlobalRearrange
+     */
+    public Map<OperatorKey, PhysicalPlan> getCombinePlans() {
+        return combinePlans;
+    }
+
+    /**
+     * @return the sort orders of the secondary keys of the GROUPs, by key of their
+     * POGlobalRearrange
+     */
+    public Map<OperatorKey, boolean[]> getSecondarySortOrders() {
+        return secondarySortOrders;
+    }
+
+    /**
+     * @return the keys of the POGlobalRearranges whose values are streamed to a POPackage in
+     * accumulative mode
+     */
+    public Set<OperatorKey> getAccumulativeGroups() {
+        return accumulativeGroups;
+    }
+
+    /**
+     * @return the keys of the POGlobalRearranges of the GROUPs by a constant key
+     */
+    public Set<OperatorKey> getConstantKeyGroups() {
+        return constantKeyGroups;
+    }
+
+    public SparkOperPlan getSparkPlan() {
+        return sparkPlan;
+    }
+
+    /**
+     * @return whether physicalOperator starts a new stage because of a shuffle of its input
+     */
+    public static boolean isShuffle(PhysicalOperator physicalOperator) {
+        return SHUFFLE_OPERATORS.contains(physicalOperator.getClass());
+    }
+
+    /**
+     * Tells every POPackage how the keys were projected by the POLocalRearranges of its inputs,
+     * as POPackageAnnotator does on the map plans of a MapReduce job.
+     */
+    private void annotatePackages() throws VisitorException {
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (!(physicalOperator instanceof POPackage)) {
+                continue;
+            }
+            POPackage pkg = (POPackage)physicalOperator;
+            List<PhysicalOperator> rearranges = physicalPlan.getPredecessors(pkg);
+            if (rearranges == null || rearranges.size() != 1
+                    || !(rearranges.get(0) instanceof POGlobalRearrange)) {
+                continue;
+            }
+            List<PhysicalOperator> inputs = physicalPlan.getPredecessors(rearranges.get(0));
+            if (inputs == null) {
+                continue;
+            }
+            for (PhysicalOperator input : inputs) {
+                if (input instanceof POLocalRearrange) {
+                    annotate(pkg, (POLocalRearrange)input);
+                }
+            }
+        }
+    }
+
+    private static void annotate(POPackage pkg, POLocalRearrange lrearrange) throws VisitorException {
+        Map<Integer, Pair<Boolean, Map<Integer, Integer>>> keyInfo = pkg.getKeyInfo();
+        if (keyInfo == null) {
+            keyInfo = new HashMap<Integer, Pair<Boolean, Map<Integer, Integer>>>();
+        }
+        if (keyInfo.get(Integer.valueOf(lrearrange.getIndex())) != null) {
+            int errCode = 2087;
+            String msg = "Unexpected problem during optimization." +
+            " Found index:" + lrearrange.getIndex() +
+            " in multiple LocalRearrange operators.";
+            throw new OptimizerException(msg, errCode, PigException.BUG);
+        }
+        keyInfo.put(Integer.valueOf(lrearrange.getIndex()),
+                new Pair<Boolean, Map<Integer, Integer>>(
+                        lrearrange.isProjectStar(), lrearrange.getProjectedColsMap()));
+        pkg.setKeyInfo(keyInfo);
+        pkg.setKeyTuple(lrearrange.isKeyTuple());
+        pkg.setKeyCompound(lrearrange.isKeyCompound());
+    }
+
+    /**
+     * Makes the loads read directly by a LIMIT stop reading each split once they have produced
+     * enough tuples. This is usually done by LimitOptimizer already, unless it is disabled.
+     */
+    private static void pushLimitsToLoads(PhysicalPlan plan) {
+        for (PhysicalOperator physicalOperator : plan) {
+            if (!(physicalOperator instanceof POLimit)) {
+                continue;
+            }
+            POLimit poLimit = (POLimit)physicalOperator;
+            List<PhysicalOperator> predecessors = plan.getPredecessors(poLimit);
+            if (poLimit.getLimitPlan() != null || predecessors == null || predecessors.size() != 1
+                    || !(predecessors.get(0) instanceof POLoad)
+                    || plan.getSuccessors(predecessors.get(0)).size() != 1) {
+                continue;
+            }
+            POLoad poLoad = (POLoad)predecessors.get(0);
+            if (poLoad.getLimit() < 0 || poLimit.getLimit() < poLoad.getLimit()) {
+                poLoad.setLimit(poLimit.getLimit());
+            }
+        }
+    }
+
+    /**
+     * Groups the operators into stages: an operator joins the stage of its only predecessor,
+     * unless it shuffles its input or the predecessor is read by other operators too.
+     */
+    private SparkOperPlan buildStages() throws PlanException {
+        SparkOperPlan plan = new SparkOperPlan();
+        Map<PhysicalOperator, SparkOperator> stages = new HashMap<PhysicalOperator, SparkOperator>();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            getStage(plan, physicalOperator, stages);
+        }
+        return plan;
+    }
+
+    private SparkOperator getStage(SparkOperPlan plan, PhysicalOperator physicalOperator,
+            Map<PhysicalOperator, SparkOperator> stages) throws PlanException {
+        SparkOperator stage = stages.get(physicalOperator);
+        if (stage != null) {
+            return stage;
+        }
+
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(physicalOperator);
+        List<SparkOperator> predecessorStages = Lists.newArrayList();
+        if (predecessors != null) {
+            for (PhysicalOperator predecessor : predecessors) {
+                predecessorStages.add(getStage(plan, predecessor, stages));
+            }
+        }
+
+        if (predecessors != null && predecessors.size() == 1 && !isShuffle(physicalOperator)
+                && !isShared(predecessors.get(0))) {
+            stage = predecessorStages.get(0);
+        } else {
+            stage = new SparkOperator(new OperatorKey(scope,
+                    NodeIdGenerator.getGenerator().getNextNodeId(scope)), isShuffle(physicalOperator));
+            stage.setCombined(combinePlans.containsKey(physicalOperator.getOperatorKey()));
+            stage.setSecondarySort(secondarySortOrders.containsKey(physicalOperator.getOperatorKey()));
+            stage.setAccumulative(accumulativeGroups.contains(physicalOperator.getOperatorKey()));
+            stage.setConstantKey(constantKeyGroups.contains(physicalOperator.getOperatorKey()));
+            stage.setShuffleStrategy(getShuffleStrategy(physicalOperator));
+            plan.add(stage);
+            for (SparkOperator predecessorStage : predecessorStages) {
+                List<SparkOperator> connected = plan.getPredecessors(stage);
+                if (connected == null || !connected.contains(predecessorStage)) {
+                    plan.connect(predecessorStage, stage);
+                }
+            }
+        }
+        stage.add(physicalOperator);
+        if (isShared(physicalOperator)) {
+            stage.setShared(true);
+        }
+        stages.put(physicalOperator, stage);
+        return stage;
+    }
+
+    /**
+     * @return how the converter of physicalOperator shuffles its input, null if it doesn't
+     */
+    private ShuffleStrategy getShuffleStrategy(PhysicalOperator physicalOperator) {
+        if (physicalOperator instanceof POGlobalRearrange) {
+            return GlobalRearrangeConverter.getShuffleStrategy(physicalOperator.getOperatorKey(),
+                    physicalPlan.getPredecessors(physicalOperator).size(), combinePlans,
+                    secondarySortOrders, accumulativeGroups, constantKeyGroups);
+        } else if (physicalOperator instanceof POSort) {
+            return SortConverter.getShuffleStrategy((POSort)physicalOperator, pigContext.getProperties());
+        } else if (physicalOperator instanceof POCross) {
+            return CrossConverter.getShuffleStrategy(pigContext, physicalPlan, (POCross)physicalOperator);
+        } else if (physicalOperator instanceof POLimit) {
+            return ShuffleStrategy.LIMIT;
+        } else if (physicalOperator instanceof PODistinct) {
+            return ShuffleStrategy.DISTINCT;
+        } else if (physicalOperator instanceof POSkewedJoin) {
+            return ShuffleStrategy.SKEWED_JOIN;
+        }
+        return null;
+    }
+
+    private boolean isShared(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(physicalOperator);
+        return successors != null && successors.size() > 1;
+    }
+}
@@ -4,39 +4,72 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.pig.PigException;
+import org.apache.hadoop.io.Text;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.Launcher;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.POPackageAnnotator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCross;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.DistinctConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LimitConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.POConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.CacheConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CrossConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.FRJoinConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.FilterConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.ForEachConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LoadConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.MergeCogroupConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.MergeJoinConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.MergeIndexBuilder;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.StoreConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.StreamConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.UnionConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.LocalRearrangeConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.GlobalRearrangeConverter;
 import org.apache.pig.backend.hadoop.executionengine.spark.converter.PackageConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.PendingJobs;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.PipelineConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SkewedJoinConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SortConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.SplitConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.DotSparkPrinter;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperator;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkPrinter;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileLocalizer;
@@ -44,8 +77,10 @@ import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.tools.pigstats.*;
 import org.python.google.common.collect.Lists;
 
+import scala.Tuple2;
 import spark.RDD;
 import spark.SparkContext;
+import spark.storage.StorageLevel;
 
 /**
  * @author billg
@@ -54,125 +89,390 @@ public class SparkLauncher extends Launcher {
 
     private static final Log LOG = LogFactory.getLog(SparkLauncher.class);
 
-    // Our connection to Spark. It needs to be static so that it can be reused across jobs, because a
-    // new SparkLauncher gets created for each job.
-    private static SparkContext sparkContext = null;
+    // maximum number of STOREs executed at the same time
+    public static final String STORE_CONCURRENCY = "pig.spark.store.concurrency";
+    private static final int DEFAULT_STORE_CONCURRENCY = 4;
 
-    // An object that handle cache calls in the operator graph. This is again static because we want
-    // it to be shared across SparkLaunchers. It gets cleared whenever we close the SparkContext.
-    private static CacheConverter cacheConverter = null;
+    // Our connection to Spark during the launch, from the SparkSession shared across launches
+    private SparkContext sparkContext = null;
+
+    // the Pig context broadcast for the JobConfs of the current launch
+    private JobConfBroadcast jobConfBroadcast = null;
+
+    // the merge indexes of the current launch, written before its jobs
+    private MergeIndexBuilder mergeIndexBuilder = null;
+
+    // the broadcasts and samples the converters of the current launch need before its jobs
+    private PendingJobs pendingJobs = null;
+
+    // tuple counts and timings of the operators of the current job, written by the store threads too
+    private final Map<OperatorKey, OperatorCounters> counters =
+            new ConcurrentHashMap<OperatorKey, OperatorCounters>();
 
     @Override
     public PigStats launchPig(PhysicalPlan physicalPlan, String grpName, PigContext pigContext) throws Exception {
         LOG.info("!!!!!!!!!!  Launching Spark (woot) !!!!!!!!!!!!");
         LOG.debug(physicalPlan);
-/////////
-// stolen from MapReduceLauncher
-        MRCompiler mrCompiler = new MRCompiler(physicalPlan, pigContext);
-        mrCompiler.compile();
-        MROperPlan plan = mrCompiler.getMRPlan();
-        POPackageAnnotator pkgAnnotator = new POPackageAnnotator(plan);
-        pkgAnnotator.visit();
-//        // this one: not sure
-//        KeyTypeDiscoveryVisitor kdv = new KeyTypeDiscoveryVisitor(plan);
-//        kdv.visit();
+        SparkCompiler sparkCompiler = new SparkCompiler(physicalPlan, pigContext);
+        sparkCompiler.compile();
+        SparkOperPlan sparkPlan = sparkCompiler.getSparkPlan();
+
+        // keep the executors of the previous launches if the settings allow it
+        SparkSession session = SparkSession.acquire(pigContext.getProperties());
+        List<RDD<Tuple>> persisted = Lists.newArrayList();
+        try {
+            Map<Class<? extends PhysicalOperator>, POConverter> convertMap =
+                    startLaunch(physicalPlan, pigContext, sparkCompiler, session, persisted);
+            CacheConverter cacheConverter = session.getCacheConverter();
+            Configuration conf = ConfigurationUtil.toConfiguration(pigContext.getProperties());
+
+            Map<OperatorKey, RDD<Tuple>> rdds = new HashMap<OperatorKey, RDD<Tuple>>();
+
+            SparkStats stats = new SparkStats(pigContext);
+            stats.markStarted();
+
+            LinkedList<POStore> stores = PlanHelper.getStores(physicalPlan);
+            ScriptState.get().emitLaunchStartedNotification(stores.size());
+            // build the RDDs of all the stages first, so that the shared outputs are computed once
+            convertStages(physicalPlan, sparkPlan, rdds, convertMap, persisted);
+
+            // the stores are configured on this thread: UDFContext and the StoreFuncs aren't thread
+            // safe, only the jobs writing the outputs run concurrently
+            StoreConverter storeConverter = (StoreConverter)convertMap.get(POStore.class);
+            Map<POStore, RDD<Tuple2<Text, Tuple>>> storeRdds =
+                    new LinkedHashMap<POStore, RDD<Tuple2<Text, Tuple>>>();
+            for (POStore poStore : stores) {
+                storeRdds.put(poStore, convertStore(physicalPlan, poStore, rdds, storeConverter));
+            }
+            runPendingJobs();
+
+            int concurrency = Integer.parseInt(pigContext.getProperties().getProperty(
+                    STORE_CONCURRENCY, String.valueOf(DEFAULT_STORE_CONCURRENCY)));
+            runStores(storeRdds, storeConverter, concurrency, stats, conf);
+            addOperatorStats(physicalPlan, stats, conf);
+
+            RDDCacheManager cacheManager = cacheConverter.getCacheManager();
+            PersistentResultCache persistentCache = cacheManager.getPersistentCache();
+            if (persistentCache != null) {
+                persistentCache.savePending();
+            }
+            cacheManager.evictIfNeeded();
+            stats.setCacheStats(cacheManager.getHits(), cacheManager.getMisses(),
+                    cacheManager.getEvictions(), cacheManager.getMemorySize());
+
+            ScriptState.get().emitLaunchCompletedNotification(stores.size());
+            stats.stop();
+            return stats;
+        } finally {
+            unpersist(persisted);
+            jobConfBroadcast = null;
+            mergeIndexBuilder = null;
+            pendingJobs = null;
+            session.release();
+        }
+    }
 
-/////////
+    /**
+     * Computes the output of the only store of physicalPlan without writing it: the partitions
+     * are computed one at a time, when the returned iterator reaches them, so that a DUMP
+     * streams its result to the client and stops computing when the client stops reading. The
+     * launch notifications are sent as for a store, the completion ones once the iterator has
+     * read every partition.
+     */
+    public Iterator<Tuple> launchIterator(PhysicalPlan physicalPlan, PigContext pigContext) throws Exception {
+        LOG.debug(physicalPlan);
+        LinkedList<POStore> stores = PlanHelper.getStores(physicalPlan);
+        if (stores.size() != 1) {
+            throw new IllegalArgumentException("Expected a single store to iterate over, got " + stores);
+        }
+        SparkCompiler sparkCompiler = new SparkCompiler(physicalPlan, pigContext);
+        sparkCompiler.compile();
+
+        SparkSession session = SparkSession.acquire(pigContext.getProperties());
+        List<RDD<Tuple>> persisted = Lists.newArrayList();
+        try {
+            Map<Class<? extends PhysicalOperator>, POConverter> convertMap =
+                    startLaunch(physicalPlan, pigContext, sparkCompiler, session, persisted);
+            SparkStats stats = new SparkStats(pigContext);
+            stats.markStarted();
+            ScriptState.get().emitLaunchStartedNotification(1);
+
+            Map<OperatorKey, RDD<Tuple>> rdds = new HashMap<OperatorKey, RDD<Tuple>>();
+            // the store itself is never converted, its input is read instead
+            POStore poStore = stores.getFirst();
+            PhysicalOperator input = physicalPlan.getPredecessors(poStore).get(0);
+            convertStages(physicalPlan, sparkCompiler.getSparkPlan(), rdds, convertMap, persisted);
+            runPendingJobs();
+            // the iterator holds the session while it computes a partition, and unpersists the
+            // shared RDDs once it is done
+            return new PartitionIterator(rdds.get(input.getOperatorKey()), session, persisted,
+                    stats, poStore);
+        } catch (Exception e) {
+            unpersist(persisted);
+            throw e;
+        } finally {
+            // the RDDs hold their JobConfs already
+            jobConfBroadcast = null;
+            mergeIndexBuilder = null;
+            pendingJobs = null;
+            session.release();
+        }
+    }
 
-        startSparkIfNeeded();
+    /**
+     * Starts a launch in session: ships the Pig context to the executors once for all the jobs of
+     * the launch, configures the cache and estimates the parallelism of the shuffles.
+     * @param persisted the RDDs persisted by the launch, unpersisted at its end
+     * @return the converters of the launch
+     */
+    private Map<Class<? extends PhysicalOperator>, POConverter> startLaunch(PhysicalPlan physicalPlan,
+            PigContext pigContext, SparkCompiler sparkCompiler, SparkSession session,
+            List<RDD<Tuple>> persisted) throws IOException {
+        sparkContext = session.getSparkContext();
+        CacheConverter cacheConverter = session.getCacheConverter();
+        jobConfBroadcast = JobConfBroadcast.start(sparkContext, pigContext);
+        mergeIndexBuilder = new MergeIndexBuilder(pigContext, physicalPlan, sparkContext, jobConfBroadcast);
+        pendingJobs = new PendingJobs();
+
+        cacheConverter.getCacheManager().configure(pigContext.getProperties());
+        Configuration conf = ConfigurationUtil.toConfiguration(pigContext.getProperties());
+        new ParallelismEstimator(physicalPlan, conf, cacheConverter.getCacheManager(),
+                pigContext.defaultParallel).estimate(sparkCompiler.getSparkPlan());
+
+        return getConverters(pigContext, physicalPlan, sparkCompiler, sparkContext, cacheConverter,
+                jobConfBroadcast, mergeIndexBuilder, pendingJobs, persisted, counters);
+    }
 
+    /**
+     * @param jobConfBroadcast the context broadcast by the launch, null if not launching
+     * @param pendingJobs the jobs run by the launch once the plan is converted, null if not launching
+     * @param persisted the RDDs persisted by the launch, null if not launching
+     * @return the converters of the supported operators
+     */
+    private static Map<Class<? extends PhysicalOperator>, POConverter> getConverters(
+            PigContext pigContext, PhysicalPlan physicalPlan, SparkCompiler sparkCompiler,
+            SparkContext sparkContext, CacheConverter cacheConverter, JobConfBroadcast jobConfBroadcast,
+            MergeIndexBuilder mergeIndexBuilder, PendingJobs pendingJobs, List<RDD<Tuple>> persisted,
+            Map<OperatorKey, OperatorCounters> counters) {
         // initialize the supported converters
         Map<Class<? extends PhysicalOperator>, POConverter> convertMap =
                 new HashMap<Class<? extends PhysicalOperator>, POConverter>();
 
-        convertMap.put(POLoad.class,    new LoadConverter(pigContext, physicalPlan, sparkContext));
-        convertMap.put(POStore.class,   new StoreConverter(pigContext));
-        convertMap.put(POForEach.class, new ForEachConverter());
-        convertMap.put(POFilter.class,  new FilterConverter());
-        convertMap.put(POPackage.class, new PackageConverter());
+        convertMap.put(POLoad.class,    new LoadConverter(pigContext, physicalPlan, sparkContext, jobConfBroadcast,
+                counters));
+        convertMap.put(POStore.class,   new StoreConverter(pigContext, jobConfBroadcast, counters));
+        convertMap.put(POForEach.class, new ForEachConverter(counters));
+        convertMap.put(POFilter.class,  new FilterConverter(counters));
+        convertMap.put(POPackage.class, new PackageConverter(counters));
+        convertMap.put(POCombinerPackage.class, new PackageConverter(counters));
         convertMap.put(POCache.class,   cacheConverter);
-        convertMap.put(POLocalRearrange.class,  new LocalRearrangeConverter());
-        convertMap.put(POGlobalRearrange.class, new GlobalRearrangeConverter());
+        convertMap.put(POLocalRearrange.class,  new LocalRearrangeConverter(counters));
+        convertMap.put(POPreCombinerLocalRearrange.class, new LocalRearrangeConverter(counters));
+        convertMap.put(POGlobalRearrange.class, new GlobalRearrangeConverter(
+                sparkCompiler.getCombinePlans(), sparkCompiler.getSecondarySortOrders(),
+                sparkCompiler.getAccumulativeGroups(), sparkCompiler.getConstantKeyGroups(),
+                pigContext.getProperties()));
         convertMap.put(POLimit.class, new LimitConverter());
         convertMap.put(PODistinct.class, new DistinctConverter());
+        convertMap.put(POSort.class, new SortConverter(pigContext, pendingJobs));
+        convertMap.put(POFRJoin.class, new FRJoinConverter(pendingJobs));
+        convertMap.put(POSkewedJoin.class, new SkewedJoinConverter(pigContext, pendingJobs, persisted));
+        convertMap.put(POMergeJoin.class, new MergeJoinConverter(pigContext, physicalPlan,
+                jobConfBroadcast, mergeIndexBuilder));
+        convertMap.put(POMergeCogroup.class, new MergeCogroupConverter(pigContext, physicalPlan,
+                jobConfBroadcast, mergeIndexBuilder));
+        convertMap.put(POStream.class, new StreamConverter(pigContext, sparkContext, jobConfBroadcast));
+        convertMap.put(POUnion.class, new UnionConverter(sparkContext));
+        convertMap.put(POSplit.class, new SplitConverter());
+        convertMap.put(POCross.class, new CrossConverter(pigContext, physicalPlan, pendingJobs));
+        convertMap.put(POPipeline.class, new PipelineConverter(counters));
+        return convertMap;
+    }
 
-        Map<OperatorKey, RDD<Tuple>> rdds = new HashMap<OperatorKey, RDD<Tuple>>();
-
-        SparkStats stats = new SparkStats();
+    /**
+     * Adds the tuple counts and timings of every operator, and the input statistics of the loads.
+     */
+    private void addOperatorStats(PhysicalPlan plan, SparkStats stats, Configuration conf) {
+        for (PhysicalOperator physicalOperator : plan) {
+            OperatorCounters operatorCounters = counters.get(physicalOperator.getOperatorKey());
+            if (operatorCounters == null) {
+                continue;
+            }
+            long tuplesIn = 0;
+            List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
+            if (predecessors != null) {
+                for (PhysicalOperator predecessor : predecessors) {
+                    OperatorCounters predecessorCounters = counters.get(predecessor.getOperatorKey());
+                    if (predecessorCounters == null) {
+                        // the predecessor is not counted, so neither is what op reads
+                        tuplesIn = -1;
+                        break;
+                    }
+                    tuplesIn += predecessorCounters.getTuples();
+                }
+            }
+            stats.addOperatorStats(new SparkStats.OperatorStats(physicalOperator.name(), tuplesIn,
+                    operatorCounters.getTuples(), operatorCounters.getTimeMillis()));
 
-        LinkedList<POStore> stores = PlanHelper.getStores(physicalPlan);
-        for (POStore poStore : stores) {
-            physicalToRDD(physicalPlan, poStore, rdds, convertMap);
-            stats.addOutputInfo(poStore, 1, 1, true); // TODO: use real values
+            if (physicalOperator instanceof POLoad) {
+                String location = ((POLoad)physicalOperator).getLFile().getFileName();
+                stats.addInputInfo(location, SparkStats.getLocationSize(location, conf),
+                        operatorCounters.getTuples(), true);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            for (SparkStats.OperatorStats operatorStats : stats.getOperatorStats().values()) {
+                LOG.debug(operatorStats);
+            }
         }
-
-        return stats;
     }
 
-    private static void startSparkIfNeeded() throws PigException {
-        if (sparkContext == null) {
-            String master = System.getenv("SPARK_MASTER");
-            if (master == null) {
-                LOG.info("SPARK_MASTER not specified, using \"local\"");
-                master = "local";
-            }
+    static void unpersist(List<RDD<Tuple>> persisted) {
+        for (RDD<Tuple> rdd : persisted) {
+            rdd.unpersist();
+        }
+        persisted.clear();
+    }
 
-            String sparkHome = System.getenv("SPARK_HOME"); // It's okay if this is null for local mode
-            String sparkJarsSetting = System.getenv("SPARK_JARS");
-            String[] sparkJars = sparkJarsSetting == null ? new String[]{} : sparkJarsSetting.split(",");
+    /**
+     * Runs the jobs the converters need done before the jobs of the launch: the indexes of the
+     * merge joins first, then the broadcasts and samples in conversion order.
+     */
+    private void runPendingJobs() {
+        mergeIndexBuilder.writePending();
+        pendingJobs.run();
+    }
 
-            // TODO: Don't hardcode this JAR
-            List<String> jars = Lists.asList("build/pig-0.11.0-SNAPSHOT-withdependencies.jar", sparkJars);
+    /**
+     * Converts and configures a store whose input is already converted.
+     * @return the (key, tuple) pairs to write
+     */
+    private RDD<Tuple2<Text, Tuple>> convertStore(PhysicalPlan plan, POStore poStore,
+            Map<OperatorKey, RDD<Tuple>> rdds, StoreConverter storeConverter) throws IOException {
+        List<RDD<Tuple>> predecessorRdds = Lists.newArrayList();
+        for (PhysicalOperator predecessor : plan.getPredecessors(poStore)) {
+            predecessorRdds.add(rdds.get(predecessor.getOperatorKey()));
+        }
+        LOG.info("Converting operator " + poStore.getClass().getSimpleName() + " " + poStore);
+        return storeConverter.convert(predecessorRdds, poStore);
+    }
 
-            if (!master.startsWith("local")) {
-                // Check that we have the Mesos native library and Spark home are set
-                if (sparkHome == null) {
-                    System.err.println("You need to set SPARK_HOME to run on a Mesos cluster!");
-                    throw new PigException("SPARK_HOME is not set");
-                }
-                if (System.getenv("MESOS_NATIVE_LIBRARY") == null) {
-                    System.err.println("You need to set MESOS_NATIVE_LIBRARY to run on a Mesos cluster!");
-                    throw new PigException("MESOS_NATIVE_LIBRARY is not set");
+    /**
+     * Submits the store actions from a pool of up to concurrency threads, so that independent
+     * outputs are computed at the same time. Spark schedules the jobs of the different threads
+     * side by side on the cluster.
+     */
+    private void runStores(Map<POStore, RDD<Tuple2<Text, Tuple>>> storeRdds,
+                           final StoreConverter storeConverter,
+                           int concurrency, SparkStats stats, Configuration conf) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(concurrency, storeRdds.size())));
+        Map<POStore, Future<Object>> futures = new LinkedHashMap<POStore, Future<Object>>();
+        int completed = 0;
+        try {
+            for (final Map.Entry<POStore, RDD<Tuple2<Text, Tuple>>> storeRdd : storeRdds.entrySet()) {
+                futures.put(storeRdd.getKey(), executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        storeConverter.save(storeRdd.getKey(), storeRdd.getValue());
+                        return null;
+                    }
+                }));
+            }
+            for (Map.Entry<POStore, Future<Object>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
                 }
+                POStore poStore = entry.getKey();
+                String location = poStore.getSFile().getFileName();
+                OutputStats outputStats = stats.addOutputInfo(poStore,
+                        SparkStats.getLocationSize(location, conf),
+                        counters.get(poStore.getOperatorKey()).getTuples(), true);
+                ScriptState.get().emitOutputCompletedNotification(outputStats);
+                ScriptState.get().emitProgressUpdatedNotification(100 * ++completed / storeRdds.size());
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            // Tell Spark to use Mesos in coarse-grained mode (only affects Spark 0.6+; no impact on others)
-            System.setProperty("spark.mesos.coarse", "true");
+    // You can use this in unit tests to stop the SparkContext between tests.
+    static void stopSpark() {
+        SparkSession.stop();
+    }
 
-            // For coarse-grained Mesos mode, tell it an upper bound on how many cores to grab in total;
-            // we conservatively set this to 32 unless the user set the SPARK_MAX_CPUS environment variable.
-            int maxCores = 32;
-            if (System.getenv("SPARK_MAX_CPUS") != null) {
-                maxCores = Integer.parseInt(System.getenv("SPARK_MAX_CPUS"));
+    /**
+     * Converts the operators of the stages of sparkPlan, but the stores, each stage after the stages
+     * it reads: the conversion follows the stages EXPLAIN prints. The output of a stage read by
+     * several operators is cached, unless it is persisted already, so that it is computed once.
+     * @param persisted the cached RDDs are added to it, to unpersist at the end of the launch
+     */
+    private void convertStages(PhysicalPlan plan, SparkOperPlan sparkPlan,
+                               Map<OperatorKey, RDD<Tuple>> rdds,
+                               Map<Class<? extends PhysicalOperator>, POConverter> convertMap,
+                               List<RDD<Tuple>> persisted) throws IOException {
+        Set<SparkOperator> converted = new HashSet<SparkOperator>();
+        for (SparkOperator stage : sparkPlan) {
+            convertStage(plan, sparkPlan, stage, rdds, convertMap, persisted, converted);
+        }
+    }
+
+    private void convertStage(PhysicalPlan plan, SparkOperPlan sparkPlan, SparkOperator stage,
+                              Map<OperatorKey, RDD<Tuple>> rdds,
+                              Map<Class<? extends PhysicalOperator>, POConverter> convertMap,
+                              List<RDD<Tuple>> persisted, Set<SparkOperator> converted)
+            throws IOException {
+        if (!converted.add(stage)) {
+            return;
+        }
+        List<SparkOperator> predecessorStages = sparkPlan.getPredecessors(stage);
+        if (predecessorStages != null) {
+            for (SparkOperator predecessorStage : predecessorStages) {
+                convertStage(plan, sparkPlan, predecessorStage, rdds, convertMap, persisted, converted);
             }
-            System.setProperty("spark.cores.max", "" + maxCores);
+        }
 
-            sparkContext = new SparkContext(master, "Spork", sparkHome, SparkUtil.toScalaSeq(jars));
-            cacheConverter = new CacheConverter();
+        for (PhysicalOperator physicalOperator : stage.getOperators()) {
+            if (physicalOperator instanceof POStore) {
+                // converted by the launch once all the stages are, see convertStore
+                continue;
+            }
+            physicalToRDD(plan, physicalOperator, rdds, convertMap);
         }
-    }
 
-    // You can use this in unit tests to stop the SparkContext between tests.
-    static void stopSpark() {
-        if (sparkContext != null) {
-            sparkContext.stop();
-            sparkContext = null;
-            cacheConverter = null;
+        if (stage.isShared()) {
+            RDD<Tuple> rdd = rdds.get(stage.getTail().getOperatorKey());
+            if (rdd != null && rdd.getStorageLevel().equals(StorageLevel.NONE())) {
+                LOG.info("Persisting the output of " + stage.getTail() + " shared by several operators");
+                rdd.cache();
+                persisted.add(rdd);
+            }
         }
     }
 
+    /**
+     * Converts an operator whose inputs are converted already, by an earlier operator of its
+     * stage or by a stage it reads.
+     */
     private void physicalToRDD(PhysicalPlan plan, PhysicalOperator physicalOperator,
                                Map<OperatorKey, RDD<Tuple>> rdds,
                                Map<Class<? extends PhysicalOperator>, POConverter> convertMap)
             throws IOException {
-
-        RDD<Tuple> nextRDD = null;
         List<PhysicalOperator> predecessors = plan.getPredecessors(physicalOperator);
         List<RDD<Tuple>> predecessorRdds = Lists.newArrayList();
-        if (predecessors!=null) {
+        if (predecessors != null) {
             for (PhysicalOperator predecessor : predecessors) {
-                physicalToRDD(plan, predecessor, rdds, convertMap);
-                predecessorRdds.add(rdds.get(predecessor.getOperatorKey()));
+                RDD<Tuple> predecessorRdd = rdds.get(predecessor.getOperatorKey());
+                if (predecessorRdd == null) {
+                    throw new IllegalStateException("The stages don't follow the physical plan: "
+                            + physicalOperator + " is converted before its input " + predecessor);
+                }
+                predecessorRdds.add(predecessorRdd);
             }
         }
 
@@ -182,11 +482,7 @@ public class SparkLauncher extends Launcher {
         }
 
         LOG.info("Converting operator " + physicalOperator.getClass().getSimpleName()+" "+physicalOperator);
-        nextRDD = (RDD<Tuple>)converter.convert(predecessorRdds, physicalOperator);
-
-        if (POStore.class.equals(physicalOperator.getClass())) {
-            return;
-        }
+        RDD<Tuple> nextRDD = (RDD<Tuple>)converter.convert(predecessorRdds, physicalOperator);
 
         if (nextRDD == null) {
             throw new IllegalArgumentException("RDD should not be null after PhysicalOperator: " + physicalOperator);
@@ -197,5 +493,33 @@ public class SparkLauncher extends Launcher {
 
     @Override
     public void explain(PhysicalPlan pp, PigContext pc, PrintStream ps, String format, boolean verbose)
-            throws IOException { }
+            throws IOException {
+        SparkCompiler sparkCompiler = new SparkCompiler(pp, pc);
+        sparkCompiler.compile();
+        SparkOperPlan sparkPlan = sparkCompiler.getSparkPlan();
+        Configuration conf = ConfigurationUtil.toConfiguration(pc.getProperties());
+        SparkSession session = SparkSession.getSession();
+        CacheConverter cacheConverter = session == null ? null : session.getCacheConverter();
+        new ParallelismEstimator(pp, conf, cacheConverter == null ? null : cacheConverter.getCacheManager(),
+                pc.defaultParallel).estimate(sparkPlan);
+
+        if (format.equals("text")) {
+            // the converters are only looked at, they don't need Spark to be started
+            Map<Class<? extends PhysicalOperator>, POConverter> convertMap = getConverters(pc, pp,
+                    sparkCompiler, session == null ? null : session.getSparkContext(),
+                    cacheConverter == null ? new CacheConverter() : cacheConverter, null, null, null, null, null);
+            SparkPrinter printer = new SparkPrinter(ps, sparkPlan, convertMap, conf);
+            printer.setVerbose(verbose);
+            printer.visit();
+        } else {
+            ps.println("#--------------------------------------------------");
+            ps.println("# Spark Plan                                       ");
+            ps.println("#--------------------------------------------------");
+
+            DotSparkPrinter printer = new DotSparkPrinter(sparkPlan, ps);
+            printer.setVerbose(verbose);
+            printer.dump();
+            ps.println("");
+        }
+    }
 }
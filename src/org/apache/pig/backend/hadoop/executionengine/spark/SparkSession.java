@@ -0,0 +1,274 @@
+package org.apache.pig.backend.hadoop.executionengine.spark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.CacheConverter;
+import org.python.google.common.collect.Lists;
+
+import spark.SparkContext;
+
+/**
+ * The connection to Spark shared by the launches of a Pig session, such as the statements of a
+ * Grunt shell, so that the executors stay up from one DUMP or STORE to the next. The session is
+ * configured from the properties of the PigContext, falling back to the SPARK_* environment
+ * variables:
+ * <ul>
+ * <li>spark.master, spark.home, spark.jars (comma separated)</li>
+ * <li>spark.cores.max, the cores used on a Mesos cluster, 32 by default</li>
+ * <li>spark.executor.memory, spark.serializer (PigSerializer by default)</li>
+ * <li>pig.spark.session.resize: "restart" (default) starts a new session when a launch asks for
+ * different settings, "keep" keeps the running one. A session still running other launches is
+ * restarted once they end, the launch asking for new settings runs with the current ones</li>
+ * <li>pig.spark.session.idle.timeout: seconds after which an unused session is stopped, 0 (default)
+ * to keep it until the end of the process</li>
+ * </ul>
+ */
+public class SparkSession {
+
+    private static final Log LOG = LogFactory.getLog(SparkSession.class);
+
+    public static final String MASTER = "spark.master";
+    public static final String HOME = "spark.home";
+    public static final String JARS = "spark.jars";
+    public static final String MAX_CORES = "spark.cores.max";
+    public static final String EXECUTOR_MEMORY = "spark.executor.memory";
+    public static final String SERIALIZER = "spark.serializer";
+    public static final String RESIZE_POLICY = "pig.spark.session.resize";
+    public static final String IDLE_TIMEOUT = "pig.spark.session.idle.timeout";
+
+    private static final int DEFAULT_MAX_CORES = 32;
+
+    // TODO: Don't hardcode this JAR
+    private static final String PIG_JAR = "build/pig-0.11.0-SNAPSHOT-withdependencies.jar";
+
+    // the running session, if any
+    private static SparkSession session = null;
+
+    private static Timer idleTimer = null;
+
+    private final List<String> settings;
+    private final SparkContext sparkContext;
+    // the system properties set for the SparkContext and the values they replaced, null if unset
+    private final Map<String, String> replacedProperties;
+    // handles the CACHE operators, its RDDs live as long as the SparkContext
+    private final CacheConverter cacheConverter = new CacheConverter();
+
+    // the launches running in the session, and when the last one ended
+    private int launches = 0;
+    private long lastUsed = System.currentTimeMillis();
+    private long idleTimeout = 0;
+    // whether a launch asked for other settings while the session was running jobs
+    private boolean restartPending = false;
+
+    private SparkSession(List<String> settings, SparkContext sparkContext,
+            Map<String, String> replacedProperties) {
+        this.settings = settings;
+        this.sparkContext = sparkContext;
+        this.replacedProperties = replacedProperties;
+    }
+
+    public SparkContext getSparkContext() {
+        return sparkContext;
+    }
+
+    public CacheConverter getCacheConverter() {
+        return cacheConverter;
+    }
+
+    /**
+     * @return the running session, or null if Spark is not started
+     */
+    public static synchronized SparkSession getSession() {
+        return session;
+    }
+
+    /**
+     * Starts a launch in the running session, starting or restarting the session first if needed.
+     * The launch must {@link #release()} it once done.
+     */
+    public static synchronized SparkSession acquire(Properties properties) throws PigException {
+        List<String> settings = getSettings(properties);
+        if (session != null && !session.settings.equals(settings)) {
+            String resizePolicy = properties.getProperty(RESIZE_POLICY, "restart");
+            if (!resizePolicy.equals("restart")) {
+                LOG.info("Keeping the running Spark session, " + RESIZE_POLICY + " is " + resizePolicy);
+            } else if (session.launches > 0) {
+                LOG.warn("The Spark session is running jobs, it will be restarted with the new settings"
+                        + " once they end");
+                session.restartPending = true;
+            } else {
+                LOG.info("Restarting the Spark session with new settings");
+                stop();
+            }
+        }
+        if (session == null) {
+            session = start(settings);
+        }
+        session.launches++;
+        session.idleTimeout = Long.parseLong(properties.getProperty(IDLE_TIMEOUT, "0"));
+        return session;
+    }
+
+    /**
+     * Ends a launch. Once the session is idle, it is stopped if a restart is pending, so that the
+     * next launch starts it with its settings, or its shutdown is scheduled if it has an idle
+     * timeout.
+     */
+    public void release() {
+        synchronized (SparkSession.class) {
+            launches--;
+            lastUsed = System.currentTimeMillis();
+            if (launches == 0 && restartPending && session == this) {
+                LOG.info("Stopping the Spark session to restart it with new settings");
+                stop();
+            } else if (launches == 0 && idleTimeout > 0 && session == this) {
+                scheduleIdleTimeout(this, idleTimeout);
+            }
+        }
+    }
+
+    /**
+     * Starts another launch in this session, which must then be released, unless the session was
+     * stopped in the meantime.
+     * @return whether the session is still running
+     */
+    boolean retain() {
+        synchronized (SparkSession.class) {
+            if (session != this) {
+                return false;
+            }
+            launches++;
+            return true;
+        }
+    }
+
+    /**
+     * Stops the running session, if any, and restores the system properties it replaced.
+     */
+    public static synchronized void stop() {
+        if (session != null) {
+            session.sparkContext.stop();
+            restoreSystemProperties(session.replacedProperties);
+            session = null;
+        }
+    }
+
+    /**
+     * @return master, home, jars, cores, executor memory and serializer, in that order
+     */
+    private static List<String> getSettings(Properties properties) {
+        String master = getSetting(properties, MASTER, "SPARK_MASTER");
+        if (master == null) {
+            LOG.info("spark.master not specified, using \"local\"");
+            master = "local";
+        }
+        String maxCores = getSetting(properties, MAX_CORES, "SPARK_MAX_CPUS");
+        if (maxCores == null) {
+            maxCores = String.valueOf(DEFAULT_MAX_CORES);
+        }
+        String serializer = properties.getProperty(SERIALIZER, System.getProperty(SERIALIZER));
+        if (serializer == null) {
+            // shuffle and cache Pig data with BinInterSedes
+            serializer = PigSerializer.class.getName();
+        }
+        return Arrays.asList(master,
+                getSetting(properties, HOME, "SPARK_HOME"), // It's okay if this is null for local mode
+                getSetting(properties, JARS, "SPARK_JARS"),
+                maxCores,
+                properties.getProperty(EXECUTOR_MEMORY),
+                serializer);
+    }
+
+    private static String getSetting(Properties properties, String key, String environmentVariable) {
+        String value = properties.getProperty(key);
+        return value != null ? value : System.getenv(environmentVariable);
+    }
+
+    private static SparkSession start(List<String> settings) throws PigException {
+        String master = settings.get(0);
+        String sparkHome = settings.get(1);
+        String sparkJarsSetting = settings.get(2);
+        String[] sparkJars = sparkJarsSetting == null ? new String[]{} : sparkJarsSetting.split(",");
+        List<String> jars = Lists.asList(PIG_JAR, sparkJars);
+
+        if (!master.startsWith("local")) {
+            // Check that we have the Mesos native library and Spark home are set
+            if (sparkHome == null) {
+                System.err.println("You need to set SPARK_HOME to run on a Mesos cluster!");
+                throw new PigException("SPARK_HOME is not set");
+            }
+            if (System.getenv("MESOS_NATIVE_LIBRARY") == null) {
+                System.err.println("You need to set MESOS_NATIVE_LIBRARY to run on a Mesos cluster!");
+                throw new PigException("MESOS_NATIVE_LIBRARY is not set");
+            }
+        }
+
+        // Spark reads its configuration from the system properties when the SparkContext is created,
+        // they are restored when the session stops so that they aren't taken for settings of the
+        // next sessions
+        Map<String, String> replacedProperties = new HashMap<String, String>();
+        // Tell Spark to use Mesos in coarse-grained mode (only affects Spark 0.6+; no impact on others)
+        setSystemProperty(replacedProperties, "spark.mesos.coarse", "true");
+        // For coarse-grained Mesos mode, an upper bound on how many cores to grab in total
+        setSystemProperty(replacedProperties, MAX_CORES, settings.get(3));
+        if (settings.get(4) != null) {
+            setSystemProperty(replacedProperties, EXECUTOR_MEMORY, settings.get(4));
+        }
+        setSystemProperty(replacedProperties, SERIALIZER, settings.get(5));
+
+        LOG.info("Starting a Spark session on " + master + " with up to " + settings.get(3) + " cores");
+        SparkContext sparkContext;
+        try {
+            sparkContext = new SparkContext(master, "Spork", sparkHome, SparkUtil.toScalaSeq(jars));
+        } catch (RuntimeException e) {
+            restoreSystemProperties(replacedProperties);
+            throw e;
+        }
+        return new SparkSession(settings, sparkContext, replacedProperties);
+    }
+
+    private static void setSystemProperty(Map<String, String> replacedProperties, String key, String value) {
+        replacedProperties.put(key, System.getProperty(key));
+        System.setProperty(key, value);
+    }
+
+    private static void restoreSystemProperties(Map<String, String> replacedProperties) {
+        for (Map.Entry<String, String> property : replacedProperties.entrySet()) {
+            if (property.getValue() == null) {
+                System.clearProperty(property.getKey());
+            } else {
+                System.setProperty(property.getKey(), property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stops the session once it has not been used for timeout seconds.
+     */
+    private static synchronized void scheduleIdleTimeout(final SparkSession idleSession, final long timeout) {
+        if (idleTimer == null) {
+            idleTimer = new Timer("Spark session idle timeout", true);
+        }
+        idleTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (SparkSession.class) {
+                    if (session == idleSession && idleSession.launches == 0
+                            && System.currentTimeMillis() - idleSession.lastUsed >= timeout * 1000) {
+                        LOG.info("Stopping the Spark session, idle for " + timeout + " seconds");
+                        stop();
+                    }
+                }
+            }
+        }, timeout * 1000);
+    }
+}
@@ -1,13 +1,18 @@
 package org.apache.pig.backend.hadoop.executionengine.spark;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.ResourceStatistics;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
-import org.apache.pig.impl.util.ObjectSerializer;
-import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.tools.pigstats.SparkStats;
 
 import scala.Tuple2;
 import scala.collection.JavaConversions;
@@ -34,10 +39,16 @@ public class SparkUtil {
     }
 
     public static JobConf newJobConf(PigContext pigContext) throws IOException {
+        return newJobConf(pigContext, null);
+    }
+
+    /**
+     * @param broadcast the context broadcast by the launch, or null to serialize it in the JobConf
+     */
+    public static JobConf newJobConf(PigContext pigContext, JobConfBroadcast broadcast) throws IOException {
         JobConf jobConf = new JobConf(ConfigurationUtil.toConfiguration(pigContext.getProperties()));
-        jobConf.set("pig.pigContext", ObjectSerializer.serialize(pigContext));
-        UDFContext.getUDFContext().serialize(jobConf);
-        jobConf.set("udf.import.list", ObjectSerializer.serialize(PigContext.getPackageImportList()));
+        // the PigContext, UDFContext and import list, or a handle on their broadcast
+        JobConfBroadcast.configure(broadcast, pigContext, jobConf);
         return jobConf;
     }
 
@@ -64,10 +75,32 @@ public class SparkUtil {
     public static  int getParallelism(List<RDD<Tuple>> predecessors, PhysicalOperator physicalOperator) {
         int parallelism = physicalOperator.getRequestedParallelism();
         if (parallelism <= 0) {
-            // Parallelism wasn't set in Pig, so set it to whatever Spark thinks is reasonable.
+            // Parallelism was neither set in Pig, with PARALLEL or default_parallel, nor estimated
+            // from the input size, so set it to whatever Spark thinks is reasonable.
             parallelism = predecessors.get(0).context().defaultParallelism();
         }
         return parallelism;
     }
 
+    /**
+     * @return the size in bytes of the input of poLoad, from the statistics of its loader if it
+     * implements LoadMetadata, or else from the file system, or -1 if it is unknown
+     */
+    public static long getInputSize(POLoad poLoad, Configuration conf) {
+        String location = poLoad.getLFile().getFileName();
+        LoadFunc loadFunc = poLoad.getLoadFunc();
+        if (loadFunc instanceof LoadMetadata) {
+            try {
+                ResourceStatistics statistics = ((LoadMetadata)loadFunc).getStatistics(location,
+                        new Job(new Configuration(conf)));
+                if (statistics != null && statistics.getSizeInBytes() != null) {
+                    return statistics.getSizeInBytes();
+                }
+            } catch (IOException e) {
+                // fall back to the size of the files
+            }
+        }
+        return SparkStats.getLocationSize(location, conf);
+    }
+
 }
@@ -1,13 +1,13 @@
 package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.spark.PersistentResultCache;
+import org.apache.pig.backend.hadoop.executionengine.spark.RDDCacheManager;
 import org.apache.pig.data.Tuple;
 
 import spark.RDD;
@@ -16,20 +16,37 @@ public class CacheConverter implements POConverter<Tuple, Tuple, POCache> {
 
     private static final Log LOG = LogFactory.getLog(CacheConverter.class);
 
-    private Map<String, RDD<Tuple>> cachedRdds = new HashMap<String, RDD<Tuple>>();
+    private final RDDCacheManager cacheManager = new RDDCacheManager();
+
+    public RDDCacheManager getCacheManager() {
+        return cacheManager;
+    }
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POCache physicalOperator) throws IOException {
         String key = physicalOperator.computeCacheKey();
         if (key != null) {
-            if (cachedRdds.get(key) != null) {
-                return cachedRdds.get(key);
-            } else {
-                RDD<Tuple> rdd = predecessors.get(0);
-                rdd.cache();
-                cachedRdds.put(key, rdd);
-                return rdd;
+            String storageLevel = physicalOperator.getStorageLevel();
+            RDD<Tuple> cachedRdd = cacheManager.get(key, storageLevel);
+            if (cachedRdd != null) {
+                LOG.info("Reusing cached RDD for " + physicalOperator);
+                return cachedRdd;
+            }
+            PersistentResultCache persistentCache = cacheManager.getPersistentCache();
+            String entryKey = persistentCache == null ? null : persistentCache.getEntryKey(physicalOperator);
+            if (entryKey == null) {
+                return cacheManager.put(key, predecessors.get(0), storageLevel);
+            }
+            RDD<Tuple> storedRdd = persistentCache.load(predecessors.get(0).context(), entryKey);
+            if (storedRdd != null) {
+                LOG.info("Reusing durably cached relation for " + physicalOperator);
+                return cacheManager.put(key, storedRdd, storageLevel);
             }
+            // written from the in-memory tier once the stores have computed it, a DUMP only
+            // caches it in memory
+            cachedRdd = cacheManager.put(key, predecessors.get(0), storageLevel);
+            persistentCache.saveLater(cachedRdd, entryKey);
+            return cachedRdd;
         } else {
             return predecessors.get(0);
         }
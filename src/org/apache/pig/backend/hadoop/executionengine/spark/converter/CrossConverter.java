@@ -0,0 +1,270 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCross;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.tools.pigstats.SparkStats;
+import org.python.google.common.collect.Lists;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+import spark.broadcast.Broadcast;
+
+/**
+ * Converter for CROSS, see SparkCrossOptimizer. The inputs are crossed two by two. When the
+ * smaller one is known from the size of its files to be below pig.spark.cross.replicate.bytes,
+ * it is collected and broadcast, and every partition of the larger one is crossed with it, so
+ * the larger input is neither moved nor read twice. The smaller input is collected by the launch
+ * once the plan is converted, see {@link PendingJobs}. Otherwise every partition of one input is
+ * crossed with every partition of the other.
+ */
+@SuppressWarnings({ "serial"})
+public class CrossConverter implements POConverter<Tuple, Tuple, POCross> {
+
+    private static final Log LOG = LogFactory.getLog(CrossConverter.class);
+
+    // maximum size of the files of an input replicated to every partition of the other one
+    public static final String REPLICATE_BYTES = "pig.spark.cross.replicate.bytes";
+
+    private static final long DEFAULT_REPLICATE_BYTES = 64L * 1024 * 1024;
+
+    private static final ConcatFunction CONCAT_FUNCTION = new ConcatFunction();
+
+    private final PigContext pigContext;
+    private final PhysicalPlan physicalPlan;
+    private final PendingJobs pendingJobs;
+
+    public CrossConverter(PigContext pigContext, PhysicalPlan physicalPlan, PendingJobs pendingJobs) {
+        this.pigContext = pigContext;
+        this.physicalPlan = physicalPlan;
+        this.pendingJobs = pendingJobs;
+    }
+
+    // how an input is crossed with the previous inputs
+    private enum Crossing { REPLICATE_INPUT, REPLICATE_CROSSED, CARTESIAN }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POCross poCross) throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poCross, 1);
+        List<Crossing> crossings = getCrossings(pigContext, physicalPlan, poCross);
+
+        RDD<Tuple> crossed = predecessors.get(0);
+        for (int i = 1; i < predecessors.size(); i++) {
+            RDD<Tuple> input = predecessors.get(i);
+            Crossing crossing = crossings.get(i - 1);
+            if (crossing == Crossing.REPLICATE_INPUT) {
+                crossed = replicate(crossed, input, false);
+            } else if (crossing == Crossing.REPLICATE_CROSSED) {
+                crossed = replicate(input, crossed, true);
+            } else {
+                LOG.info("Crossing every partition of input " + i + " of " + poCross
+                        + " with every partition of the previous inputs");
+                crossed = crossed.cartesian(input, SparkUtil.getManifest(Tuple.class))
+                        .map(CONCAT_FUNCTION, SparkUtil.getManifest(Tuple.class));
+            }
+        }
+        return crossed;
+    }
+
+    /**
+     * @return whether the inputs of poCross are broadcast, crossed partition by partition, or both
+     */
+    public static ShuffleStrategy getShuffleStrategy(PigContext pigContext, PhysicalPlan physicalPlan,
+            POCross poCross) {
+        List<Crossing> crossings = getCrossings(pigContext, physicalPlan, poCross);
+        if (!crossings.contains(Crossing.CARTESIAN)) {
+            return ShuffleStrategy.BROADCAST;
+        }
+        return crossings.contains(Crossing.REPLICATE_INPUT) || crossings.contains(Crossing.REPLICATE_CROSSED)
+                ? ShuffleStrategy.BROADCAST_AND_CARTESIAN : ShuffleStrategy.CARTESIAN;
+    }
+
+    /**
+     * @return how each input of poCross but the first is crossed with the ones before it
+     */
+    private static List<Crossing> getCrossings(PigContext pigContext, PhysicalPlan physicalPlan,
+            POCross poCross) {
+        long replicateBytes = Long.parseLong(pigContext.getProperties().getProperty(REPLICATE_BYTES,
+                String.valueOf(DEFAULT_REPLICATE_BYTES)));
+        Configuration conf = ConfigurationUtil.toConfiguration(pigContext.getProperties());
+        List<PhysicalOperator> inputs = physicalPlan.getPredecessors(poCross);
+
+        List<Crossing> crossings = Lists.newArrayList();
+        long crossedSize = getInputSize(physicalPlan, inputs.get(0), conf);
+        for (int i = 1; i < inputs.size(); i++) {
+            long inputSize = getInputSize(physicalPlan, inputs.get(i), conf);
+            if (inputSize >= 0 && inputSize <= replicateBytes
+                    && (crossedSize < 0 || inputSize <= crossedSize)) {
+                crossings.add(Crossing.REPLICATE_INPUT);
+            } else if (crossedSize >= 0 && crossedSize <= replicateBytes) {
+                crossings.add(Crossing.REPLICATE_CROSSED);
+            } else {
+                crossings.add(Crossing.CARTESIAN);
+            }
+            crossedSize = crossedSize < 0 || inputSize < 0 ? -1 : saturatedProduct(crossedSize, inputSize);
+        }
+        return crossings;
+    }
+
+    /**
+     * Crosses every partition of rdd with the tuples of replicated, collected and broadcast by a
+     * pending job.
+     * @param replicatedFirst whether the fields of the replicated tuples come first
+     */
+    private RDD<Tuple> replicate(RDD<Tuple> rdd, final RDD<Tuple> replicated, boolean replicatedFirst) {
+        final ReplicatedCrossFunction crossFunction = new ReplicatedCrossFunction(replicatedFirst);
+        pendingJobs.add(new Runnable() {
+            @Override
+            public void run() {
+                Tuple[] tuples = (Tuple[])replicated.collect();
+                LOG.info("Broadcasting " + tuples.length + " tuples of " + replicated + " to cross with");
+                crossFunction.broadcast = replicated.context().broadcast(tuples);
+            }
+        });
+        return rdd.mapPartitions(crossFunction, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * @return the size in bytes of the files op is computed from, or -1 if it is not known or op
+     * may be larger than them: only a load, and the filters and projections of a single load,
+     * are bounded by the size of their files
+     */
+    private static long getInputSize(PhysicalPlan physicalPlan, PhysicalOperator op, Configuration conf) {
+        if (op instanceof POLoad) {
+            return SparkStats.getLocationSize(((POLoad)op).getLFile().getFileName(), conf);
+        }
+        if (!isBoundedByInput(op)) {
+            return -1;
+        }
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(op);
+        if (predecessors == null || predecessors.size() != 1) {
+            return -1;
+        }
+        return getInputSize(physicalPlan, predecessors.get(0), conf);
+    }
+
+    /**
+     * @return whether op outputs at most what it reads: a filter, or a FOREACH that flattens
+     * nothing, or a pipeline of those
+     */
+    private static boolean isBoundedByInput(PhysicalOperator op) {
+        if (op instanceof POFilter) {
+            return true;
+        }
+        if (op instanceof POForEach) {
+            return !((POForEach)op).getToBeFlattened().contains(true);
+        }
+        if (op instanceof POPipeline) {
+            for (PhysicalOperator operator : ((POPipeline)op).getOperators()) {
+                if (!isBoundedByInput(operator)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static long saturatedProduct(long a, long b) {
+        return b != 0 && a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    private static Tuple concat(Tuple first, Tuple second) throws ExecException {
+        Tuple tuple = TupleFactory.getInstance().newTuple(first.size() + second.size());
+        for (int i = 0; i < first.size(); i++) {
+            tuple.set(i, first.get(i));
+        }
+        for (int i = 0; i < second.size(); i++) {
+            tuple.set(first.size() + i, second.get(i));
+        }
+        return tuple;
+    }
+
+    private static class ConcatFunction extends AbstractFunction1<Tuple2<Tuple, Tuple>, Tuple>
+            implements Serializable {
+
+        @Override
+        public Tuple apply(Tuple2<Tuple, Tuple> pair) {
+            try {
+                return concat(pair._1(), pair._2());
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ReplicatedCrossFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        // set once the replicated input is collected, before the function is shipped
+        private Broadcast<Tuple[]> broadcast = null;
+        private final boolean replicatedFirst;
+
+        private ReplicatedCrossFunction(boolean replicatedFirst) {
+            this.replicatedFirst = replicatedFirst;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            if (broadcast == null) {
+                throw new IllegalStateException("The replicated input of the CROSS was not broadcast");
+            }
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            final Tuple[] replicated = broadcast.value();
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private Tuple current = null;
+                private int next = replicated.length;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == replicated.length) {
+                        if (replicated.length == 0 || !input.hasNext()) {
+                            return false;
+                        }
+                        current = input.next();
+                        next = 0;
+                    }
+                    return true;
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new java.util.NoSuchElementException();
+                    }
+                    Tuple other = replicated[next++];
+                    try {
+                        return replicatedFirst ? concat(other, current) : concat(current, other);
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+}
@@ -8,24 +8,34 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODistinct;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InternalDistinctBag;
 import org.apache.pig.data.Tuple;
 
 import scala.Function1;
-import scala.Function2;
 import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
 import scala.reflect.ClassManifest;
 import scala.runtime.AbstractFunction1;
-import scala.runtime.AbstractFunction2;
+import spark.HashPartitioner;
 import spark.PairRDDFunctions;
 import spark.RDD;
 
+/**
+ * Removes the duplicates of each partition before and after the shuffle, as PODistinct does with
+ * an InternalDistinctBag: the bag spills to disk under memory pressure, so only the distinct
+ * tuples of a partition are shuffled, however many duplicates or distinct tuples it holds.
+ * Tuples are compared and hashed as Tuple objects, not in their serialized form, and are paired
+ * with a null value for the shuffle.
+ */
 @SuppressWarnings({ "serial"})
 public class DistinctConverter implements POConverter<Tuple, Tuple, PODistinct> {
     private static final Log LOG = LogFactory.getLog(DistinctConverter.class);
 
     private static final Function1<Tuple, Tuple2<Tuple, Object>> TO_KEY_VALUE_FUNCTION = new ToKeyValueFunction();
-    private static final Function2<Object, Object, Object> MERGE_VALUES_FUNCTION = new MergeValuesFunction();
     private static final Function1<Tuple2<Tuple, Object>, Tuple> TO_VALUE_FUNCTION = new ToValueFunction();
+    private static final LocalDistinctFunction LOCAL_DISTINCT_FUNCTION = new LocalDistinctFunction();
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, PODistinct poDistinct)
@@ -35,11 +45,32 @@ public class DistinctConverter implements POConverter<Tuple, Tuple, PODistinct>
 
         ClassManifest<Tuple2<Tuple, Object>> tuple2ClassManifest = SparkUtil.<Tuple, Object>getTuple2Manifest();
 
-        RDD<Tuple2<Tuple, Object>> rddPairs = rdd.map(TO_KEY_VALUE_FUNCTION, tuple2ClassManifest);
+        // deduplicate each partition before shuffling it
+        RDD<Tuple2<Tuple, Object>> rddPairs = rdd
+                .mapPartitions(LOCAL_DISTINCT_FUNCTION, SparkUtil.getManifest(Tuple.class))
+                .map(TO_KEY_VALUE_FUNCTION, tuple2ClassManifest);
         PairRDDFunctions<Tuple, Object> pairRDDFunctions =
                 new PairRDDFunctions<Tuple, Object>(rddPairs, SparkUtil.getManifest(Tuple.class), SparkUtil.getManifest(Object.class));
         int parallelism = SparkUtil.getParallelism(predecessors, poDistinct);
-        return pairRDDFunctions.reduceByKey(MERGE_VALUES_FUNCTION, parallelism).map(TO_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+        // the in-memory map-side combine of reduceByKey is replaced by the bags on both sides
+        return pairRDDFunctions.partitionBy(new HashPartitioner(parallelism), false)
+                .map(TO_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class))
+                .mapPartitions(LOCAL_DISTINCT_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static final class LocalDistinctFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            // spills to disk when the distinct tuples don't fit in memory
+            DataBag distinctBag = new InternalDistinctBag(3);
+            while (input.hasNext()) {
+                distinctBag.add(input.next());
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("DistinctConverter.LocalDistinctFunction out " + distinctBag.size() + " tuples");
+            return JavaConversions.asScalaIterator(distinctBag.iterator());
+        }
     }
 
     private static final class ToKeyValueFunction extends AbstractFunction1<Tuple,Tuple2<Tuple, Object>> implements Serializable {
@@ -57,13 +88,6 @@ public class DistinctConverter implements POConverter<Tuple, Tuple, PODistinct>
         }
     }
 
-    private static final class MergeValuesFunction extends AbstractFunction2<Object,Object,Object> implements Serializable {
-        @Override
-        public Object apply(Object arg0, Object arg1) {
-            return null;
-        }
-    }
-
     private static final class ToValueFunction extends AbstractFunction1<Tuple2<Tuple, Object>, Tuple> implements Serializable {
         @Override
         public Tuple apply(Tuple2<Tuple, Object> input) {
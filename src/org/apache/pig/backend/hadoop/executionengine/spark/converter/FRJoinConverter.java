@@ -0,0 +1,128 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin.TupleToMapKey;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+import spark.broadcast.Broadcast;
+
+/**
+ * Converter for replicated joins. The replicated inputs are collected to the driver once and
+ * shipped to the executors as a single broadcast variable. The POFRJoin hash tables are then
+ * built once per executor JVM and shared by all the tasks that stream the fragment through it,
+ * so the fragment is never shuffled. The replicated inputs are collected by the launch once the
+ * plan is converted, see {@link PendingJobs}.
+ */
+@SuppressWarnings({ "serial"})
+public class FRJoinConverter implements POConverter<Tuple, Tuple, POFRJoin> {
+    private static final Log LOG = LogFactory.getLog(FRJoinConverter.class);
+
+    // hash tables already built in this JVM, keyed by the broadcast replicated inputs
+    private static final Map<Object, TupleToMapKey[]> replicatesCache =
+            Collections.synchronizedMap(new WeakHashMap<Object, TupleToMapKey[]>());
+
+    private final PendingJobs pendingJobs;
+
+    public FRJoinConverter(PendingJobs pendingJobs) {
+        this.pendingJobs = pendingJobs;
+    }
+
+    @Override
+    public RDD<Tuple> convert(final List<RDD<Tuple>> predecessors, final POFRJoin poFRJoin)
+            throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poFRJoin, 1);
+        RDD<Tuple> fragmentRdd = predecessors.get(poFRJoin.getFragment());
+        final FRJoinFunction joinFunction = new FRJoinFunction(poFRJoin);
+        pendingJobs.add(new Runnable() {
+            @Override
+            public void run() {
+                joinFunction.broadcast = broadcast(predecessors, poFRJoin);
+            }
+        });
+        return fragmentRdd.mapPartitions(joinFunction, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * Collects the replicated inputs of poFRJoin, one job each, and broadcasts them together.
+     */
+    private static Broadcast<Tuple[][]> broadcast(List<RDD<Tuple>> predecessors, POFRJoin poFRJoin) {
+        int fragment = poFRJoin.getFragment();
+        Tuple[][] replicatedInputs = new Tuple[predecessors.size()][];
+        for (int i = 0; i < predecessors.size(); i++) {
+            if (i != fragment) {
+                replicatedInputs[i] = (Tuple[])predecessors.get(i).collect();
+                LOG.info("Broadcasting " + replicatedInputs[i].length + " tuples for input " + i
+                        + " of " + poFRJoin);
+            }
+        }
+        return predecessors.get(fragment).context().broadcast(replicatedInputs);
+    }
+
+    private static TupleToMapKey[] getReplicates(POFRJoin poFRJoin, Tuple[][] replicatedInputs)
+            throws ExecException {
+        synchronized (replicatesCache) {
+            TupleToMapKey[] replicates = replicatesCache.get(replicatedInputs);
+            if (replicates == null) {
+                List<java.util.Iterator<Tuple>> inputs = new ArrayList<java.util.Iterator<Tuple>>();
+                for (Tuple[] replicatedInput : replicatedInputs) {
+                    inputs.add(replicatedInput == null ? null : Arrays.asList(replicatedInput).iterator());
+                }
+                replicates = poFRJoin.buildReplicates(inputs);
+                replicatesCache.put(replicatedInputs, replicates);
+            }
+            return replicates;
+        }
+    }
+
+    private static class FRJoinFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final POFRJoin poFRJoin;
+        // set once the replicated inputs are collected, before the function is shipped
+        private Broadcast<Tuple[][]> broadcast = null;
+
+        private FRJoinFunction(POFRJoin poFRJoin) {
+            this.poFRJoin = poFRJoin;
+        }
+
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            if (broadcast == null) {
+                throw new IllegalStateException("The replicated inputs of " + poFRJoin + " were not broadcast");
+            }
+            try {
+                poFRJoin.setReplicates(getReplicates(poFRJoin, broadcast.value()));
+            } catch (ExecException e) {
+                throw new RuntimeException("Couldn't build the replicated join hash tables", e);
+            }
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
+                protected void attach(Tuple tuple) {
+                    poFRJoin.setInputs(null);
+                    poFRJoin.attachInput(tuple);
+                }
+
+                protected Result getNextResult() throws ExecException {
+                    return poFRJoin.getNext((Tuple)null);
+                }
+            });
+        }
+    }
+}
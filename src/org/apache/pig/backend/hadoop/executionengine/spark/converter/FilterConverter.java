@@ -2,13 +2,16 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
 
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
@@ -20,11 +23,19 @@ import spark.RDD;
 @SuppressWarnings({ "serial"})
 public class FilterConverter implements POConverter<Tuple, Tuple, POFilter> {
 
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    public FilterConverter(Map<OperatorKey, OperatorCounters> counters) {
+        this.counters = counters;
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POFilter physicalOperator) {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
-        FilterFunction filterFunction = new FilterFunction(physicalOperator);
+        FilterFunction filterFunction = new FilterFunction(physicalOperator,
+                OperatorCounters.register(counters, physicalOperator, rdd.context()));
         return rdd.filter(filterFunction);
     }
 
@@ -32,13 +43,24 @@ public class FilterConverter implements POConverter<Tuple, Tuple, POFilter> {
             implements Serializable {
 
         private POFilter poFilter;
+        private final OperatorCounters counters;
 
-        private FilterFunction(POFilter poFilter) {
+        private FilterFunction(POFilter poFilter, OperatorCounters counters) {
             this.poFilter = poFilter;
+            this.counters = counters;
         }
 
         @Override
         public Boolean apply(Tuple v1) {
+            long start = counters == null ? 0 : System.nanoTime();
+            boolean kept = filter(v1);
+            if (counters != null) {
+                counters.add(kept ? 1 : 0, System.nanoTime() - start);
+            }
+            return kept;
+        }
+
+        private boolean filter(Tuple v1) {
             Result result;
             try {
                 poFilter.setInputs(null);
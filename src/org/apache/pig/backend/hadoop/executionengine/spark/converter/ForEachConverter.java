@@ -2,12 +2,15 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
 
 import scala.collection.Iterator;
 import scala.collection.JavaConversions;
@@ -21,11 +24,19 @@ import spark.RDD;
 @SuppressWarnings({ "serial"})
 public class ForEachConverter implements POConverter<Tuple, Tuple, POForEach> {
 
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    public ForEachConverter(Map<OperatorKey, OperatorCounters> counters) {
+        this.counters = counters;
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POForEach physicalOperator) {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
-        ForEachFunction forEachFunction = new ForEachFunction(physicalOperator);
+        ForEachFunction forEachFunction = new ForEachFunction(physicalOperator,
+                OperatorCounters.register(counters, physicalOperator, rdd.context()));
         return rdd.mapPartitions(forEachFunction, SparkUtil.getManifest(Tuple.class));
     }
 
@@ -33,14 +44,16 @@ public class ForEachConverter implements POConverter<Tuple, Tuple, POForEach> {
             implements Serializable {
 
         private POForEach poForEach;
+        private final OperatorCounters counters;
 
-        private ForEachFunction(POForEach poForEach) {
+        private ForEachFunction(POForEach poForEach, OperatorCounters counters) {
             this.poForEach = poForEach;
+            this.counters = counters;
         }
 
         public Iterator<Tuple> apply(Iterator<Tuple> i) {
             final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
-            Iterator<Tuple> output = JavaConversions.asScalaIterator(new POOutputConsumerIterator(input) {
+            Iterator<Tuple> output = JavaConversions.asScalaIterator(new POOutputConsumerIterator(input, counters) {
                 protected void attach(Tuple tuple) {
                     poForEach.setInputs(null);
                     poForEach.attachInput(tuple);
@@ -2,16 +2,22 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
 import org.python.google.common.collect.Lists;
 
 import scala.Tuple2;
@@ -19,8 +25,10 @@ import scala.collection.JavaConversions;
 import scala.collection.Seq;
 import scala.reflect.ClassManifest;
 import scala.runtime.AbstractFunction1;
+import scala.runtime.AbstractFunction2;
 import spark.CoGroupedRDD;
 import spark.HashPartitioner;
+import spark.PairRDDFunctions;
 import spark.RDD;
 
 @SuppressWarnings({ "serial"})
@@ -35,6 +43,38 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
     // COGROUP FUNCTIONS
     private static final GroupTupleFunction GROUP_TUPLE_FUNCTION = new GroupTupleFunction();
     private static final ToGroupKeyValueFunction TO_GROUP_KEY_VALUE_FUNCTION = new ToGroupKeyValueFunction();
+    // COMBINE FUNCTIONS
+    private static final ToKeyTupleFunction TO_KEY_TUPLE_FUNCTION = new ToKeyTupleFunction();
+    private static final CombinedGroupTupleFunction COMBINED_GROUP_TUPLE_FUNCTION = new CombinedGroupTupleFunction();
+
+    // combine plans introduced by SparkCombinerOptimizer, keyed by POGlobalRearrange
+    private final Map<OperatorKey, PhysicalPlan> combinePlans;
+
+    // secondary key sort orders introduced by SparkSecondaryKeyOptimizer, keyed by POGlobalRearrange
+    private final Map<OperatorKey, boolean[]> secondarySortOrders;
+
+    // GROUPs whose values are streamed to accumulative UDFs, see SparkAccumulatorOptimizer
+    private final Set<OperatorKey> accumulativeGroups;
+
+    // GROUPs by a constant key, see SparkGroupAllOptimizer
+    private final Set<OperatorKey> constantKeyGroups;
+
+    // the fan-in of the tree aggregation of the combined GROUPs by a constant key
+    private final int treeFanIn;
+
+    // the number of values buffered for a key before they are combined
+    private final int combineThreshold;
+
+    public GlobalRearrangeConverter(Map<OperatorKey, PhysicalPlan> combinePlans,
+            Map<OperatorKey, boolean[]> secondarySortOrders, Set<OperatorKey> accumulativeGroups,
+            Set<OperatorKey> constantKeyGroups, Properties properties) {
+        this.combinePlans = combinePlans;
+        this.secondarySortOrders = secondarySortOrders;
+        this.accumulativeGroups = accumulativeGroups;
+        this.constantKeyGroups = constantKeyGroups;
+        this.treeFanIn = GroupAllShuffle.getFanIn(properties);
+        this.combineThreshold = SparkCombiner.getThreshold(properties);
+    }
 
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors,
@@ -43,7 +83,37 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
         int parallelism = SparkUtil.getParallelism(predecessors, physicalOperator);
         if (LOG.isDebugEnabled())
             LOG.info("Parallelism for Spark groupBy: " + parallelism);
-        if (predecessors.size() == 1) {
+        PhysicalPlan combinePlan = combinePlans.get(physicalOperator.getOperatorKey());
+        boolean[] secondarySortOrder = secondarySortOrders.get(physicalOperator.getOperatorKey());
+        ShuffleStrategy strategy = getShuffleStrategy(physicalOperator.getOperatorKey(), predecessors.size(),
+                combinePlans, secondarySortOrders, accumulativeGroups, constantKeyGroups);
+        if (strategy == ShuffleStrategy.SORTED_GROUPS) {
+            // (CO)GROUP with a nested ORDER BY: the values come out of the shuffle sorted, or
+            // (CO)GROUP with accumulative UDFs: the values are read in batches off the sorted
+            // partition, a group is never held in memory as a whole
+            return SortedGroupShuffle.shuffle(predecessors, parallelism, secondarySortOrder);
+        } else if (strategy == ShuffleStrategy.TREE_AGGREGATION) {
+            // GROUP ALL: a single group, never gathered in one groupBy bucket
+            return GroupAllShuffle.treeAggregate(predecessors.get(0),
+                    new SparkCombiner(combinePlan, combineThreshold), treeFanIn);
+        } else if (strategy == ShuffleStrategy.SINGLE_GROUP) {
+            return GroupAllShuffle.singleGroup(predecessors.get(0));
+        } else if (strategy == ShuffleStrategy.COMBINED) {
+            //GROUP with algebraic functions: combine on both sides of the shuffle
+            SparkCombiner combiner = new SparkCombiner(combinePlan, combineThreshold);
+            RDD<Tuple2<Object, Tuple>> rddPairs = predecessors.get(0)
+                    .map(TO_KEY_TUPLE_FUNCTION, SparkUtil.<Object, Tuple>getTuple2Manifest());
+            PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(
+                    rddPairs, SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+            return pairRDDFunctions
+                .combineByKey(
+                        new CreateCombinerFunction(),
+                        new MergeValueFunction(combiner),
+                        new MergeCombinersFunction(combiner),
+                        parallelism)
+                // convert result to a tuple (key, { (index, key, value) })
+                .map(COMBINED_GROUP_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+        } else if (predecessors.size() == 1) {
             //GROUP
             return predecessors.get(0)
                 // group by key
@@ -72,6 +142,25 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
         }
     }
 
+    /**
+     * @param key the key of the POGlobalRearrange
+     * @param inputs the number of inputs of the POGlobalRearrange
+     * @return how the POGlobalRearrange is shuffled, given what the optimizers found
+     */
+    public static ShuffleStrategy getShuffleStrategy(OperatorKey key, int inputs,
+            Map<OperatorKey, PhysicalPlan> combinePlans, Map<OperatorKey, boolean[]> secondarySortOrders,
+            Set<OperatorKey> accumulativeGroups, Set<OperatorKey> constantKeyGroups) {
+        boolean combined = combinePlans.containsKey(key);
+        if (secondarySortOrders.containsKey(key) || accumulativeGroups.contains(key)) {
+            return ShuffleStrategy.SORTED_GROUPS;
+        } else if (constantKeyGroups.contains(key)) {
+            return combined ? ShuffleStrategy.TREE_AGGREGATION : ShuffleStrategy.SINGLE_GROUP;
+        } else if (inputs == 1 && combined) {
+            return ShuffleStrategy.COMBINED;
+        }
+        return ShuffleStrategy.FULL;
+    }
+
     private static class GetKeyFunction extends AbstractFunction1<Tuple, Object> implements Serializable {
 
         public Object apply(Tuple t) {
@@ -103,6 +192,73 @@ public class GlobalRearrangeConverter implements POConverter<Tuple, Tuple, POGlo
         }
     }
 
+    private static class ToKeyTupleFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>> implements Serializable {
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            try {
+                // (key, (index, key, value))
+                return new Tuple2<Object, Tuple>(t.get(1), t);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class CreateCombinerFunction extends AbstractFunction1<Tuple, ArrayList<Tuple>> implements Serializable {
+
+        @Override
+        public ArrayList<Tuple> apply(Tuple t) {
+            ArrayList<Tuple> values = new ArrayList<Tuple>();
+            values.add(t);
+            return values;
+        }
+    }
+
+    private static class MergeValueFunction extends AbstractFunction2<ArrayList<Tuple>, Tuple, ArrayList<Tuple>> implements Serializable {
+
+        private final SparkCombiner combiner;
+
+        private MergeValueFunction(SparkCombiner combiner) {
+            this.combiner = combiner;
+        }
+
+        @Override
+        public ArrayList<Tuple> apply(ArrayList<Tuple> values, Tuple t) {
+            values.add(t);
+            return combiner.combineIfNeeded(values);
+        }
+    }
+
+    private static class MergeCombinersFunction extends AbstractFunction2<ArrayList<Tuple>, ArrayList<Tuple>, ArrayList<Tuple>> implements Serializable {
+
+        private final SparkCombiner combiner;
+
+        private MergeCombinersFunction(SparkCombiner combiner) {
+            this.combiner = combiner;
+        }
+
+        @Override
+        public ArrayList<Tuple> apply(ArrayList<Tuple> values1, ArrayList<Tuple> values2) {
+            values1.addAll(values2);
+            return combiner.combineIfNeeded(values1);
+        }
+    }
+
+    private static class CombinedGroupTupleFunction extends AbstractFunction1<Tuple2<Object, ArrayList<Tuple>>, Tuple> implements Serializable {
+
+        public Tuple apply(Tuple2<Object, ArrayList<Tuple>> v1) {
+            try {
+                Tuple tuple = tf.newTuple(2);
+                tuple.set(0, v1._1()); // the key
+                tuple.set(1, v1._2().iterator()); // the partially aggregated (index, key, value) tuples
+                return tuple;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     private static class ToKeyValueFunction extends AbstractFunction1<Tuple,Tuple2<Object, Tuple>> implements Serializable {
 
         @Override
@@ -0,0 +1,228 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.reflect.ClassManifest;
+import scala.runtime.AbstractFunction1;
+import scala.runtime.AbstractFunction2;
+import spark.HashPartitioner;
+import spark.PairRDDFunctions;
+import spark.RDD;
+
+/**
+ * The shuffles of the GROUPs by a constant key, see SparkGroupAllOptimizer, whose values all
+ * belong to a single group. A combined GROUP is aggregated in a tree: each partition is combined
+ * into a partial result, and the partial results of pig.spark.groupall.fanin partitions at a time
+ * are shuffled together and combined again, until a single partition is left. Otherwise the values
+ * are streamed from a single partition to the POPackage, which collects them in its spillable bag.
+ */
+@SuppressWarnings({ "serial"})
+class GroupAllShuffle {
+
+    private static final Log LOG = LogFactory.getLog(GroupAllShuffle.class);
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    // the number of partitions combined together at each level of the tree
+    public static final String FAN_IN = "pig.spark.groupall.fanin";
+    private static final int DEFAULT_FAN_IN = 32;
+
+    private static final ToValueFunction TO_VALUE_FUNCTION = new ToValueFunction();
+    private static final ToKeyTupleFunction TO_KEY_TUPLE_FUNCTION = new ToKeyTupleFunction();
+    private static final SingleGroupFunction SINGLE_GROUP_FUNCTION = new SingleGroupFunction();
+
+    /**
+     * @return the fan-in of the tree aggregations, at least 2
+     */
+    static int getFanIn(Properties properties) {
+        int fanIn = Integer.parseInt(properties.getProperty(FAN_IN, String.valueOf(DEFAULT_FAN_IN)));
+        return Math.max(2, fanIn);
+    }
+
+    /**
+     * @param rdd the (index, key, value) tuples of the GROUP
+     * @return a single (key, Iterator of combined (index, key, value)) tuple, none if rdd is empty
+     */
+    static RDD<Tuple> treeAggregate(RDD<Tuple> rdd, SparkCombiner combiner, int fanIn) {
+        ClassManifest<Tuple2<Object, Tuple>> tuple2ClassManifest = SparkUtil.<Object, Tuple>getTuple2Manifest();
+        int partitions = rdd.splits().length;
+        RDD<Tuple> partials = rdd;
+        int levels = 0;
+        do {
+            // partition i goes to partition i / fanIn of the next level
+            int nextPartitions = Math.max(1, (partitions + fanIn - 1) / fanIn);
+            RDD<Tuple2<Object, Tuple>> rddPairs = partials.mapPartitionsWithSplit(
+                    new PartialCombineFunction(combiner, fanIn), false, tuple2ClassManifest);
+            PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(
+                    rddPairs, SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+            partials = pairRDDFunctions
+                    .partitionBy(new HashPartitioner(nextPartitions), false)
+                    .map(TO_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+            partitions = nextPartitions;
+            ++levels;
+        } while (partitions > 1);
+        LOG.info("Aggregating " + rdd.splits().length + " partitions in a tree of " + levels
+                + " levels with a fan-in of " + fanIn);
+        return partials.mapPartitions(new FinalCombineFunction(combiner), SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * @param rdd the (index, key, value) tuples of the GROUP
+     * @return a single (key, Iterator of (index, key, value)) tuple, none if rdd is empty
+     */
+    static RDD<Tuple> singleGroup(RDD<Tuple> rdd) {
+        RDD<Tuple2<Object, Tuple>> rddPairs = rdd.map(TO_KEY_TUPLE_FUNCTION,
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(
+                rddPairs, SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions
+                .partitionBy(new HashPartitioner(1), false)
+                .mapPartitions(SINGLE_GROUP_FUNCTION, SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static ArrayList<Tuple> combine(SparkCombiner combiner, Iterator<Tuple> input) {
+        ArrayList<Tuple> values = new ArrayList<Tuple>();
+        while (input.hasNext()) {
+            values.add(input.next());
+            values = combiner.combineIfNeeded(values);
+        }
+        if (values.size() > 1) {
+            values = combiner.combine(values);
+        }
+        return values;
+    }
+
+    /**
+     * Combines a partition and sends the result to partition split / fanIn of the next level.
+     */
+    private static class PartialCombineFunction
+            extends AbstractFunction2<Object, Iterator<Tuple>, Iterator<Tuple2<Object, Tuple>>>
+            implements Serializable {
+
+        private final SparkCombiner combiner;
+        private final int fanIn;
+
+        private PartialCombineFunction(SparkCombiner combiner, int fanIn) {
+            this.combiner = combiner;
+            this.fanIn = fanIn;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, Tuple>> apply(Object split, Iterator<Tuple> input) {
+            Integer target = (Integer)split / fanIn;
+            ArrayList<Tuple2<Object, Tuple>> out = new ArrayList<Tuple2<Object, Tuple>>();
+            for (Tuple partial : combine(combiner, input)) {
+                out.add(new Tuple2<Object, Tuple>(target, partial));
+            }
+            return JavaConversions.asScalaIterator(out.iterator());
+        }
+    }
+
+    private static class FinalCombineFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final SparkCombiner combiner;
+
+        private FinalCombineFunction(SparkCombiner combiner) {
+            this.combiner = combiner;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            ArrayList<Tuple> values = combine(combiner, input);
+            if (values.isEmpty()) {
+                return JavaConversions.asScalaIterator(Collections.<Tuple>emptyList().iterator());
+            }
+            try {
+                Tuple tuple = tf.newTuple(2);
+                tuple.set(0, values.get(0).get(1)); // the key
+                tuple.set(1, values.iterator()); // the aggregated (index, key, value) tuples
+                return JavaConversions.asScalaIterator(Collections.singletonList(tuple).iterator());
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Streams the values of the partition, without collecting them, as the values of one group.
+     */
+    private static class SingleGroupFunction extends AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple>>
+            implements Serializable {
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Object, Tuple>> input) {
+            if (!input.hasNext()) {
+                return JavaConversions.asScalaIterator(Collections.<Tuple>emptyList().iterator());
+            }
+            final Tuple2<Object, Tuple> first = input.next();
+            final java.util.Iterator<Tuple2<Object, Tuple>> rest = JavaConversions.asJavaIterator(input);
+            java.util.Iterator<Tuple> values = new java.util.Iterator<Tuple>() {
+                private boolean firstRead = false;
+
+                @Override
+                public boolean hasNext() {
+                    return !firstRead || rest.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!firstRead) {
+                        firstRead = true;
+                        return first._2();
+                    }
+                    return rest.next()._2();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+            try {
+                Tuple tuple = tf.newTuple(2);
+                tuple.set(0, first._1()); // the key
+                tuple.set(1, values); // the (index, key, value) tuples, read once by the POPackage
+                return JavaConversions.asScalaIterator(Collections.singletonList(tuple).iterator());
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ToKeyTupleFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>>
+            implements Serializable {
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            try {
+                // (key, (index, key, value))
+                return new Tuple2<Object, Tuple>(t.get(1), t);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ToValueFunction extends AbstractFunction1<Tuple2<Object, Tuple>, Tuple>
+            implements Serializable {
+
+        @Override
+        public Tuple apply(Tuple2<Object, Tuple> input) {
+            return input._2();
+        }
+    }
+}
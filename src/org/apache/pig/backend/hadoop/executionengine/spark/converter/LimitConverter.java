@@ -2,19 +2,35 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.Comparator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InternalSortedBag;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
 
+import scala.Tuple2;
 import scala.collection.Iterator;
 import scala.collection.JavaConversions;
 import scala.runtime.AbstractFunction1;
+import scala.runtime.AbstractFunction2;
+import spark.HashPartitioner;
+import spark.PairRDDFunctions;
 import spark.RDD;
 
+/**
+ * Converter for a global LIMIT. Every partition is first limited on its own, in parallel, and
+ * only the tuples it keeps are shuffled to a single partition, tagged with the partition and the
+ * position they come from. There they are read back in the order of the input, so that the order
+ * of an ORDER BY is kept, and limited again. A limit expression is only known by the tasks, so
+ * POLimit is run instead.
+ */
 @SuppressWarnings({ "serial"})
 public class LimitConverter implements POConverter<Tuple, Tuple, POLimit> {
 
@@ -22,9 +38,181 @@ public class LimitConverter implements POConverter<Tuple, Tuple, POLimit> {
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POLimit poLimit)
             throws IOException {
         SparkUtil.assertPredecessorSize(predecessors, poLimit, 1);
-        RDD<Tuple> rdd = predecessors.get(0);
-        LimitFunction limitFunction = new LimitFunction(poLimit);
-        return rdd.mapPartitions(limitFunction, SparkUtil.getManifest(Tuple.class));
+        return limit(predecessors.get(0), newLimitFunction(poLimit), newLimitFunction(poLimit));
+    }
+
+    /**
+     * @return the count first tuples of rdd, in order, for a sort that was limited by
+     * LimitOptimizer
+     */
+    static RDD<Tuple> limit(RDD<Tuple> rdd, long count) {
+        return limit(rdd, new TakeFunction(count), new TakeFunction(count));
+    }
+
+    private static RDD<Tuple> limit(RDD<Tuple> rdd,
+            AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> partitionLimitFunction,
+            AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> globalLimitFunction) {
+        RDD<Tuple2<Object, Tuple>> limited = rdd.mapPartitionsWithSplit(
+                new PositionFunction(partitionLimitFunction), false,
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(limited,
+                SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions
+                .partitionBy(new HashPartitioner(1), false)
+                .mapPartitions(new InOrderFunction(globalLimitFunction), SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> newLimitFunction(POLimit poLimit) {
+        if (poLimit.getLimitPlan() != null) {
+            return new LimitFunction(poLimit);
+        }
+        return new TakeFunction(poLimit.getLimit());
+    }
+
+    /**
+     * Limits a partition and tags the tuples it keeps with (partition, position, tuple), all for
+     * the same partition of the shuffle.
+     */
+    private static class PositionFunction
+            extends AbstractFunction2<Object, Iterator<Tuple>, Iterator<Tuple2<Object, Tuple>>>
+            implements Serializable {
+
+        private final AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> limitFunction;
+
+        private PositionFunction(AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> limitFunction) {
+            this.limitFunction = limitFunction;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, Tuple>> apply(final Object split, Iterator<Tuple> input) {
+            final Iterator<Tuple> limited = limitFunction.apply(input);
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple2<Object, Tuple>>() {
+                private long position = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return limited.hasNext();
+                }
+
+                @Override
+                public Tuple2<Object, Tuple> next() {
+                    Tuple positioned = TupleFactory.getInstance().newTuple(3);
+                    try {
+                        positioned.set(0, split);
+                        positioned.set(1, position++);
+                        positioned.set(2, limited.next());
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return new Tuple2<Object, Tuple>(0, positioned);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+
+    /**
+     * Puts the tagged tuples of all the partitions back in the order of the input, spilling if
+     * needed, and limits them.
+     */
+    private static class InOrderFunction
+            extends AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> limitFunction;
+
+        private InOrderFunction(AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> limitFunction) {
+            this.limitFunction = limitFunction;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Object, Tuple>> input) {
+            DataBag sortedBag = new InternalSortedBag(1, new PositionComparator());
+            while (input.hasNext()) {
+                sortedBag.add(input.next()._2());
+            }
+            final java.util.Iterator<Tuple> positioned = sortedBag.iterator();
+            return limitFunction.apply(JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+
+                @Override
+                public boolean hasNext() {
+                    return positioned.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    try {
+                        return (Tuple)positioned.next().get(2);
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Orders (partition, position, tuple) tuples by partition, then position.
+     */
+    private static class PositionComparator implements Comparator<Tuple> {
+
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            try {
+                int c = ((Integer)t1.get(0)).compareTo((Integer)t2.get(0));
+                return c != 0 ? c : ((Long)t1.get(1)).compareTo((Long)t2.get(1));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the first count tuples of a partition, without reading the ones after them.
+     */
+    private static class TakeFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final long count;
+
+        private TakeFunction(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(final Iterator<Tuple> i) {
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private long taken = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return taken < count && i.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ++taken;
+                    return i.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
     }
 
     private static class LimitFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>> implements Serializable {
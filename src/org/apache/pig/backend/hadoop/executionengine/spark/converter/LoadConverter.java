@@ -4,19 +4,26 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.pig.LoadFunc;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigInputFormat;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.util.ObjectSerializer;
 import org.python.google.common.collect.Lists;
-import scala.Function1;
 import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
 import spark.SparkContext;
@@ -25,6 +32,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Converter that loads data via POLoad and converts it to RRD&lt;Tuple>. Abuses the interface a bit
@@ -36,16 +44,21 @@ import java.util.List;
 @SuppressWarnings({ "serial"})
 public class LoadConverter implements POConverter<Tuple, Tuple, POLoad> {
 
-    private static final ToTupleFunction TO_TUPLE_FUNCTION = new ToTupleFunction();
-
     private PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
     private PhysicalPlan physicalPlan;
     private SparkContext sparkContext;
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
 
-    public LoadConverter(PigContext pigContext, PhysicalPlan physicalPlan, SparkContext sparkContext) {
+    public LoadConverter(PigContext pigContext, PhysicalPlan physicalPlan, SparkContext sparkContext,
+            JobConfBroadcast jobConfBroadcast, Map<OperatorKey, OperatorCounters> counters) {
         this.pigContext = pigContext;
         this.physicalPlan = physicalPlan;
         this.sparkContext = sparkContext;
+        this.jobConfBroadcast = jobConfBroadcast;
+        this.counters = counters;
     }
 
     @Override
@@ -54,24 +67,87 @@ public class LoadConverter implements POConverter<Tuple, Tuple, POLoad> {
 //            throw new RuntimeException("Should not have predecessors for Load. Got : "+predecessors);
 //        }
 
-        JobConf loadJobConf = SparkUtil.newJobConf(pigContext);
+        JobConf loadJobConf = SparkUtil.newJobConf(pigContext, jobConfBroadcast);
         configureLoader(physicalPlan, poLoad, loadJobConf);
+        if (feedsMerge(physicalPlan, poLoad)) {
+            // a partition must be a sorted split, as in the map tasks of merge joins and cogroups
+            loadJobConf.setBoolean("pig.noSplitCombination", true);
+        }
 
         // don't know why but just doing this cast for now
         RDD<Tuple2<Text, Tuple>> hadoopRDD = sparkContext.newAPIHadoopFile(
-                poLoad.getLFile().getFileName(), PigInputFormat.class,
+                poLoad.getLFile().getFileName(), SparkPigInputFormat.class,
                 Text.class, Tuple.class, loadJobConf);
 
         // map to get just RDD<Tuple>
-        return (RDD<Tuple>)hadoopRDD.map(TO_TUPLE_FUNCTION, SparkUtil.getManifest(Tuple.class));
+        return hadoopRDD.mapPartitions(
+                new ToTupleFunction(OperatorCounters.register(counters, poLoad, sparkContext)),
+                SparkUtil.getManifest(Tuple.class));
     }
 
-    private static class ToTupleFunction extends AbstractFunction1<Tuple2<Text, Tuple>, Tuple>
-            implements Function1<Tuple2<Text, Tuple>, Tuple>, Serializable {
+    /**
+     * Drops the keys, counting the tuples read and the time spent reading them.
+     */
+    private static class ToTupleFunction extends AbstractFunction1<Iterator<Tuple2<Text, Tuple>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final OperatorCounters counters;
+
+        private ToTupleFunction(OperatorCounters counters) {
+            this.counters = counters;
+        }
 
-        public Tuple apply(Tuple2<Text, Tuple> v1) {
-            return v1._2();
+        public Iterator<Tuple> apply(Iterator<Tuple2<Text, Tuple>> i) {
+            final java.util.Iterator<Tuple2<Text, Tuple>> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                @Override
+                public boolean hasNext() {
+                    if (counters == null) {
+                        return input.hasNext();
+                    }
+                    long start = System.nanoTime();
+                    boolean hasNext = input.hasNext();
+                    counters.add(0, System.nanoTime() - start);
+                    return hasNext;
+                }
+
+                @Override
+                public Tuple next() {
+                    if (counters == null) {
+                        return input.next()._2();
+                    }
+                    long start = System.nanoTime();
+                    Tuple tuple = input.next()._2();
+                    counters.add(1, System.nanoTime() - start);
+                    return tuple;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return whether op is read by a merge join or merge cogroup through narrow operators
+     */
+    private static boolean feedsMerge(PhysicalPlan physicalPlan, PhysicalOperator op) {
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(op);
+        if (successors == null) {
+            return false;
+        }
+        for (PhysicalOperator successor : successors) {
+            if (successor instanceof POMergeJoin || successor instanceof POMergeCogroup) {
+                return true;
+            }
+            if ((successor instanceof POForEach || successor instanceof POFilter
+                    || successor instanceof POPipeline) && feedsMerge(physicalPlan, successor)) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
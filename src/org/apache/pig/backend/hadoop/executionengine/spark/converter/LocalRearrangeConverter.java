@@ -3,43 +3,69 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
 
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
 
+/**
+ * Converter for POLocalRearrange and, when map-side combining is used, POPreCombinerLocalRearrange.
+ * Both produce exactly one output tuple per input tuple.
+ */
 @SuppressWarnings({ "serial"})
-public class LocalRearrangeConverter implements POConverter<Tuple, Tuple, POLocalRearrange> {
+public class LocalRearrangeConverter implements POConverter<Tuple, Tuple, PhysicalOperator> {
     private static final Log LOG = LogFactory.getLog(GlobalRearrangeConverter.class);
 
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    public LocalRearrangeConverter(Map<OperatorKey, OperatorCounters> counters) {
+        this.counters = counters;
+    }
+
     @Override
-    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POLocalRearrange physicalOperator)
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, PhysicalOperator physicalOperator)
             throws IOException {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
         // call local rearrange to get key and value
-        return rdd.map(new LocalRearrangeFunction(physicalOperator), SparkUtil.getManifest(Tuple.class));
+        return rdd.map(new LocalRearrangeFunction(physicalOperator,
+                OperatorCounters.register(counters, physicalOperator, rdd.context())), SparkUtil.getManifest(Tuple.class));
 
     }
 
     private static class LocalRearrangeFunction extends AbstractFunction1<Tuple, Tuple> implements Serializable {
 
-        private final POLocalRearrange physicalOperator;
+        private final PhysicalOperator physicalOperator;
+        private final OperatorCounters counters;
 
-        public LocalRearrangeFunction(POLocalRearrange physicalOperator) {
+        public LocalRearrangeFunction(PhysicalOperator physicalOperator, OperatorCounters counters) {
             this.physicalOperator = physicalOperator;
+            this.counters = counters;
         }
 
         @Override
         public Tuple apply(Tuple t) {
+            long start = counters == null ? 0 : System.nanoTime();
+            Tuple out = rearrange(t);
+            if (counters != null) {
+                counters.add(1, System.nanoTime() - start);
+            }
+            return out;
+        }
+
+        private Tuple rearrange(Tuple t) {
             Result result;
             try {
                 physicalOperator.setInputs(null);
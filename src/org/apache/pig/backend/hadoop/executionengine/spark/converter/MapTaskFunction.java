@@ -0,0 +1,127 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.UDFContext;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction2;
+import spark.SerializableWritable;
+
+/**
+ * Streams the tuples of a partition through an operator the way a map task runs its plan: the
+ * configuration of the job is available in PigMapReduce.sJobConfInternal and, as in
+ * PigGenericMapBase, the operator is run once more at the end of the input so that it emits what
+ * it still holds.
+ */
+@SuppressWarnings({ "serial"})
+class MapTaskFunction extends AbstractFunction2<Object, Iterator<Tuple>, Iterator<Tuple>>
+        implements Serializable {
+
+    private final PhysicalOperator physicalOperator;
+    private final SerializableWritable<JobConf> jobConf;
+
+    MapTaskFunction(PhysicalOperator physicalOperator, JobConf jobConf) {
+        this.physicalOperator = physicalOperator;
+        this.jobConf = new SerializableWritable<JobConf>(jobConf);
+    }
+
+    /**
+     * Called before the first tuple of the partition
+     * @param jobConf the configuration of the job, specific to this task
+     */
+    protected void initialize(int split, JobConf jobConf) {
+    }
+
+    @Override
+    public Iterator<Tuple> apply(Object split, Iterator<Tuple> i) {
+        final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+        try {
+            JobConfBroadcast.initialize(jobConf.value());
+            PigMapReduce.sJobConfInternal.set(jobConf.value());
+            UDFContext.getUDFContext().addJobConf(jobConf.value());
+            UDFContext.getUDFContext().deserialize();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the Pig context of the job", e);
+        }
+        final PhysicalPlan parentPlan = new PhysicalPlan();
+        physicalOperator.setParentPlan(parentPlan);
+        initialize((Integer)split, jobConf.value());
+
+        return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+
+            private Tuple next = null;
+            private boolean needInput = true;
+            private boolean done = false;
+
+            private void readNext() {
+                try {
+                    while (next == null && !done) {
+                        if (needInput) {
+                            if (input.hasNext()) {
+                                physicalOperator.setInputs(null);
+                                physicalOperator.attachInput(input.next());
+                            } else if (!parentPlan.endOfAllInput) {
+                                parentPlan.endOfAllInput = true;
+                            } else {
+                                done = true;
+                                break;
+                            }
+                            needInput = false;
+                        }
+                        Result result = physicalOperator.getNext((Tuple)null);
+                        switch (result.returnStatus) {
+                        case POStatus.STATUS_OK:
+                            next = (Tuple)result.result;
+                            break;
+                        case POStatus.STATUS_EOP:
+                            needInput = true;
+                            break;
+                        case POStatus.STATUS_NULL:
+                            break;
+                        case POStatus.STATUS_ERR:
+                        default:
+                            throw new RuntimeException("Unexpected response code from operator "
+                                    + physicalOperator + " : " + result);
+                        }
+                    }
+                } catch (ExecException e) {
+                    throw new RuntimeException("Error while running " + physicalOperator, e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                readNext();
+                return next != null;
+            }
+
+            @Override
+            public Tuple next() {
+                readNext();
+                if (next == null) {
+                    throw new java.util.NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeCogroup;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.python.google.common.collect.Lists;
+
+import spark.RDD;
+
+/**
+ * Converter for a merge cogroup of sorted inputs. There is no shuffle: every partition of the
+ * base input is streamed through POMergeCogroup, which reads the side inputs with their
+ * IndexableLoadFuncs from the first key of the partition up to the first key of the next one,
+ * found in an index of the base input.
+ */
+@SuppressWarnings({ "serial"})
+public class MergeCogroupConverter implements POConverter<Tuple, Tuple, POMergeCogroup> {
+
+    private final PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
+    private final PhysicalPlan physicalPlan;
+    private final MergeIndexBuilder indexBuilder;
+
+    public MergeCogroupConverter(PigContext pigContext, PhysicalPlan physicalPlan,
+            JobConfBroadcast jobConfBroadcast, MergeIndexBuilder indexBuilder) {
+        this.pigContext = pigContext;
+        this.physicalPlan = physicalPlan;
+        this.indexBuilder = indexBuilder;
+        this.jobConfBroadcast = jobConfBroadcast;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POMergeCogroup poMergeCogroup)
+            throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poMergeCogroup, 1);
+        List<PhysicalOperator> inputs = physicalPlan.getPredecessors(poMergeCogroup);
+
+        // the side inputs are read by the cogroup itself, as in MRCompiler
+        List<FuncSpec> sideLoadFuncs = Lists.newArrayList();
+        List<String> sideFileSpecs = Lists.newArrayList();
+        List<String> loaderSignatures = Lists.newArrayList();
+        for (PhysicalOperator side : inputs.subList(1, inputs.size())) {
+            if (!(side instanceof POLoad)) {
+                throw new IOException("Side inputs of merge cogroup " + poMergeCogroup + " must be loads");
+            }
+            POLoad sideLoad = (POLoad)side;
+            sideLoadFuncs.add(sideLoad.getLFile().getFuncSpec());
+            sideFileSpecs.add(sideLoad.getLFile().getFileName());
+            loaderSignatures.add(sideLoad.getSignature());
+        }
+        poMergeCogroup.setSideLoadFuncs(sideLoadFuncs);
+        poMergeCogroup.setSideFileSpecs(sideFileSpecs);
+        poMergeCogroup.setLoaderSignatures(loaderSignatures);
+
+        PhysicalOperator base = inputs.get(0);
+        POLoad baseLoad = MergeIndexBuilder.getLoad(physicalPlan, base);
+        if (baseLoad == null) {
+            throw new IOException("Base input of merge cogroup " + poMergeCogroup + " must be read from a load");
+        }
+        poMergeCogroup.setIdxFuncSpec(MergeIndexBuilder.getIndexFuncSpec());
+        poMergeCogroup.setIndexFileName(indexBuilder.indexLater(baseLoad, base,
+                poMergeCogroup.getLRInnerPlansOf(0), false));
+
+        return predecessors.get(0).mapPartitionsWithSplit(
+                new MergeCogroupFunction(poMergeCogroup, SparkUtil.newJobConf(pigContext, jobConfBroadcast)),
+                false, SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * The partitions of the base input are its splits, they are matched with the index by
+     * their position.
+     */
+    private static class MergeCogroupFunction extends MapTaskFunction {
+
+        private final POMergeCogroup poMergeCogroup;
+
+        private MergeCogroupFunction(POMergeCogroup poMergeCogroup, JobConf jobConf) {
+            super(poMergeCogroup, jobConf);
+            this.poMergeCogroup = poMergeCogroup;
+        }
+
+        @Override
+        protected void initialize(int split, JobConf jobConf) {
+            poMergeCogroup.setSplitIndex(split);
+        }
+    }
+}
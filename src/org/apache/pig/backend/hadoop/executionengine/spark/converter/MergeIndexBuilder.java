@@ -0,0 +1,210 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MergeJoinIndexer;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.io.InterStorage;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.python.google.common.collect.Lists;
+import org.python.google.common.collect.Maps;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.CoalescedRDD;
+import spark.PairRDDFunctions;
+import spark.RDD;
+import spark.SparkContext;
+
+/**
+ * Builds the index of a sorted input of a merge join or merge cogroup, like the indexing job of
+ * MRCompiler: MergeJoinIndexer reads the first key of every split, and the entries are sorted in
+ * a single partition and written with InterStorage. The indexes are written by jobs of their own,
+ * run by the launch once the plan is converted, see {@link #writePending()}.
+ */
+@SuppressWarnings({ "serial"})
+public class MergeIndexBuilder {
+
+    private static final Log LOG = LogFactory.getLog(MergeIndexBuilder.class);
+
+    private static final SortFunction SORT_FUNCTION = new SortFunction();
+    private static final FromTupleFunction FROM_TUPLE_FUNCTION = new FromTupleFunction();
+
+    private final PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
+    private final PhysicalPlan physicalPlan;
+    private final SparkContext sparkContext;
+
+    // the entries of the indexes to write, by path
+    private final Map<String, RDD<Tuple2<Text, Tuple>>> pendingIndexes = Maps.newLinkedHashMap();
+    private final Map<String, JobConf> pendingJobConfs = Maps.newHashMap();
+
+    public MergeIndexBuilder(PigContext pigContext, PhysicalPlan physicalPlan, SparkContext sparkContext,
+            JobConfBroadcast jobConfBroadcast) {
+        this.pigContext = pigContext;
+        this.physicalPlan = physicalPlan;
+        this.sparkContext = sparkContext;
+        this.jobConfBroadcast = jobConfBroadcast;
+    }
+
+    /**
+     * @return the POLoad input is read from through single input operators, or null if there is
+     * none
+     */
+    static POLoad getLoad(PhysicalPlan plan, PhysicalOperator input) {
+        PhysicalOperator op = input;
+        while (!(op instanceof POLoad)) {
+            List<PhysicalOperator> predecessors = plan.getPredecessors(op);
+            if (predecessors == null || predecessors.size() != 1) {
+                return null;
+            }
+            op = predecessors.get(0);
+        }
+        return (POLoad)op;
+    }
+
+    /**
+     * @return a copy of the operators between load and input, input included, or null if input
+     * is the load itself
+     */
+    PhysicalPlan getPipelinePlan(POLoad load, PhysicalOperator input) throws IOException {
+        List<PhysicalOperator> chain = Lists.newArrayList();
+        for (PhysicalOperator op = input; op != load; op = physicalPlan.getPredecessors(op).get(0)) {
+            if (op instanceof POPipeline) {
+                chain.addAll(0, ((POPipeline)op).getOperators());
+            } else {
+                chain.add(0, op);
+            }
+        }
+        if (chain.isEmpty()) {
+            return null;
+        }
+
+        PhysicalPlan pipelinePlan = new PhysicalPlan();
+        PhysicalOperator previous = null;
+        try {
+            for (PhysicalOperator op : chain) {
+                PhysicalOperator copy = op.clone();
+                pipelinePlan.add(copy);
+                if (previous == null) {
+                    copy.setInputs(null);
+                } else {
+                    pipelinePlan.connect(previous, copy);
+                }
+                previous = copy;
+            }
+        } catch (CloneNotSupportedException e) {
+            throw new IOException("Could not copy the operators before the merge on " + input, e);
+        } catch (PlanException e) {
+            throw new IOException("Could not copy the operators before the merge on " + input, e);
+        }
+        return pipelinePlan;
+    }
+
+    /**
+     * Plans the index of the input read from load through the operators up to input, written by
+     * {@link #writePending()}.
+     * @param keyPlans the plans of the merge keys
+     * @param ignoreNullKeys whether tuples with a null key are left out of the index
+     * @return the fully qualified path of the index, to be read with InterStorage
+     */
+    synchronized String indexLater(POLoad load, PhysicalOperator input, List<PhysicalPlan> keyPlans,
+            boolean ignoreNullKeys) throws IOException {
+        String scope = load.getOperatorKey().scope;
+        String[] indexerArgs = new String[6];
+        indexerArgs[0] = load.getLFile().getFuncSpec().toString();
+        indexerArgs[1] = ObjectSerializer.serialize((Serializable)keyPlans);
+        indexerArgs[2] = ObjectSerializer.serialize(getPipelinePlan(load, input));
+        indexerArgs[3] = load.getSignature();
+        indexerArgs[4] = scope;
+        indexerArgs[5] = Boolean.toString(ignoreNullKeys);
+
+        POLoad indexer = new POLoad(new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)),
+                new FileSpec(load.getLFile().getFileName(),
+                        new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs)));
+        indexer.setSignature(load.getSignature());
+        RDD<Tuple> entries = new LoadConverter(pigContext, physicalPlan, sparkContext, jobConfBroadcast, null)
+                .convert(Lists.<RDD<Tuple>>newArrayList(), indexer);
+
+        // entries are (key..., position, splitIndex): sorting whole tuples sorts them by key
+        RDD<Tuple> sortedEntries = new CoalescedRDD<Tuple>(entries, 1, SparkUtil.getManifest(Tuple.class))
+                .mapPartitions(SORT_FUNCTION, SparkUtil.getManifest(Tuple.class));
+
+        JobConf jobConf = SparkUtil.newJobConf(pigContext, jobConfBroadcast);
+        Path indexPath = FileLocalizer.getTemporaryPath(pigContext);
+        indexPath = indexPath.getFileSystem(jobConf).makeQualified(indexPath);
+        LOG.info("Indexing " + load.getLFile().getFileName() + " into " + indexPath);
+        RDD<Tuple2<Text, Tuple>> pairs = sortedEntries.map(FROM_TUPLE_FUNCTION,
+                SparkUtil.<Text, Tuple>getTuple2Manifest());
+        pendingIndexes.put(indexPath.toString(), pairs);
+        pendingJobConfs.put(indexPath.toString(), jobConf);
+        return indexPath.toString();
+    }
+
+    /**
+     * Writes the indexes planned by the conversion, one job each. Must be called before the jobs
+     * reading the merged inputs.
+     */
+    public synchronized void writePending() {
+        for (Map.Entry<String, RDD<Tuple2<Text, Tuple>>> pendingIndex : pendingIndexes.entrySet()) {
+            String indexPath = pendingIndex.getKey();
+            LOG.info("Writing the merge index " + indexPath);
+            new PairRDDFunctions<Text, Tuple>(pendingIndex.getValue(), SparkUtil.getManifest(Text.class),
+                    SparkUtil.getManifest(Tuple.class)).saveAsNewAPIHadoopFile(indexPath,
+                    Text.class, Tuple.class, InterStorage.InterOutputFormat.class,
+                    pendingJobConfs.get(indexPath));
+        }
+        pendingIndexes.clear();
+        pendingJobConfs.clear();
+    }
+
+    static FuncSpec getIndexFuncSpec() {
+        return new FuncSpec(InterStorage.class.getName());
+    }
+
+    private static class SortFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            List<Tuple> tuples = Lists.newArrayList(JavaConversions.asJavaIterator(i));
+            Collections.sort(tuples);
+            return JavaConversions.asScalaIterator(tuples.iterator());
+        }
+    }
+
+    private static class FromTupleFunction extends AbstractFunction1<Tuple, Tuple2<Text, Tuple>>
+            implements Serializable {
+
+        private static Text EMPTY_TEXT = new Text();
+
+        public Tuple2<Text, Tuple> apply(Tuple v1) {
+            return new Tuple2<Text, Tuple>(EMPTY_TEXT, v1);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.FuncSpec;
+import org.apache.pig.IndexableLoadFunc;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.DefaultIndexableLoader;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+
+import spark.RDD;
+
+/**
+ * Converter for a merge join of sorted inputs. There is no shuffle: every partition of the left
+ * input is streamed through POMergeJoin, which seeks in the right input with an index of its
+ * first keys, built beforehand unless the right loader is an IndexableLoadFunc.
+ */
+public class MergeJoinConverter implements POConverter<Tuple, Tuple, POMergeJoin> {
+
+    private final PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
+    private final PhysicalPlan physicalPlan;
+    private final MergeIndexBuilder indexBuilder;
+
+    public MergeJoinConverter(PigContext pigContext, PhysicalPlan physicalPlan,
+            JobConfBroadcast jobConfBroadcast, MergeIndexBuilder indexBuilder) {
+        this.pigContext = pigContext;
+        this.physicalPlan = physicalPlan;
+        this.indexBuilder = indexBuilder;
+        this.jobConfBroadcast = jobConfBroadcast;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POMergeJoin poMergeJoin)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poMergeJoin, 2);
+        PhysicalOperator right = physicalPlan.getPredecessors(poMergeJoin).get(1);
+        POLoad rightLoad = MergeIndexBuilder.getLoad(physicalPlan, right);
+        if (rightLoad == null) {
+            throw new IOException("Right input of merge join " + poMergeJoin + " must be read from a load");
+        }
+
+        // the join reads the right input itself, from the loader and through the operators
+        // the right RDD would have been computed with
+        try {
+            poMergeJoin.setupRightPipeline(indexBuilder.getPipelinePlan(rightLoad, right));
+        } catch (FrontendException e) {
+            throw new IOException("Could not set up the right input of " + poMergeJoin, e);
+        }
+        poMergeJoin.setSignature(rightLoad.getSignature());
+        poMergeJoin.setRightInputFileName(rightLoad.getLFile().getFileName());
+        if (rightLoad.getLoadFunc() instanceof IndexableLoadFunc) {
+            poMergeJoin.setRightLoaderFuncSpec(rightLoad.getLFile().getFuncSpec());
+            poMergeJoin.setIndexFile(null);
+        } else {
+            String indexFile = indexBuilder.indexLater(rightLoad, right,
+                    poMergeJoin.getLRInnerPlansOf(1), true);
+            String[] defaultIndexableLoaderArgs = new String[5];
+            defaultIndexableLoaderArgs[0] = rightLoad.getLFile().getFuncSpec().toString();
+            defaultIndexableLoaderArgs[1] = indexFile;
+            defaultIndexableLoaderArgs[2] = MergeIndexBuilder.getIndexFuncSpec().toString();
+            defaultIndexableLoaderArgs[3] = poMergeJoin.getOperatorKey().scope;
+            defaultIndexableLoaderArgs[4] = rightLoad.getLFile().getFileName();
+            poMergeJoin.setRightLoaderFuncSpec(new FuncSpec(DefaultIndexableLoader.class.getName(),
+                    defaultIndexableLoaderArgs));
+            poMergeJoin.setIndexFile(indexFile);
+        }
+
+        return predecessors.get(0).mapPartitionsWithSplit(
+                new MapTaskFunction(poMergeJoin, SparkUtil.newJobConf(pigContext, jobConfBroadcast)),
+                false, SparkUtil.getManifest(Tuple.class));
+    }
+}
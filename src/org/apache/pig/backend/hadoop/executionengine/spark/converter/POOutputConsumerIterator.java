@@ -3,17 +3,27 @@ package org.apache.pig.backend.hadoop.executionengine.spark.converter;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.data.Tuple;
 
 abstract class POOutputConsumerIterator implements
         java.util.Iterator<Tuple> {
     private final java.util.Iterator<Tuple> input;
+    // null if the operator is not counted
+    private final OperatorCounters counters;
     private Result result = null;
     private boolean returned = true;
     private boolean finished = false;
+    // time spent in the operator since the last tuple was counted, reading the input excluded
+    private long nanos = 0;
 
     POOutputConsumerIterator(java.util.Iterator<Tuple> input) {
+        this(input, null);
+    }
+
+    POOutputConsumerIterator(java.util.Iterator<Tuple> input, OperatorCounters counters) {
         this.input = input;
+        this.counters = counters;
     }
 
     abstract protected void attach(Tuple tuple);
@@ -29,16 +39,28 @@ abstract class POOutputConsumerIterator implements
             if (result == null) {
                 if (!input.hasNext()) {
                     finished = true;
+                    if (counters != null) {
+                        counters.add(0, nanos);
+                        nanos = 0;
+                    }
                     return;
                 }
                 Tuple v1 = input.next();
+                long start = System.nanoTime();
                 attach(v1);
+                nanos += System.nanoTime() - start;
             }
+            long start = System.nanoTime();
             result = getNextResult();
+            nanos += System.nanoTime() - start;
             returned = false;
             switch (result.returnStatus) {
             case POStatus.STATUS_OK:
                 returned = false;
+                if (counters != null) {
+                    counters.add(1, nanos);
+                    nanos = 0;
+                }
                 break;
             case POStatus.STATUS_NULL:
                 returned = true; // skip: see PigGenericMapBase
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,10 +12,12 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.io.NullableTuple;
 import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.plan.OperatorKey;
 
 import scala.runtime.AbstractFunction1;
 import spark.RDD;
@@ -23,25 +26,44 @@ import spark.RDD;
 public class PackageConverter implements POConverter<Tuple, Tuple, POPackage> {
     private static final Log LOG = LogFactory.getLog(PackageConverter.class);
 
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    public PackageConverter(Map<OperatorKey, OperatorCounters> counters) {
+        this.counters = counters;
+    }
+
     @Override
     public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POPackage physicalOperator)
             throws IOException {
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
         // package will generate the group from the result of the local rearrange
-        return rdd.map(new PackageFunction(physicalOperator), SparkUtil.getManifest(Tuple.class));
+        return rdd.map(new PackageFunction(physicalOperator,
+                OperatorCounters.register(counters, physicalOperator, rdd.context())), SparkUtil.getManifest(Tuple.class));
     }
 
     private static class PackageFunction extends AbstractFunction1<Tuple, Tuple> implements Serializable {
 
         private final POPackage physicalOperator;
+        private final OperatorCounters counters;
 
-        public PackageFunction(POPackage physicalOperator) {
+        public PackageFunction(POPackage physicalOperator, OperatorCounters counters) {
             this.physicalOperator = physicalOperator;
+            this.counters = counters;
         }
 
         @Override
-        public Tuple apply(final Tuple t) {
+        public Tuple apply(Tuple t) {
+            long start = counters == null ? 0 : System.nanoTime();
+            Tuple out = pack(t);
+            if (counters != null) {
+                counters.add(out == null ? 0 : 1, System.nanoTime() - start);
+            }
+            return out;
+        }
+
+        private Tuple pack(final Tuple t) {
             // (key, Seq<Tuple>:{(index, key, value without key)})
             if (LOG.isDebugEnabled())
                 LOG.debug("PackageFunction in "+t);
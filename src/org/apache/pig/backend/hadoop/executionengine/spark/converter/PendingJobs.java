@@ -0,0 +1,33 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.util.List;
+
+import org.python.google.common.collect.Lists;
+
+/**
+ * The jobs some converters need run before the jobs reading what they converted: collecting and
+ * broadcasting the replicated inputs of replicated joins and CROSSes, sampling the inputs of ORDER
+ * BYs and skewed joins. The converters queue them instead of running them while the plan is
+ * converted, and the launch runs them once it is. They are run in conversion order, so a job
+ * reading the output of an earlier converter, a replicated input that is sorted for example, runs
+ * after the jobs that converter queued.
+ */
+public class PendingJobs {
+
+    private final List<Runnable> jobs = Lists.newArrayList();
+
+    public synchronized void add(Runnable job) {
+        jobs.add(job);
+    }
+
+    /**
+     * Runs the queued jobs, one after the other. Must be called before the jobs reading the
+     * converted plan.
+     */
+    public synchronized void run() {
+        for (Runnable job : jobs) {
+            job.run();
+        }
+        jobs.clear();
+    }
+}
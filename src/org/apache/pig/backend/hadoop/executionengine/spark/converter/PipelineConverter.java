@@ -0,0 +1,70 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.RDD;
+
+/**
+ * Converter for operators fused by OperatorFusionOptimizer: the whole chain runs in a single
+ * mapPartitions, without intermediate RDDs.
+ */
+@SuppressWarnings({ "serial"})
+public class PipelineConverter implements POConverter<Tuple, Tuple, POPipeline> {
+
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    public PipelineConverter(Map<OperatorKey, OperatorCounters> counters) {
+        this.counters = counters;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POPipeline pipeline)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, pipeline, 1);
+        RDD<Tuple> rdd = predecessors.get(0);
+        return rdd.mapPartitions(new PipelineFunction(pipeline,
+                OperatorCounters.register(counters, pipeline, rdd.context())), SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static class PipelineFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final POPipeline pipeline;
+        private final OperatorCounters counters;
+
+        private PipelineFunction(POPipeline pipeline, OperatorCounters counters) {
+            this.pipeline = pipeline;
+            this.counters = counters;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> i) {
+            final java.util.Iterator<Tuple> input = JavaConversions.asJavaIterator(i);
+            return JavaConversions.asScalaIterator(new POOutputConsumerIterator(input, counters) {
+                protected void attach(Tuple tuple) {
+                    pipeline.setInputs(null);
+                    pipeline.attachInput(tuple);
+                }
+
+                protected Result getNextResult() throws ExecException {
+                    return pipeline.getNext((Tuple)null);
+                }
+            });
+        }
+    }
+}
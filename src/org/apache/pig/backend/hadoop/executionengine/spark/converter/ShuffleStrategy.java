@@ -0,0 +1,40 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+/**
+ * How a converter brings the input of a shuffle operator together. The converters that have a
+ * choice pick it with the same static method SparkCompiler records it on the stage with, so that
+ * EXPLAIN prints what is run.
+ */
+public enum ShuffleStrategy {
+    FULL("full", "HashPartitioner"),
+    COMBINED("with map-side combine", "HashPartitioner"),
+    SORTED_GROUPS("groups read off sorted partitions", "HashPartitioner"),
+    TREE_AGGREGATION("tree aggregation", "HashPartitioner, down to a single partition level by level"),
+    SINGLE_GROUP("single group, streamed", "HashPartitioner, single partition"),
+    RANGE("sampled, sorted per partition", "WeightedRangePartitioner"),
+    TOP_K("top-K per partition, merged in a single partition", "HashPartitioner, single partition"),
+    LIMIT("limited per partition, merged in order in a single partition",
+            "HashPartitioner, single partition"),
+    DISTINCT("with map-side distinct", "HashPartitioner"),
+    SKEWED_JOIN("skewed keys spread", "SkewedJoinPartitioner"),
+    BROADCAST("smaller input broadcast", "none, broadcast"),
+    CARTESIAN("cartesian product", "none, every pair of partitions"),
+    BROADCAST_AND_CARTESIAN("smaller inputs broadcast, others as a cartesian product",
+            "none, broadcast or every pair of partitions");
+
+    private final String description;
+    private final String partitioner;
+
+    private ShuffleStrategy(String description, String partitioner) {
+        this.description = description;
+        this.partitioner = partitioner;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getPartitioner() {
+        return partitioner;
+    }
+}
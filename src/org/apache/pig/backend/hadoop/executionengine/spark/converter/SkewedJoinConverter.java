@@ -0,0 +1,554 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.builtin.PartitionSkewedKeys;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.python.google.common.collect.Lists;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.collection.Seq;
+import scala.runtime.AbstractFunction1;
+import spark.CoGroupedRDD;
+import spark.Partitioner;
+import spark.RDD;
+import spark.storage.StorageLevel;
+
+/**
+ * Converter for the skewed join. The left input is sampled as PoissonSampleLoader does and the
+ * samples are given to PartitionSkewedKeys, which finds the keys too large for one partition and
+ * assigns them a range of partitions. The rows of such a key are then spread over its range on
+ * the left side and replicated to every partition of the range on the right side, while the
+ * other keys are hash partitioned as usual. The samples are collected by the launch once the plan
+ * is converted, see {@link PendingJobs}. The left input is persisted for the launch, so that the
+ * sampling job does not compute it a second time for the join.
+ */
+@SuppressWarnings({ "serial"})
+public class SkewedJoinConverter implements POConverter<Tuple, Tuple, POSkewedJoin> {
+
+    private static final Log LOG = LogFactory.getLog(SkewedJoinConverter.class);
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    // same settings as the MapReduce skewed join
+    private static final String SAMPLE_RATE = "pig.sksampler.samplerate";
+    private static final String PERC_MEM_AVAIL = "pig.skewedjoin.reduce.memusage";
+    private static final String MAX_TUPLES = "pig.skewedjoin.reduce.maxtuple";
+    private static final int DEFAULT_SAMPLE_RATE = 17;
+
+    private final PigContext pigContext;
+    private final PendingJobs pendingJobs;
+    // the RDDs persisted by the launch, unpersisted at its end
+    private final List<RDD<Tuple>> persisted;
+
+    public SkewedJoinConverter(PigContext pigContext, PendingJobs pendingJobs, List<RDD<Tuple>> persisted) {
+        this.pigContext = pigContext;
+        this.pendingJobs = pendingJobs;
+        this.persisted = persisted;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, final POSkewedJoin poSkewedJoin)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poSkewedJoin, 2);
+        final int parallelism = SparkUtil.getParallelism(predecessors, poSkewedJoin);
+        Properties properties = pigContext.getProperties();
+        final String memUsage = properties.getProperty(PERC_MEM_AVAIL,
+                String.valueOf(PartitionSkewedKeys.DEFAULT_PERCENT_MEMUSAGE));
+        final String maxTuples = properties.getProperty(MAX_TUPLES, "0");
+        final int sampleRate = Integer.parseInt(properties.getProperty(SAMPLE_RATE,
+                String.valueOf(DEFAULT_SAMPLE_RATE)));
+
+        List<PhysicalOperator> inputs = poSkewedJoin.getInputs();
+        final int keyFieldCount = getJoinPlans(poSkewedJoin, inputs.get(0)).size();
+        RDD<Tuple> leftInput = predecessors.get(0);
+        if (leftInput.getStorageLevel().equals(StorageLevel.NONE())) {
+            leftInput.cache();
+            persisted.add(leftInput);
+        }
+        final RDD<Tuple2<Object, Tuple>> left = leftInput.map(
+                new ToKeyTupleFunction(newLocalRearrange(poSkewedJoin, inputs.get(0), 0)),
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+        RDD<Tuple2<Object, Tuple>> right = predecessors.get(1).map(
+                new ToKeyTupleFunction(newLocalRearrange(poSkewedJoin, inputs.get(1), 1)),
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+
+        final SkewedJoinPartitioner partitioner = new SkewedJoinPartitioner(parallelism);
+        pendingJobs.add(new Runnable() {
+            @Override
+            public void run() {
+                // find the skewed keys of the left input
+                Tuple[] samples = (Tuple[])left.mapPartitions(
+                        new SampleFunction(Double.parseDouble(memUsage), sampleRate, keyFieldCount),
+                        SparkUtil.getManifest(Tuple.class)).collect();
+                try {
+                    partitioner.skewedKeys = getSkewedKeys(samples, parallelism, keyFieldCount,
+                            new String[] { memUsage, maxTuples, poSkewedJoin.getOperatorKey().toString() });
+                } catch (IOException e) {
+                    throw new RuntimeException("Couldn't find the skewed keys of " + poSkewedJoin, e);
+                }
+                LOG.info("Found " + partitioner.skewedKeys.size() + " skewed keys in " + samples.length
+                        + " samples");
+            }
+        });
+        List<RDD<Tuple2<Tuple, Tuple>>> rddPairs = Lists.newArrayList();
+        rddPairs.add(left.mapPartitions(new SpreadFunction(partitioner, 0, false),
+                SparkUtil.<Tuple, Tuple>getTuple2Manifest()));
+        rddPairs.add(right.mapPartitions(new SpreadFunction(partitioner, 1, true),
+                SparkUtil.<Tuple, Tuple>getTuple2Manifest()));
+
+        // sizes of the null tuples of the outer inputs
+        boolean[] innerFlags = poSkewedJoin.getInnerFlags();
+        int[] nullTupleSizes = new int[2];
+        for (int i = 0; i < 2; i++) {
+            nullTupleSizes[i] = innerFlags[i] ? -1 : poSkewedJoin.getSchema(i).size();
+        }
+
+        CoGroupedRDD<Object> coGroupedRDD = new CoGroupedRDD<Object>(
+                (Seq<RDD<Tuple2<?, ?>>>)(Object)JavaConversions.asScalaBuffer(rddPairs),
+                partitioner);
+        RDD<Tuple2<Object,Seq<Seq<Tuple>>>> rdd = (RDD<Tuple2<Object,Seq<Seq<Tuple>>>>)(Object)coGroupedRDD;
+        return rdd.mapPartitions(new JoinFunction(partitioner, nullTupleSizes),
+                SparkUtil.getManifest(Tuple.class));
+    }
+
+    /**
+     * @return the plans of the join keys of input, which may have been fused in a POPipeline
+     */
+    private static List<PhysicalPlan> getJoinPlans(POSkewedJoin poSkewedJoin, PhysicalOperator input) {
+        if (input instanceof POPipeline) {
+            List<PhysicalOperator> operators = ((POPipeline)input).getOperators();
+            input = operators.get(operators.size() - 1);
+        }
+        return poSkewedJoin.getJoinPlans().get(input);
+    }
+
+    /**
+     * @return a POLocalRearrange computing the join key of input, set up like MRCompiler does
+     */
+    private static POLocalRearrange newLocalRearrange(POSkewedJoin poSkewedJoin,
+            PhysicalOperator input, int index) throws IOException {
+        String scope = poSkewedJoin.getOperatorKey().getScope();
+        POLocalRearrange lr = new POLocalRearrange(new OperatorKey(scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        List<PhysicalPlan> plans = getJoinPlans(poSkewedJoin, input);
+        try {
+            lr.setIndex(index);
+            lr.setPlans(plans);
+        } catch (PlanException e) {
+            throw new IOException("Could not set the join plans of " + poSkewedJoin, e);
+        }
+        byte type = DataType.TUPLE;
+        if (plans.size() == 1) {
+            type = plans.get(0).getLeaves().get(0).getResultType();
+        }
+        lr.setKeyType(type);
+        lr.setResultType(DataType.TUPLE);
+        return lr;
+    }
+
+    /**
+     * Sorts the samples by key and runs PartitionSkewedKeys over them.
+     * @return the first and last partitions of every skewed key
+     */
+    private static Map<Object, int[]> getSkewedKeys(Tuple[] samples, int parallelism,
+            final int keyFieldCount, String[] partitionerArgs) throws IOException {
+        List<Tuple> sortedSamples = Lists.newArrayList(samples);
+        Collections.sort(sortedSamples, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple t1, Tuple t2) {
+                try {
+                    for (int i = 0; i < keyFieldCount; i++) {
+                        int c = DataType.compare(t1.get(i), t2.get(i));
+                        if (c != 0) {
+                            return c;
+                        }
+                    }
+                    return 0;
+                } catch (ExecException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        Tuple input = tf.newTuple(2);
+        input.set(0, parallelism);
+        input.set(1, BagFactory.getInstance().newDefaultBag(sortedSamples));
+        Map<String, Object> partitions = new PartitionSkewedKeys(partitionerArgs).exec(input);
+
+        Map<Object, int[]> skewedKeys = new HashMap<Object, int[]>();
+        if (partitions == null) {
+            return skewedKeys;
+        }
+        for (Tuple partition : (Iterable<Tuple>)partitions.get(PartitionSkewedKeys.PARTITION_LIST)) {
+            // (key fields, min index, max index)
+            Object key;
+            if (keyFieldCount == 1) {
+                key = partition.get(0);
+            } else {
+                Tuple keyTuple = tf.newTuple(keyFieldCount);
+                for (int i = 0; i < keyFieldCount; i++) {
+                    keyTuple.set(i, partition.get(i));
+                }
+                key = keyTuple;
+            }
+            skewedKeys.put(key, new int[] { (Integer)partition.get(keyFieldCount),
+                    (Integer)partition.get(keyFieldCount + 1) });
+        }
+        return skewedKeys;
+    }
+
+    private static class ToKeyTupleFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>>
+            implements Serializable {
+
+        private final POLocalRearrange lr;
+
+        private ToKeyTupleFunction(POLocalRearrange lr) {
+            this.lr = lr;
+        }
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            try {
+                lr.setInputs(null);
+                lr.attachInput(t);
+                Result result = lr.getNext((Tuple)null);
+                if (result.returnStatus != POStatus.STATUS_OK) {
+                    throw new RuntimeException("Unexpected response code from operator " + lr + " : " + result);
+                }
+                // (index, key, value): keep the whole tuple as the value
+                return new Tuple2<Object, Tuple>(((Tuple)result.result).get(1), t);
+            } catch (ExecException e) {
+                throw new RuntimeException("Couldn't compute the join key of tuple: " + t, e);
+            }
+        }
+    }
+
+    /**
+     * Samples the (key, tuple) pairs of a partition like PoissonSampleLoader: a sample is taken
+     * every time enough memory has been skipped, so that a partition holding a key can be
+     * detected. Produces (key fields, memory size, 0) tuples, the last one holding the number of
+     * rows of the partition instead of 0, which is what PartitionSkewedKeys expects.
+     */
+    private static class SampleFunction
+            extends AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final double heapPercentage;
+        private final int sampleRate;
+        private final int keyFieldCount;
+
+        private SampleFunction(double heapPercentage, int sampleRate, int keyFieldCount) {
+            this.heapPercentage = heapPercentage;
+            this.sampleRate = sampleRate;
+            this.keyFieldCount = keyFieldCount;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Object, Tuple>> input) {
+            long memToSkipPerSample = (long)(Runtime.getRuntime().maxMemory() * heapPercentage) / sampleRate;
+            List<Tuple> samples = new ArrayList<Tuple>();
+            long rowNum = 0;
+            long skipped = 0;
+            long skipInterval = 0;
+            long avgTupleMemSize = 0;
+            int numRowsSampled = 0;
+            try {
+                while (input.hasNext()) {
+                    Tuple2<Object, Tuple> pair = input.next();
+                    ++rowNum;
+                    if (rowNum > 1 && skipped < skipInterval) {
+                        ++skipped;
+                        continue;
+                    }
+                    long memSize = pair._2().getMemorySize();
+                    samples.add(newSample(pair._1(), memSize));
+                    skipped = 0;
+
+                    avgTupleMemSize = (avgTupleMemSize * numRowsSampled + memSize) / (numRowsSampled + 1);
+                    skipInterval = memToSkipPerSample / Math.max(1, avgTupleMemSize);
+                    // sample more the first few times, see PoissonSampleLoader
+                    if (numRowsSampled < 5) {
+                        skipInterval = skipInterval / (10 - numRowsSampled);
+                    }
+                    ++numRowsSampled;
+                }
+                if (!samples.isEmpty()) {
+                    Tuple last = samples.get(samples.size() - 1);
+                    last.set(last.size() - 1, rowNum);
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            return JavaConversions.asScalaIterator(samples.iterator());
+        }
+
+        private Tuple newSample(Object key, long memSize) throws ExecException {
+            Tuple sample = tf.newTuple(keyFieldCount + 2);
+            if (keyFieldCount == 1) {
+                sample.set(0, key);
+            } else {
+                for (int i = 0; i < keyFieldCount; i++) {
+                    sample.set(i, key == null ? null : ((Tuple)key).get(i));
+                }
+            }
+            sample.set(keyFieldCount, memSize);
+            sample.set(keyFieldCount + 1, 0L);
+            return sample;
+        }
+    }
+
+    /**
+     * Partitions on (key, index) tuples: a skewed key goes to the index-th partition of its
+     * range, like SkewedPartitioner does in MapReduce, and the other keys are hashed.
+     */
+    private static class SkewedJoinPartitioner extends Partitioner {
+
+        private final int numPartitions;
+        // set once the left input is sampled, before the partitioner is shipped
+        private Map<Object, int[]> skewedKeys = null;
+
+        private SkewedJoinPartitioner(int numPartitions) {
+            this.numPartitions = numPartitions;
+        }
+
+        @Override
+        public int numPartitions() {
+            return numPartitions;
+        }
+
+        private void checkSampled() {
+            if (skewedKeys == null) {
+                throw new IllegalStateException("The left input of the skewed join was not sampled");
+            }
+        }
+
+        /**
+         * @return the number of partitions the rows of key are spread over
+         */
+        private int getSpread(Object key) {
+            checkSampled();
+            int[] range = key == null ? null : skewedKeys.get(key);
+            if (range == null) {
+                return 1;
+            }
+            return (range[1] - range[0] + numPartitions) % numPartitions + 1;
+        }
+
+        @Override
+        public int getPartition(Object o) {
+            checkSampled();
+            try {
+                Tuple keyIndex = (Tuple)o;
+                Object key = keyIndex.get(0);
+                int index = (Integer)keyIndex.get(1);
+                int[] range = key == null ? null : skewedKeys.get(key);
+                if (range != null) {
+                    return (range[0] + index) % numPartitions;
+                }
+                int hashCode = key == null ? index : key.hashCode();
+                return (hashCode & Integer.MAX_VALUE) % numPartitions;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Turns the (key, tuple) pairs of an input into ((key, index), tuple) pairs. The rows of a
+     * skewed key are given the indexes of its range in turn, or all of them when replicate is
+     * set. Null keys never match, so they get an index of their own per input.
+     */
+    private static class SpreadFunction
+            extends AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple2<Tuple, Tuple>>>
+            implements Serializable {
+
+        private final SkewedJoinPartitioner partitioner;
+        private final int inputIndex;
+        private final boolean replicate;
+
+        private SpreadFunction(SkewedJoinPartitioner partitioner, int inputIndex, boolean replicate) {
+            this.partitioner = partitioner;
+            this.inputIndex = inputIndex;
+            this.replicate = replicate;
+        }
+
+        @Override
+        public Iterator<Tuple2<Tuple, Tuple>> apply(final Iterator<Tuple2<Object, Tuple>> input) {
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple2<Tuple, Tuple>>() {
+                // next index of every skewed key, starting at a random one in each task
+                private final Map<Object, Integer> nextIndexes = new HashMap<Object, Integer>();
+                private final Random random = new Random();
+                private Tuple2<Object, Tuple> current = null;
+                private int copies = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return copies > 0 || input.hasNext();
+                }
+
+                @Override
+                public Tuple2<Tuple, Tuple> next() {
+                    if (copies == 0) {
+                        current = input.next();
+                        Object key = current._1();
+                        if (key == null) {
+                            return pair(key, -1 - inputIndex);
+                        }
+                        int spread = partitioner.getSpread(key);
+                        if (spread == 1) {
+                            return pair(key, 0);
+                        }
+                        if (replicate) {
+                            copies = spread;
+                        } else {
+                            Integer index = nextIndexes.get(key);
+                            index = index == null ? random.nextInt(spread) : (index + 1) % spread;
+                            nextIndexes.put(key, index);
+                            return pair(key, index);
+                        }
+                    }
+                    --copies;
+                    return pair(current._1(), copies);
+                }
+
+                private Tuple2<Tuple, Tuple> pair(Object key, int index) {
+                    Tuple keyIndex = tf.newTuple(2);
+                    try {
+                        keyIndex.set(0, key);
+                        keyIndex.set(1, index);
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return new Tuple2<Tuple, Tuple>(keyIndex, current._2());
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+
+    /**
+     * Produces the joined tuples of every group, the fields of the left tuple followed by the
+     * fields of the right one. An empty side of a group drops it if that input is inner, or is
+     * replaced by a tuple of nulls otherwise. The left side of a skewed key is never replaced:
+     * the key was sampled from the left input, so its right rows, which are replicated to every
+     * partition of its range, are joined in the partitions that got its left rows, and padding
+     * them in the others would output them more than once.
+     */
+    private static class JoinFunction
+            extends AbstractFunction1<Iterator<Tuple2<Object, Seq<Seq<Tuple>>>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final SkewedJoinPartitioner partitioner;
+        private final int[] nullTupleSizes;
+
+        private JoinFunction(SkewedJoinPartitioner partitioner, int[] nullTupleSizes) {
+            this.partitioner = partitioner;
+            this.nullTupleSizes = nullTupleSizes;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(final Iterator<Tuple2<Object, Seq<Seq<Tuple>>>> input) {
+            return JavaConversions.asScalaIterator(new java.util.Iterator<Tuple>() {
+                private List<Tuple> left = null;
+                private List<Tuple> right = null;
+                private int leftIndex = 0;
+                private int rightIndex = 0;
+
+                @Override
+                public boolean hasNext() {
+                    while (left == null || leftIndex == left.size()) {
+                        if (!input.hasNext()) {
+                            return false;
+                        }
+                        Tuple2<Object, Seq<Seq<Tuple>>> group = input.next();
+                        List<Seq<Tuple>> bags = Lists.newArrayList(JavaConversions.asJavaIterable(group._2()));
+                        left = Lists.newArrayList(JavaConversions.asJavaIterable(bags.get(0)));
+                        if (!isSkewed((Tuple)group._1())) {
+                            left = getSide(left, 0);
+                        }
+                        right = getSide(Lists.newArrayList(JavaConversions.asJavaIterable(bags.get(1))), 1);
+                        if (right.isEmpty()) {
+                            left = null;
+                        }
+                        leftIndex = 0;
+                        rightIndex = 0;
+                    }
+                    return true;
+                }
+
+                private boolean isSkewed(Tuple keyIndex) {
+                    try {
+                        Object key = keyIndex.get(0);
+                        return key != null && partitioner.getSpread(key) > 1;
+                    } catch (ExecException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                private List<Tuple> getSide(List<Tuple> tuples, int index) {
+                    if (!tuples.isEmpty() || nullTupleSizes[index] < 0) {
+                        return tuples;
+                    }
+                    return Collections.singletonList(tf.newTuple(nullTupleSizes[index]));
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Tuple l = left.get(leftIndex);
+                    Tuple r = right.get(rightIndex);
+                    if (++rightIndex == right.size()) {
+                        rightIndex = 0;
+                        ++leftIndex;
+                    }
+                    List<Object> fields = new ArrayList<Object>(l.size() + r.size());
+                    fields.addAll(l.getAll());
+                    fields.addAll(r.getAll());
+                    return tf.newTupleNoCopy(fields);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.InternalSortedBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.HashPartitioner;
+import spark.PairRDDFunctions;
+import spark.Partitioner;
+import spark.RDD;
+
+/**
+ * Converter for ORDER BY. Like the MapReduce plan it samples the input (RandomSampleLoader),
+ * picks quantiles (FindQuantiles) and range partitions on them (WeightedRangePartitioner), but
+ * the quantiles are computed on the driver from a collected sample, so no separate job writes
+ * them. The sample is collected by the launch once the plan is converted, see
+ * {@link PendingJobs}. Each partition is then sorted with the POSort comparator, which covers
+ * ASC/DESC per column as well as user comparators (POUserComparisonFunc).
+ * <p>
+ * An ORDER BY followed by a LIMIT (the sort is then limited by LimitOptimizer) is run as a top-K
+ * instead: every partition keeps its K first tuples in a bounded heap, and only those are
+ * shuffled to a single partition that keeps the K first of them. A larger limit is applied to the
+ * sorted partitions the way LimitConverter applies a LIMIT.
+ */
+@SuppressWarnings({ "serial"})
+public class SortConverter implements POConverter<Tuple, Tuple, POSort> {
+    private static final Log LOG = LogFactory.getLog(SortConverter.class);
+
+    // same number of samples per split as the MapReduce sampling job
+    private static final int SAMPLES_PER_PARTITION = 100;
+
+    // the largest limit run as a top-K, the heaps of larger ones may not fit in memory
+    public static final String TOP_K_MAX = "pig.spark.sort.topk.max";
+    private static final long DEFAULT_TOP_K_MAX = 100000;
+
+    private static final ToKeyValueFunction TO_KEY_VALUE_FUNCTION = new ToKeyValueFunction();
+    private static final ToSingleKeyFunction TO_SINGLE_KEY_FUNCTION = new ToSingleKeyFunction();
+    private static final ToValueFunction TO_VALUE_FUNCTION = new ToValueFunction();
+
+    private final PigContext pigContext;
+    private final PendingJobs pendingJobs;
+
+    public SortConverter(PigContext pigContext, PendingJobs pendingJobs) {
+        this.pigContext = pigContext;
+        this.pendingJobs = pendingJobs;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, final POSort sortOperator)
+            throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, sortOperator, 1);
+        final RDD<Tuple> rdd = predecessors.get(0);
+        int parallelism = SparkUtil.getParallelism(predecessors, sortOperator);
+
+        final Comparator<Tuple> comparator = getComparator(sortOperator);
+        if (getShuffleStrategy(sortOperator, pigContext.getProperties()) == ShuffleStrategy.TOP_K) {
+            return topK(rdd, comparator, (int)sortOperator.getLimit());
+        }
+        final WeightedRangePartitioner partitioner = new WeightedRangePartitioner(parallelism, comparator);
+        if (parallelism <= 1) {
+            partitioner.quantiles = new Tuple[0];
+        } else {
+            pendingJobs.add(new Runnable() {
+                @Override
+                public void run() {
+                    partitioner.quantiles = getQuantiles(rdd, comparator, partitioner.numPartitions());
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Quantiles for " + sortOperator + ": "
+                                + Arrays.toString(partitioner.quantiles));
+                }
+            });
+        }
+
+        RDD<Tuple2<Tuple, Object>> rddPairs = rdd.map(TO_KEY_VALUE_FUNCTION, SparkUtil.<Tuple, Object>getTuple2Manifest());
+        PairRDDFunctions<Tuple, Object> pairRDDFunctions = new PairRDDFunctions<Tuple, Object>(rddPairs,
+                SparkUtil.getManifest(Tuple.class), SparkUtil.getManifest(Object.class));
+        RDD<Tuple> sorted = pairRDDFunctions
+                .partitionBy(partitioner, false)
+                .mapPartitions(new SortFunction(comparator), SparkUtil.getManifest(Tuple.class));
+        if (sortOperator.isLimited()) {
+            // a limit too large for a top-K, LimitOptimizer removed the LIMIT that followed
+            return LimitConverter.limit(sorted, sortOperator.getLimit());
+        }
+        return sorted;
+    }
+
+    /**
+     * @return whether sortOperator is run as a top-K or range partitioned
+     */
+    public static ShuffleStrategy getShuffleStrategy(POSort sortOperator, Properties properties) {
+        long topKMax = Long.parseLong(properties.getProperty(TOP_K_MAX, String.valueOf(DEFAULT_TOP_K_MAX)));
+        return sortOperator.isLimited() && sortOperator.getLimit() <= topKMax
+                ? ShuffleStrategy.TOP_K : ShuffleStrategy.RANGE;
+    }
+
+    /**
+     * Keeps the k first tuples of every partition, shuffles them to a single partition and keeps
+     * the k first of them. The partitions are computed in parallel, only their k first tuples are
+     * moved.
+     */
+    private static RDD<Tuple> topK(RDD<Tuple> rdd, Comparator<Tuple> comparator, int k) {
+        TopKFunction topKFunction = new TopKFunction(comparator, k);
+        RDD<Tuple2<Object, Tuple>> candidates = rdd
+                .mapPartitions(topKFunction, SparkUtil.getManifest(Tuple.class))
+                .map(TO_SINGLE_KEY_FUNCTION, SparkUtil.<Object, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(candidates,
+                SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions
+                .partitionBy(new HashPartitioner(1), false)
+                .map(TO_VALUE_FUNCTION, SparkUtil.getManifest(Tuple.class))
+                .mapPartitions(topKFunction, SparkUtil.getManifest(Tuple.class));
+    }
+
+    static Comparator<Tuple> getComparator(POSort sortOperator) {
+        if (sortOperator.isUDFComparatorUsed) {
+            return sortOperator.new UDFSortComparator();
+        }
+        return sortOperator.new SortComparator();
+    }
+
+    /**
+     * Picks parallelism - 1 split points from a sample of every partition, the way FindQuantiles
+     * does for the output of RandomSampleLoader, or none if rdd is empty.
+     */
+    private static Tuple[] getQuantiles(RDD<Tuple> rdd, Comparator<Tuple> comparator, int parallelism) {
+        Tuple[] sample = (Tuple[])rdd.mapPartitions(new SampleFunction(SAMPLES_PER_PARTITION),
+                SparkUtil.getManifest(Tuple.class)).collect();
+        if (sample.length == 0) {
+            return new Tuple[0];
+        }
+        List<Tuple> sortedSample = new ArrayList<Tuple>(Arrays.asList(sample));
+        Collections.sort(sortedSample, comparator);
+
+        Tuple[] quantiles = new Tuple[parallelism - 1];
+        double step = (double)sortedSample.size() / parallelism;
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = sortedSample.get(Math.max(0, (int)Math.round((i + 1) * step) - 1));
+        }
+        return quantiles;
+    }
+
+    /**
+     * Reservoir sample of each partition, see RandomSampleLoader.
+     */
+    private static class SampleFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final int numSamples;
+
+        private SampleFunction(int numSamples) {
+            this.numSamples = numSamples;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            List<Tuple> samples = new ArrayList<Tuple>(numSamples);
+            Random random = new Random();
+            int seen = 0;
+            while (input.hasNext()) {
+                Tuple t = input.next();
+                if (seen < numSamples) {
+                    samples.add(t);
+                } else {
+                    int index = random.nextInt(seen + 1);
+                    if (index < numSamples) {
+                        samples.set(index, t);
+                    }
+                }
+                ++seen;
+            }
+            return JavaConversions.asScalaIterator(samples.iterator());
+        }
+    }
+
+    /**
+     * Range partitioner over the sampled quantiles. A key that is equal to several consecutive
+     * quantiles is spread randomly across all the partitions those quantiles delimit, which is
+     * what the weighted parts of WeightedRangePartitioner achieve for heavily repeated keys. With
+     * no quantiles, for an empty sample, every key goes to the first partition.
+     */
+    private static class WeightedRangePartitioner extends Partitioner {
+
+        private final int numPartitions;
+        private final Comparator<Tuple> comparator;
+        // set once the input is sampled, before the partitioner is shipped
+        private Tuple[] quantiles = null;
+        private transient Random random;
+
+        private WeightedRangePartitioner(int numPartitions, Comparator<Tuple> comparator) {
+            this.numPartitions = numPartitions;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public int numPartitions() {
+            return numPartitions;
+        }
+
+        @Override
+        public int getPartition(Object key) {
+            if (quantiles == null) {
+                throw new IllegalStateException("The input of the ORDER BY was not sampled");
+            }
+            Tuple tuple = (Tuple)key;
+            int index = Arrays.binarySearch(quantiles, tuple, comparator);
+            if (index < 0) {
+                return -index - 1;
+            }
+            // the key is a quantile: find all the partitions it may go to
+            int first = index;
+            while (first > 0 && comparator.compare(quantiles[first - 1], tuple) == 0) {
+                --first;
+            }
+            int last = index;
+            while (last < quantiles.length - 1 && comparator.compare(quantiles[last + 1], tuple) == 0) {
+                ++last;
+            }
+            if (random == null) {
+                random = new Random();
+            }
+            return first + random.nextInt(last - first + 2);
+        }
+    }
+
+    /**
+     * Keeps the k first tuples of a partition, in order.
+     */
+    private static class TopKFunction extends AbstractFunction1<Iterator<Tuple>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final Comparator<Tuple> comparator;
+        private final int k;
+
+        private TopKFunction(Comparator<Tuple> comparator, int k) {
+            this.comparator = comparator;
+            this.k = k;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple> input) {
+            // the k first tuples seen so far, the last of them at the head
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(k + 1, Collections.reverseOrder(comparator));
+            while (input.hasNext()) {
+                Tuple t = input.next();
+                if (heap.size() < k) {
+                    heap.add(t);
+                } else if (k > 0 && comparator.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            List<Tuple> top = new ArrayList<Tuple>(heap);
+            Collections.sort(top, comparator);
+            return JavaConversions.asScalaIterator(top.iterator());
+        }
+    }
+
+    private static class SortFunction extends AbstractFunction1<Iterator<Tuple2<Tuple, Object>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final Comparator<Tuple> comparator;
+
+        private SortFunction(Comparator<Tuple> comparator) {
+            this.comparator = comparator;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Tuple, Object>> input) {
+            // spills to disk when the partition doesn't fit in memory
+            DataBag sortedBag = new InternalSortedBag(3, comparator);
+            while (input.hasNext()) {
+                sortedBag.add(input.next()._1());
+            }
+            return JavaConversions.asScalaIterator(sortedBag.iterator());
+        }
+    }
+
+    private static class ToKeyValueFunction extends AbstractFunction1<Tuple, Tuple2<Tuple, Object>>
+            implements Serializable {
+
+        @Override
+        public Tuple2<Tuple, Object> apply(Tuple t) {
+            return new Tuple2<Tuple, Object>(t, null);
+        }
+    }
+
+    private static class ToSingleKeyFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>>
+            implements Serializable {
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            // all the candidates go to the same partition
+            return new Tuple2<Object, Tuple>(0, t);
+        }
+    }
+
+    private static class ToValueFunction extends AbstractFunction1<Tuple2<Object, Tuple>, Tuple>
+            implements Serializable {
+
+        @Override
+        public Tuple apply(Tuple2<Object, Tuple> input) {
+            return input._2();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InternalSortedBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+import scala.Tuple2;
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction1;
+import spark.HashPartitioner;
+import spark.PairRDDFunctions;
+import spark.RDD;
+
+/**
+ * A shuffle that reads the values of each group straight off a sorted partition instead of
+ * collecting them in memory. It is used for the GROUPs whose LocalRearranges emit (main key,
+ * secondary key) keys, see SparkSecondaryKeyOptimizer: like SecondaryKeyPartitioner and
+ * PigSecondaryKeyComparator do for MapReduce, the tuples are partitioned on the main key only
+ * and each partition is sorted on both keys, spilling to disk if needed. It is also used for the
+ * GROUPs whose values go to accumulative UDFs, see SparkAccumulatorOptimizer, so that the
+ * POPackage pulls them in batches however large the group is. Those GROUPs pay for it with a
+ * full sort of each partition on the key, where a groupBy would only hash it.
+ */
+@SuppressWarnings({ "serial"})
+class SortedGroupShuffle {
+
+    private static final TupleFactory tf = TupleFactory.getInstance();
+
+    /**
+     * @param predecessors the (index, key, value) tuples of each input, where key is a (main key,
+     * secondary key) tuple if secondarySortOrder is set
+     * @param secondarySortOrder whether each column of the secondary key is sorted ascending, or
+     * null if there is no secondary key
+     * @return a (key, Iterator of (index, key, value)) tuple per group
+     */
+    static RDD<Tuple> shuffle(List<RDD<Tuple>> predecessors, int parallelism, boolean[] secondarySortOrder) {
+        boolean secondaryKey = secondarySortOrder != null;
+        RDD<Tuple> rdd = predecessors.get(0);
+        if (predecessors.size() > 1) {
+            rdd = rdd.context().union(SparkUtil.toScalaSeq(predecessors), SparkUtil.getManifest(Tuple.class));
+        }
+        RDD<Tuple2<Object, Tuple>> rddPairs = rdd.map(new ToMainKeyFunction(secondaryKey),
+                SparkUtil.<Object, Tuple>getTuple2Manifest());
+        PairRDDFunctions<Object, Tuple> pairRDDFunctions = new PairRDDFunctions<Object, Tuple>(
+                rddPairs, SparkUtil.getManifest(Object.class), SparkUtil.getManifest(Tuple.class));
+        return pairRDDFunctions
+                .partitionBy(new HashPartitioner(parallelism), false)
+                .mapPartitions(new SortedGroupFunction(secondaryKey
+                        ? new SecondaryKeyComparator(secondarySortOrder) : new KeyComparator(),
+                        secondaryKey), SparkUtil.getManifest(Tuple.class));
+    }
+
+    private static Object getMainKey(Tuple t, boolean secondaryKey) {
+        try {
+            return secondaryKey ? ((Tuple)t.get(1)).get(0) : t.get(1);
+        } catch (ExecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class ToMainKeyFunction extends AbstractFunction1<Tuple, Tuple2<Object, Tuple>>
+            implements Serializable {
+
+        private final boolean secondaryKey;
+
+        private ToMainKeyFunction(boolean secondaryKey) {
+            this.secondaryKey = secondaryKey;
+        }
+
+        @Override
+        public Tuple2<Object, Tuple> apply(Tuple t) {
+            // (main key, (index, key, value))
+            return new Tuple2<Object, Tuple>(getMainKey(t, secondaryKey), t);
+        }
+    }
+
+    /**
+     * Orders (index, key, value) tuples on the key.
+     */
+    private static class KeyComparator implements Comparator<Tuple>, Serializable {
+
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            try {
+                return DataType.compare(t1.get(1), t2.get(1));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Orders (index, (main key, secondary key), value) tuples on the main key, then on the
+     * secondary key in the order of the nested ORDER BY.
+     */
+    private static class SecondaryKeyComparator implements Comparator<Tuple>, Serializable {
+
+        private final boolean[] secondarySortOrder;
+
+        private SecondaryKeyComparator(boolean[] secondarySortOrder) {
+            this.secondarySortOrder = secondarySortOrder;
+        }
+
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            try {
+                Tuple key1 = (Tuple)t1.get(1);
+                Tuple key2 = (Tuple)t2.get(1);
+                int c = DataType.compare(key1.get(0), key2.get(0));
+                if (c != 0) {
+                    return c;
+                }
+                return compareSecondaryKeys(key1.get(1), key2.get(1));
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private int compareSecondaryKeys(Object o1, Object o2) throws ExecException {
+            if (secondarySortOrder.length > 1 && o1 instanceof Tuple && o2 instanceof Tuple) {
+                // one sort order per column
+                Tuple t1 = (Tuple)o1;
+                Tuple t2 = (Tuple)o2;
+                int columns = Math.min(secondarySortOrder.length, Math.min(t1.size(), t2.size()));
+                for (int i = 0; i < columns; i++) {
+                    int c = DataType.compare(t1.get(i), t2.get(i));
+                    if (c != 0) {
+                        return secondarySortOrder[i] ? c : -c;
+                    }
+                }
+                return t1.size() - t2.size();
+            }
+            int c = DataType.compare(o1, o2);
+            return secondarySortOrder.length == 0 || secondarySortOrder[0] ? c : -c;
+        }
+    }
+
+    private static class SortedGroupFunction
+            extends AbstractFunction1<Iterator<Tuple2<Object, Tuple>>, Iterator<Tuple>>
+            implements Serializable {
+
+        private final Comparator<Tuple> comparator;
+        private final boolean secondaryKey;
+
+        private SortedGroupFunction(Comparator<Tuple> comparator, boolean secondaryKey) {
+            this.comparator = comparator;
+            this.secondaryKey = secondaryKey;
+        }
+
+        @Override
+        public Iterator<Tuple> apply(Iterator<Tuple2<Object, Tuple>> input) {
+            // spills to disk when the partition doesn't fit in memory
+            DataBag sortedBag = new InternalSortedBag(3, comparator);
+            while (input.hasNext()) {
+                sortedBag.add(input.next()._2());
+            }
+            return JavaConversions.asScalaIterator(new SortedGroupIterator(sortedBag.iterator(), secondaryKey));
+        }
+    }
+
+    /**
+     * Cuts sorted tuples into groups of equal main keys. The values of a group are read straight
+     * from the sorted tuples, and the ones left unread are skipped when the next group is asked
+     * for.
+     */
+    private static class SortedGroupIterator implements java.util.Iterator<Tuple> {
+
+        private final java.util.Iterator<Tuple> sorted;
+        private final boolean secondaryKey;
+
+        // the next sorted tuple, already read
+        private Tuple lookahead = null;
+        private boolean inGroup = false;
+        private Object groupKey = null;
+
+        private SortedGroupIterator(java.util.Iterator<Tuple> sorted, boolean secondaryKey) {
+            this.sorted = sorted;
+            this.secondaryKey = secondaryKey;
+        }
+
+        private boolean fill() {
+            if (lookahead == null && sorted.hasNext()) {
+                lookahead = sorted.next();
+            }
+            return lookahead != null;
+        }
+
+        private boolean inCurrentGroup() {
+            return fill() && inGroup
+                    && DataType.compare(getMainKey(lookahead, secondaryKey), groupKey) == 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (inCurrentGroup()) {
+                lookahead = null;
+            }
+            return fill();
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                groupKey = getMainKey(lookahead, secondaryKey);
+                inGroup = true;
+                Tuple group = tf.newTuple(2);
+                group.set(0, lookahead.get(1)); // the key, with the secondary key if any
+                group.set(1, new java.util.Iterator<Tuple>() {
+                    @Override
+                    public boolean hasNext() {
+                        return inCurrentGroup();
+                    }
+
+                    @Override
+                    public Tuple next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Tuple value = lookahead;
+                        lookahead = null;
+                        return value;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+                return group;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.HDataType;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.NullableTuple;
+
+/**
+ * Runs a combine plan (POCombinerPackage -> ForEach(Intermediate) -> LocalRearrange) over the
+ * (index, key, value) tuples buffered for one key, the same way PigCombiner does in MapReduce.
+ * Values are buffered until pig.spark.combine.threshold of them have been seen for a key and
+ * are then collapsed into the (usually single) tuple produced by the combine plan.
+ */
+@SuppressWarnings({ "serial"})
+class SparkCombiner implements Serializable {
+
+    // the number of values buffered for a key before they are combined
+    public static final String COMBINE_THRESHOLD = "pig.spark.combine.threshold";
+    private static final int DEFAULT_COMBINE_THRESHOLD = 100;
+
+    private static final Tuple DUMMYTUPLE = null;
+
+    private final POPackage pack;
+    private final PhysicalOperator[] roots;
+    private final PhysicalOperator leaf;
+    private final int threshold;
+
+    SparkCombiner(PhysicalPlan combinePlan, int threshold) {
+        this.threshold = threshold;
+        pack = (POPackage)combinePlan.getRoots().get(0);
+        List<PhysicalOperator> packSuccessors = combinePlan.getSuccessors(pack);
+        roots = packSuccessors.toArray(new PhysicalOperator[packSuccessors.size()]);
+        // the package output is attached to the roots directly, see PigCombiner
+        for (PhysicalOperator root : roots) {
+            root.setInputs(null);
+        }
+        leaf = combinePlan.getLeaves().get(0);
+    }
+
+    /**
+     * @return the combine threshold, at least 2
+     */
+    static int getThreshold(Properties properties) {
+        int threshold = Integer.parseInt(properties.getProperty(COMBINE_THRESHOLD,
+                String.valueOf(DEFAULT_COMBINE_THRESHOLD)));
+        return Math.max(2, threshold);
+    }
+
+    ArrayList<Tuple> combineIfNeeded(ArrayList<Tuple> values) {
+        if (values.size() < threshold) {
+            return values;
+        }
+        return combine(values);
+    }
+
+    ArrayList<Tuple> combine(ArrayList<Tuple> values) {
+        try {
+            Object key = values.get(0).get(1);
+            pack.attachInput(HDataType.getWritableComparableTypes(key, pack.getKeyType()),
+                    new ValueIterator(values.iterator()));
+            Result res = pack.getNext(DUMMYTUPLE);
+            if (res.returnStatus != POStatus.STATUS_OK) {
+                int errCode = 2091;
+                String msg = "Packaging error while processing group.";
+                throw new ExecException(msg, errCode, PigException.BUG);
+            }
+
+            for (PhysicalOperator root : roots) {
+                root.attachInput((Tuple)res.result);
+            }
+            ArrayList<Tuple> combined = new ArrayList<Tuple>();
+            while (true) {
+                Result redRes = leaf.getNext(DUMMYTUPLE);
+                if (redRes.returnStatus == POStatus.STATUS_OK) {
+                    // (index, key, value)
+                    combined.add((Tuple)redRes.result);
+                } else if (redRes.returnStatus == POStatus.STATUS_EOP) {
+                    break;
+                } else if (redRes.returnStatus == POStatus.STATUS_ERR) {
+                    int errCode = 2090;
+                    String msg = "Received Error while processing the combine plan.";
+                    if (redRes.result != null) {
+                        msg += redRes.result;
+                    }
+                    throw new ExecException(msg, errCode, PigException.BUG);
+                }
+            }
+            return combined;
+        } catch (ExecException e) {
+            throw new RuntimeException("Couldn't combine values: " + values, e);
+        }
+    }
+
+    /**
+     * Feeds (index, key, value) tuples to the package as indexed NullableTuple values.
+     */
+    private static class ValueIterator implements Iterator<NullableTuple> {
+
+        private final Iterator<Tuple> tuples;
+
+        ValueIterator(Iterator<Tuple> tuples) {
+            this.tuples = tuples;
+        }
+
+        public boolean hasNext() {
+            return tuples.hasNext();
+        }
+
+        public NullableTuple next() {
+            try {
+                Tuple next = tuples.next();
+                NullableTuple nullableTuple = new NullableTuple((Tuple)next.get(2));
+                nullableTuple.setIndex(((Number)next.get(0)).byteValue());
+                return nullableTuple;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigInputFormat;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.data.Tuple;
+
+/**
+ * PigInputFormat reading the Pig context from the broadcast of the launch, see
+ * {@link JobConfBroadcast}.
+ */
+public class SparkPigInputFormat extends PigInputFormat {
+
+    @Override
+    public RecordReader<Text, Tuple> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        JobConfBroadcast.initialize(context.getConfiguration());
+        return super.createRecordReader(split, context);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext jobcontext) throws IOException, InterruptedException {
+        JobConfBroadcast.initialize(jobcontext.getConfiguration());
+        return super.getSplits(jobcontext);
+    }
+}
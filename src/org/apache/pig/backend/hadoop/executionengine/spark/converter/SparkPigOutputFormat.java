@@ -0,0 +1,40 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigOutputFormat;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.data.Tuple;
+
+/**
+ * PigOutputFormat reading the Pig context from the broadcast of the launch, see
+ * {@link JobConfBroadcast}.
+ */
+@SuppressWarnings("rawtypes")
+public class SparkPigOutputFormat extends PigOutputFormat {
+
+    @Override
+    public RecordWriter<WritableComparable, Tuple> getRecordWriter(TaskAttemptContext taskattemptcontext)
+            throws IOException, InterruptedException {
+        JobConfBroadcast.initialize(taskattemptcontext.getConfiguration());
+        return super.getRecordWriter(taskattemptcontext);
+    }
+
+    @Override
+    public void checkOutputSpecs(JobContext jobcontext) throws IOException, InterruptedException {
+        JobConfBroadcast.initialize(jobcontext.getConfiguration());
+        super.checkOutputSpecs(jobcontext);
+    }
+
+    @Override
+    public OutputCommitter getOutputCommitter(TaskAttemptContext taskattemptcontext)
+            throws IOException, InterruptedException {
+        JobConfBroadcast.initialize(taskattemptcontext.getConfiguration());
+        return super.getOutputCommitter(taskattemptcontext);
+    }
+}
@@ -0,0 +1,24 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import spark.RDD;
+
+/**
+ * Converter for SPLIT. The branches are the filters that follow POSplit, so it only hands its
+ * input over to them. As it is read by several operators, SparkLauncher persists it and the
+ * input is computed once for all the branches.
+ */
+public class SplitConverter implements POConverter<Tuple, Tuple, POSplit> {
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POSplit poSplit) throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poSplit, 1);
+        return predecessors.get(0);
+    }
+}
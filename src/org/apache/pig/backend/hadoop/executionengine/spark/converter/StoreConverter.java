@@ -4,17 +4,21 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.pig.StoreFuncInterface;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobControlCompiler;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigOutputFormat;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.OperatorCounters;
 import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.util.ObjectSerializer;
 import org.python.google.common.collect.Lists;
 
@@ -24,19 +28,29 @@ import spark.PairRDDFunctions;
 import spark.RDD;
 
 /**
- * Converter that takes a POStore and stores it's content.
+ * Converter that takes a POStore and stores it's content. The store is configured when it is
+ * converted, on the thread building the plan, and written by {@link #save(POStore, RDD)}, which
+ * may run on another thread.
  *
  * @author billg
  */
 @SuppressWarnings({ "serial"})
 public class StoreConverter implements POConverter<Tuple, Tuple2<Text, Tuple>, POStore> {
 
-    private static final FromTupleFunction FROM_TUPLE_FUNCTION = new FromTupleFunction();
-
     private PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
+    // the counters of the launch, null outside of a launch
+    private final Map<OperatorKey, OperatorCounters> counters;
+
+    // the configuration of the converted stores, by key of their POStore
+    private final Map<OperatorKey, JobConf> storeJobConfs = new ConcurrentHashMap<OperatorKey, JobConf>();
 
-    public StoreConverter(PigContext pigContext) {
+    public StoreConverter(PigContext pigContext, JobConfBroadcast jobConfBroadcast,
+            Map<OperatorKey, OperatorCounters> counters) {
         this.pigContext = pigContext;
+        this.jobConfBroadcast = jobConfBroadcast;
+        this.counters = counters;
     }
 
     @Override
@@ -44,20 +58,31 @@ public class StoreConverter implements POConverter<Tuple, Tuple2<Text, Tuple>, P
         SparkUtil.assertPredecessorSize(predecessors, physicalOperator, 1);
         RDD<Tuple> rdd = predecessors.get(0);
         // convert back to KV pairs
-        RDD<Tuple2<Text, Tuple>> rddPairs = rdd.map(FROM_TUPLE_FUNCTION, SparkUtil.<Text, Tuple>getTuple2Manifest());
-        PairRDDFunctions<Text, Tuple> pairRDDFunctions = new PairRDDFunctions<Text, Tuple>(rddPairs,
-                SparkUtil.getManifest(Text.class), SparkUtil.getManifest(Tuple.class));
+        RDD<Tuple2<Text, Tuple>> rddPairs = rdd.map(
+                new FromTupleFunction(OperatorCounters.register(counters, physicalOperator, rdd.context())),
+                SparkUtil.<Text, Tuple>getTuple2Manifest());
 
-        JobConf storeJobConf = SparkUtil.newJobConf(pigContext);
-        POStore poStore = configureStorer(storeJobConf, physicalOperator);
+        JobConf storeJobConf = SparkUtil.newJobConf(pigContext, jobConfBroadcast);
+        configureStorer(storeJobConf, physicalOperator);
+        storeJobConfs.put(physicalOperator.getOperatorKey(), storeJobConf);
+        return rddPairs;
+    }
 
+    /**
+     * Runs the job writing the output of a store returned by {@link #convert(List, POStore)}.
+     */
+    public void save(POStore poStore, RDD<Tuple2<Text, Tuple>> rddPairs) {
+        JobConf storeJobConf = storeJobConfs.remove(poStore.getOperatorKey());
+        if (storeJobConf == null) {
+            throw new IllegalStateException("The store was not converted: " + poStore);
+        }
+        PairRDDFunctions<Text, Tuple> pairRDDFunctions = new PairRDDFunctions<Text, Tuple>(rddPairs,
+                SparkUtil.getManifest(Text.class), SparkUtil.getManifest(Tuple.class));
         pairRDDFunctions.saveAsNewAPIHadoopFile(poStore.getSFile().getFileName(),
-                    Text.class, Tuple.class, PigOutputFormat.class, storeJobConf);
-
-        return rddPairs;
+                Text.class, Tuple.class, SparkPigOutputFormat.class, storeJobConf);
     }
 
-    private static POStore configureStorer(JobConf jobConf,
+    private static void configureStorer(JobConf jobConf,
             PhysicalOperator physicalOperator) throws IOException {
         ArrayList<POStore> storeLocations = Lists.newArrayList();
         POStore poStore = (POStore)physicalOperator;
@@ -69,7 +94,6 @@ public class StoreConverter implements POConverter<Tuple, Tuple2<Text, Tuple>, P
 
         jobConf.set(JobControlCompiler.PIG_MAP_STORES, ObjectSerializer.serialize(Lists.newArrayList()));
         jobConf.set(JobControlCompiler.PIG_REDUCE_STORES, ObjectSerializer.serialize(storeLocations));
-        return poStore;
     }
 
     private static class FromTupleFunction extends AbstractFunction1<Tuple, Tuple2<Text, Tuple>>
@@ -77,7 +101,17 @@ public class StoreConverter implements POConverter<Tuple, Tuple2<Text, Tuple>, P
 
         private static Text EMPTY_TEXT = new Text();
 
+        // counts the tuples stored, the time of the writes is spent in the output format
+        private final OperatorCounters counters;
+
+        private FromTupleFunction(OperatorCounters counters) {
+            this.counters = counters;
+        }
+
         public Tuple2<Text, Tuple> apply(Tuple v1) {
+            if (counters != null) {
+                counters.add(1, 0);
+            }
             return new Tuple2<Text, Tuple>(EMPTY_TEXT, v1);
         }
     }
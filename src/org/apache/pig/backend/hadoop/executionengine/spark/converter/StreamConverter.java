@@ -0,0 +1,201 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.TaskAttemptID;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
+import org.apache.pig.backend.hadoop.executionengine.spark.JobConfBroadcast;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.streaming.StreamingCommand;
+import org.python.google.common.collect.Lists;
+import org.python.google.common.collect.Sets;
+
+import scala.collection.Iterator;
+import scala.collection.JavaConversions;
+import scala.runtime.AbstractFunction0;
+import scala.runtime.BoxedUnit;
+import spark.Dependency;
+import spark.OneToOneDependency;
+import spark.RDD;
+import spark.SparkContext;
+import spark.Split;
+import spark.TaskContext;
+
+/**
+ * Converter for STREAM THROUGH. Every partition is streamed through its own process, started by
+ * the ExecutableManager of POStream: its threads write the input tuples to the process, read its
+ * output and hand it back, so serialization, execution and deserialization overlap. The tuples
+ * queued on each side of the process are bounded by pig.spark.stream.buffer.size. The process
+ * ends with its input, or is killed when the task completes without reading all its output, as
+ * when a LIMIT is reached.
+ */
+@SuppressWarnings({ "serial"})
+public class StreamConverter implements POConverter<Tuple, Tuple, POStream> {
+
+    private static final Log LOG = LogFactory.getLog(StreamConverter.class);
+
+    // number of tuples queued for and from each streaming process
+    public static final String BUFFER_SIZE = "pig.spark.stream.buffer.size";
+
+    private static final int DEFAULT_BUFFER_SIZE = 64;
+
+    // files already shipped to the executors of every SparkContext
+    private static final Map<SparkContext, Set<String>> SHIPPED_FILES =
+            new WeakHashMap<SparkContext, Set<String>>();
+
+    private final PigContext pigContext;
+    // the context broadcast by the launch, null outside of a launch
+    private final JobConfBroadcast jobConfBroadcast;
+    private final SparkContext sparkContext;
+
+    public StreamConverter(PigContext pigContext, SparkContext sparkContext,
+            JobConfBroadcast jobConfBroadcast) {
+        this.pigContext = pigContext;
+        this.sparkContext = sparkContext;
+        this.jobConfBroadcast = jobConfBroadcast;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POStream poStream) throws IOException {
+        SparkUtil.assertPredecessorSize(predecessors, poStream, 1);
+        shipFiles(poStream.getCommand());
+        poStream.setBufferSize(Integer.parseInt(pigContext.getProperties().getProperty(BUFFER_SIZE,
+                String.valueOf(DEFAULT_BUFFER_SIZE))));
+
+        JobConf jobConf = SparkUtil.newJobConf(pigContext, jobConfBroadcast);
+        if (jobConf.get("pig.streaming.task.output.dir") == null) {
+            // where HadoopExecutableManager copies the secondary outputs of the command
+            jobConf.set("pig.streaming.task.output.dir",
+                    FileLocalizer.getTemporaryPath(pigContext).toString());
+        }
+        return new StreamRDD(predecessors.get(0), new StreamFunction(poStream, jobConf));
+    }
+
+    /**
+     * Adds the SHIP and CACHE files of the command to the SparkContext, which fetches them once
+     * into the working directory of every executor. In local mode they are used where they are,
+     * as in the local mode of MapReduce.
+     */
+    private void shipFiles(StreamingCommand command) {
+        if (sparkContext.master().startsWith("local")) {
+            return;
+        }
+        List<String> paths = Lists.newArrayList();
+        if (command.getShipFiles() && command.getShipSpecs() != null) {
+            paths.addAll(command.getShipSpecs());
+        }
+        if (command.getCacheSpecs() != null) {
+            for (String cacheSpec : command.getCacheSpecs()) {
+                int fragment = cacheSpec.indexOf('#');
+                String path = fragment < 0 ? cacheSpec : cacheSpec.substring(0, fragment);
+                if (fragment >= 0 && !new Path(path).getName().equals(cacheSpec.substring(fragment + 1))) {
+                    LOG.warn("Cache file " + path + " is fetched under its own name, not as "
+                            + cacheSpec.substring(fragment + 1));
+                }
+                paths.add(path);
+            }
+        }
+
+        synchronized (SHIPPED_FILES) {
+            Set<String> shippedFiles = SHIPPED_FILES.get(sparkContext);
+            if (shippedFiles == null) {
+                shippedFiles = Sets.newHashSet();
+                SHIPPED_FILES.put(sparkContext, shippedFiles);
+            }
+            for (String path : paths) {
+                // adding a file again would make the executors fetch it again
+                if (shippedFiles.add(path)) {
+                    LOG.info("Shipping " + path + " to the executors");
+                    sparkContext.addFile(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every partition the task id and partition number the streaming binary sees in
+     * MapReduce, used to name its stderr logs and secondary outputs.
+     */
+    private static class StreamFunction extends MapTaskFunction {
+
+        private final POStream poStream;
+
+        private StreamFunction(POStream poStream, JobConf jobConf) {
+            super(poStream, jobConf);
+            this.poStream = poStream;
+        }
+
+        @Override
+        protected void initialize(int split, JobConf jobConf) {
+            jobConf.set("mapred.task.id", new TaskAttemptID("spark", 0, true, split, 0).toString());
+            jobConf.setInt("mapred.task.partition", split);
+        }
+    }
+
+    /**
+     * Runs a StreamFunction on every partition of its parent, and kills the process of the
+     * partition once the task completes.
+     */
+    private static class StreamRDD extends RDD<Tuple> {
+
+        private final RDD<Tuple> prev;
+        private final StreamFunction function;
+        private final scala.collection.immutable.List<Dependency<?>> dependencies;
+
+        private StreamRDD(RDD<Tuple> prev, StreamFunction function) {
+            super(prev.context(), SparkUtil.getManifest(Tuple.class));
+            this.prev = prev;
+            this.function = function;
+            List<Dependency<?>> dependencyList = Lists.newArrayList();
+            dependencyList.add(new OneToOneDependency<Tuple>(prev));
+            this.dependencies = JavaConversions.asScalaBuffer(dependencyList).toList();
+        }
+
+        @Override
+        public Split[] splits() {
+            return prev.splits();
+        }
+
+        @Override
+        public scala.collection.immutable.List<Dependency<?>> dependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public Iterator<Tuple> compute(Split split, TaskContext context) {
+            // a no-op if the process already ended with its input
+            context.addOnCompleteCallback(new KillFunction(function.poStream));
+            return function.apply(split.index(), prev.iterator(split, context));
+        }
+    }
+
+    private static class KillFunction extends AbstractFunction0<BoxedUnit> {
+
+        private final POStream poStream;
+
+        private KillFunction(POStream poStream) {
+            this.poStream = poStream;
+        }
+
+        @Override
+        public BoxedUnit apply() {
+            try {
+                poStream.kill();
+            } catch (IOException e) {
+                LOG.warn("Could not kill the process of " + poStream, e);
+            }
+            return BoxedUnit.UNIT;
+        }
+    }
+}
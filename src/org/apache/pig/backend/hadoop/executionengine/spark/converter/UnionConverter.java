@@ -0,0 +1,30 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.converter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.data.Tuple;
+
+import spark.RDD;
+import spark.SparkContext;
+
+/**
+ * Converter for UNION: the partitions of the inputs are simply put side by side, the tuples are
+ * neither moved nor serialized again.
+ */
+public class UnionConverter implements POConverter<Tuple, Tuple, POUnion> {
+
+    private final SparkContext sparkContext;
+
+    public UnionConverter(SparkContext sparkContext) {
+        this.sparkContext = sparkContext;
+    }
+
+    @Override
+    public RDD<Tuple> convert(List<RDD<Tuple>> predecessors, POUnion poUnion) throws IOException {
+        SparkUtil.assertPredecessorSizeGreaterThan(predecessors, poUnion, 0);
+        return sparkContext.union(SparkUtil.toScalaSeq(predecessors), SparkUtil.getManifest(Tuple.class));
+    }
+}
@@ -0,0 +1,117 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A chain of one-tuple-in, zero-or-more-tuples-out operators fused into a single operator, so
+ * that the Spark backend can run all of them in one mapPartitions. Every input tuple is attached
+ * to the root of the inner plan and the leaf is drained until EOP, the way PigGenericMapBase runs
+ * a map plan.
+ */
+public class POPipeline extends PhysicalOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PhysicalPlan plan;
+
+    // whether the leaf may still produce output for the last attached tuple
+    private transient boolean processing = false;
+
+    public POPipeline(OperatorKey k, PhysicalPlan plan) {
+        super(k);
+        this.plan = plan;
+    }
+
+    public PhysicalPlan getPlan() {
+        return plan;
+    }
+
+    private PhysicalOperator getRoot() {
+        return plan.getRoots().get(0);
+    }
+
+    private PhysicalOperator getLeaf() {
+        return plan.getLeaves().get(0);
+    }
+
+    /**
+     * @return the fused operators, from root to leaf
+     */
+    public List<PhysicalOperator> getOperators() {
+        List<PhysicalOperator> operators = new ArrayList<PhysicalOperator>();
+        PhysicalOperator operator = plan.isEmpty() ? null : getRoot();
+        while (operator != null) {
+            operators.add(operator);
+            List<PhysicalOperator> successors = plan.getSuccessors(operator);
+            operator = successors == null ? null : successors.get(0);
+        }
+        return operators;
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        while (true) {
+            if (processing) {
+                Result res = getLeaf().getNext(dummyTuple);
+                if (res.returnStatus != POStatus.STATUS_EOP) {
+                    return res;
+                }
+                processing = false;
+            }
+            Result inp = processInput();
+            if (inp.returnStatus != POStatus.STATUS_OK) {
+                return inp;
+            }
+            getRoot().attachInput((Tuple)inp.result);
+            processing = true;
+        }
+    }
+
+    /**
+     * Visits the fused operators, from root to leaf, as if they were still in the outer plan.
+     */
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        for (PhysicalOperator operator : getOperators()) {
+            operator.visit(v);
+        }
+    }
+
+    @Override
+    public String name() {
+        StringBuilder sb = new StringBuilder("POPipeline[");
+        for (PhysicalOperator operator : getOperators()) {
+            if (sb.length() > "POPipeline[".length()) {
+                sb.append(" -> ");
+            }
+            sb.append(operator.getClass().getSimpleName());
+        }
+        return sb.append("] - ").append(mKey.toString()).toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMultipleOutputs() {
+        return false;
+    }
+
+    @Override
+    public Tuple illustratorMarkup(Object in, Object out, int eqClassIndex) {
+        return null;
+    }
+}
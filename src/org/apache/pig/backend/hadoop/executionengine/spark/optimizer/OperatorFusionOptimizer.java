@@ -0,0 +1,136 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.python.google.common.collect.Lists;
+import org.python.google.common.collect.Sets;
+
+/**
+ * Collapses maximal chains of narrow operators (one input, processed one tuple at a time) into a
+ * single {@link POPipeline}, so that the Spark backend runs the whole chain in one mapPartitions
+ * instead of creating one RDD and one iterator layer per operator.
+ */
+public class OperatorFusionOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(OperatorFusionOptimizer.class);
+
+    // POLimit is left out: it is global, see LimitConverter
+    private static final Set<Class<? extends PhysicalOperator>> FUSABLE_OPERATORS = Sets.newHashSet(
+            POForEach.class, POFilter.class,
+            POLocalRearrange.class, POPreCombinerLocalRearrange.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    public OperatorFusionOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public void optimize() throws IOException, PlanException {
+        List<PhysicalOperator> operators = Lists.newArrayList(physicalPlan.iterator());
+
+        // POCache computes its key from the operators it reads from, which are about to be
+        // replaced by pipelines: compute (and memoize) the keys first
+        for (PhysicalOperator operator : operators) {
+            if (operator instanceof POCache) {
+                ((POCache)operator).computeCacheKey();
+            }
+        }
+
+        for (PhysicalOperator operator : operators) {
+            if (!isFusable(operator) || isChained(operator)) {
+                continue;
+            }
+            // operator is the head of a chain, follow it as far as possible
+            List<PhysicalOperator> chain = Lists.newArrayList(operator);
+            PhysicalOperator next = getChainedSuccessor(operator);
+            while (next != null) {
+                chain.add(next);
+                next = getChainedSuccessor(next);
+            }
+            if (chain.size() > 1) {
+                fuse(chain);
+            }
+        }
+    }
+
+    private static boolean isFusable(PhysicalOperator operator) {
+        return FUSABLE_OPERATORS.contains(operator.getClass());
+    }
+
+    /**
+     * @return true if the operator continues a chain started by its predecessor
+     */
+    private boolean isChained(PhysicalOperator operator) {
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(operator);
+        return predecessors != null && predecessors.size() == 1
+                && getChainedSuccessor(predecessors.get(0)) == operator;
+    }
+
+    private PhysicalOperator getChainedSuccessor(PhysicalOperator operator) {
+        if (!isFusable(operator)) {
+            return null;
+        }
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(operator);
+        if (successors == null || successors.size() != 1) {
+            return null;
+        }
+        PhysicalOperator successor = successors.get(0);
+        if (!isFusable(successor) || physicalPlan.getPredecessors(successor).size() != 1) {
+            return null;
+        }
+        return successor;
+    }
+
+    private void fuse(List<PhysicalOperator> chain) throws PlanException {
+        PhysicalOperator head = chain.get(0);
+        PhysicalOperator tail = chain.get(chain.size() - 1);
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(head) == null
+                ? null : Lists.newArrayList(physicalPlan.getPredecessors(head));
+
+        for (PhysicalOperator operator : chain.subList(0, chain.size() - 1)) {
+            physicalPlan.remove(operator);
+        }
+
+        String scope = tail.getOperatorKey().scope;
+        POPipeline pipeline = new POPipeline(new OperatorKey(scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(scope)), new PhysicalPlan());
+        // replace keeps the position of the tail among the inputs of its successors
+        physicalPlan.replace(tail, pipeline);
+        if (predecessors != null) {
+            for (PhysicalOperator predecessor : predecessors) {
+                physicalPlan.connect(predecessor, pipeline);
+            }
+        }
+
+        // the root of the inner plan has no inputs: the pipeline attaches its tuples to it
+        PhysicalPlan pipelinePlan = pipeline.getPlan();
+        PhysicalOperator previous = null;
+        for (PhysicalOperator operator : chain) {
+            operator.setInputs(null);
+            pipelinePlan.add(operator);
+            if (previous != null) {
+                pipelinePlan.connect(previous, operator);
+            }
+            previous = operator;
+        }
+        pipeline.addOriginalLocation(tail.getAlias(), tail.getOriginalLocations());
+        pipeline.setRequestedParallelism(tail.getRequestedParallelism());
+        pipeline.setResultType(tail.getResultType());
+        LOG.info("Fused " + pipeline.name());
+    }
+}
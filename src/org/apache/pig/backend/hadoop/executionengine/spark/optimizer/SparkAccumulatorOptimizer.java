@@ -0,0 +1,90 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.AccumulatorOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.python.google.common.collect.Lists;
+
+/**
+ * Runs the POPackage and POForEach of a (CO)GROUP in accumulative mode when all the UDFs of the
+ * ForEach are Accumulators, with {@link AccumulatorOptimizer} run on a throw-away MapReduceOper
+ * like SparkCombinerOptimizer does. The values of such a group are then fed to the UDFs in
+ * batches, so GlobalRearrangeConverter streams them off a sorted shuffle instead of collecting
+ * each group in memory.
+ */
+public class SparkAccumulatorOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SparkAccumulatorOptimizer.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    // the POGlobalRearranges whose POPackage runs in accumulative mode
+    private final Set<OperatorKey> accumulativeGroups = new HashSet<OperatorKey>();
+
+    public SparkAccumulatorOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public Set<OperatorKey> getAccumulativeGroups() {
+        return accumulativeGroups;
+    }
+
+    public void optimize() throws VisitorException, PlanException {
+        List<POGlobalRearrange> globalRearranges = Lists.newArrayList();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator.getClass().equals(POGlobalRearrange.class)) {
+                globalRearranges.add((POGlobalRearrange)physicalOperator);
+            }
+        }
+        for (POGlobalRearrange globalRearrange : globalRearranges) {
+            optimize(globalRearrange);
+        }
+    }
+
+    private void optimize(POGlobalRearrange globalRearrange) throws VisitorException, PlanException {
+        List<PhysicalOperator> packages = physicalPlan.getSuccessors(globalRearrange);
+        if (packages == null || packages.size() != 1
+                || !packages.get(0).getClass().equals(POPackage.class)) {
+            return;
+        }
+        POPackage pkg = (POPackage)packages.get(0);
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(pkg);
+        if (successors == null || successors.size() != 1) {
+            return;
+        }
+        PhysicalOperator foreach = successors.get(0);
+
+        String scope = globalRearrange.getOperatorKey().scope;
+        MapReduceOper mr = new MapReduceOper(
+                new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        mr.reducePlan.add(pkg);
+        mr.reducePlan.add(foreach);
+        mr.reducePlan.connect(pkg, foreach);
+        MROperPlan mrPlan = new MROperPlan();
+        mrPlan.add(mr);
+
+        new AccumulatorOptimizer(mrPlan).visit();
+        // the temporary reduce plan resets the inputs of the operators it holds
+        pkg.setInputs(physicalPlan.getPredecessors(pkg));
+        foreach.setInputs(physicalPlan.getPredecessors(foreach));
+
+        if (pkg.isAccumulative()) {
+            LOG.info("Streaming the values of " + globalRearrange + " to accumulative UDFs");
+            accumulativeGroups.add(globalRearrange.getOperatorKey());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.CombinerOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.POPackageAnnotator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.python.google.common.collect.Lists;
+
+/**
+ * Introduces map-side combining for single input GROUPs whose foreach only uses algebraic
+ * functions. Rather than duplicating {@link CombinerOptimizer}, every candidate
+ * LocalRearrange -> GlobalRearrange -> Package -> ForEach chain is moved into a throw-away
+ * MapReduceOper, optimized there, and the resulting map and reduce plans are spliced back into
+ * the physical plan. The combine plan is remembered per POGlobalRearrange so that
+ * GlobalRearrangeConverter can run it inside combineByKey.
+ */
+public class SparkCombinerOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SparkCombinerOptimizer.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    // combine plans (POCombinerPackage -> ForEach -> LocalRearrange) keyed by POGlobalRearrange
+    private final Map<OperatorKey, PhysicalPlan> combinePlans = new HashMap<OperatorKey, PhysicalPlan>();
+
+    public SparkCombinerOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public Map<OperatorKey, PhysicalPlan> getCombinePlans() {
+        return combinePlans;
+    }
+
+    public void optimize() throws VisitorException, PlanException {
+        List<POGlobalRearrange> globalRearranges = Lists.newArrayList();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator.getClass().equals(POGlobalRearrange.class)) {
+                globalRearranges.add((POGlobalRearrange)physicalOperator);
+            }
+        }
+        for (POGlobalRearrange globalRearrange : globalRearranges) {
+            optimize(globalRearrange);
+        }
+    }
+
+    private void optimize(POGlobalRearrange globalRearrange) throws VisitorException, PlanException {
+        // single input GROUP only, same as the MapReduce combiner
+        List<PhysicalOperator> rearranges = physicalPlan.getPredecessors(globalRearrange);
+        if (rearranges == null || rearranges.size() != 1
+                || !rearranges.get(0).getClass().equals(POLocalRearrange.class)) {
+            return;
+        }
+        POLocalRearrange rearrange = (POLocalRearrange)rearranges.get(0);
+        List<PhysicalOperator> rearrangeInputs = physicalPlan.getPredecessors(rearrange);
+        if (rearrangeInputs == null || rearrangeInputs.size() != 1
+                || physicalPlan.getSuccessors(rearrange).size() != 1) {
+            return;
+        }
+
+        List<PhysicalOperator> packages = physicalPlan.getSuccessors(globalRearrange);
+        if (packages == null || packages.size() != 1
+                || !packages.get(0).getClass().equals(POPackage.class)) {
+            return;
+        }
+        POPackage pack = (POPackage)packages.get(0);
+
+        // Package -> [Limit ->] ForEach is all the MapReduce CombinerOptimizer looks at
+        List<PhysicalOperator> reduceChain = Lists.newArrayList();
+        reduceChain.add(pack);
+        PhysicalOperator successor = getSingleSuccessor(pack);
+        if (successor instanceof POLimit) {
+            reduceChain.add(successor);
+            successor = getSingleSuccessor(successor);
+        }
+        if (!(successor instanceof POForEach)) {
+            return;
+        }
+        reduceChain.add(successor);
+
+        String scope = globalRearrange.getOperatorKey().scope;
+        MapReduceOper mr = new MapReduceOper(
+                new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        mr.mapPlan.add(rearrange);
+        PhysicalOperator previous = null;
+        for (PhysicalOperator physicalOperator : reduceChain) {
+            mr.reducePlan.add(physicalOperator);
+            if (previous != null) {
+                mr.reducePlan.connect(previous, physicalOperator);
+            }
+            previous = physicalOperator;
+        }
+        MROperPlan mrPlan = new MROperPlan();
+        mrPlan.add(mr);
+
+        new CombinerOptimizer(mrPlan, false).visit();
+        if (mr.combinePlan.isEmpty()) {
+            // not combinable, but the reduce chain must still be wired as in the physical plan
+            reconnectReduceChain(reduceChain);
+            return;
+        }
+        new POPackageAnnotator(mrPlan).visit();
+
+        LOG.info("Using map-side combining for " + globalRearrange);
+
+        // LocalRearrange becomes PreCombinerLocalRearrange -> ForEach(Initial) -> LocalRearrange
+        PhysicalOperator input = rearrangeInputs.get(0);
+        physicalPlan.remove(rearrange);
+        previous = input;
+        PhysicalOperator mapOperator = mr.mapPlan.getRoots().get(0);
+        while (mapOperator != null) {
+            physicalPlan.add(mapOperator);
+            physicalPlan.connect(previous, mapOperator);
+            previous = mapOperator;
+            mapOperator = getSingleSuccessor(mr.mapPlan, mapOperator);
+        }
+        physicalPlan.connect(previous, globalRearrange);
+
+        // Package becomes POCombinerPackage, the ForEach now calls the Final functions
+        POPackage combinerPackage = (POPackage)mr.reducePlan.getRoots().get(0);
+        physicalPlan.replace(pack, combinerPackage);
+        reconnectReduceChain(Lists.newArrayList(mr.reducePlan.iterator()));
+
+        combinePlans.put(globalRearrange.getOperatorKey(), mr.combinePlan);
+    }
+
+    /**
+     * The temporary reduce plan resets the inputs of the operators it holds, so restore them
+     * from the physical plan.
+     */
+    private void reconnectReduceChain(List<PhysicalOperator> reduceChain) {
+        for (PhysicalOperator physicalOperator : reduceChain) {
+            physicalOperator.setInputs(physicalPlan.getPredecessors(physicalOperator));
+        }
+    }
+
+    private PhysicalOperator getSingleSuccessor(PhysicalOperator physicalOperator) {
+        return getSingleSuccessor(physicalPlan, physicalOperator);
+    }
+
+    private static PhysicalOperator getSingleSuccessor(PhysicalPlan plan, PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> successors = plan.getSuccessors(physicalOperator);
+        if (successors == null || successors.size() != 1) {
+            return null;
+        }
+        return successors.get(0);
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCross;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.data.DataType;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.python.google.common.collect.Lists;
+
+/**
+ * Replaces the plan of a CROSS built for MapReduce, where every input goes through a ForEach
+ * calling GFCross and a LocalRearrange, then a GlobalRearrange, a Package and a ForEach
+ * flattening the bags, with a single POCross reading the inputs themselves. CrossConverter runs
+ * it as a cartesian product.
+ */
+public class SparkCrossOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SparkCrossOptimizer.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    public SparkCrossOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public void optimize() throws PlanException {
+        List<POGlobalRearrange> globalRearranges = Lists.newArrayList();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator.getClass().equals(POGlobalRearrange.class)) {
+                globalRearranges.add((POGlobalRearrange)physicalOperator);
+            }
+        }
+        for (POGlobalRearrange globalRearrange : globalRearranges) {
+            optimize(globalRearrange);
+        }
+    }
+
+    private void optimize(POGlobalRearrange globalRearrange) throws PlanException {
+        List<PhysicalOperator> rearranges = physicalPlan.getPredecessors(globalRearrange);
+        if (rearranges == null) {
+            return;
+        }
+        PhysicalOperator[] inputs = new PhysicalOperator[rearranges.size()];
+        List<PhysicalOperator> crossPlan = Lists.newArrayList();
+        for (PhysicalOperator rearrange : rearranges) {
+            if (!(rearrange instanceof POLocalRearrange) || !((POLocalRearrange)rearrange).isCross()) {
+                return;
+            }
+            PhysicalOperator gfCross = getSinglePredecessor(rearrange);
+            if (!(gfCross instanceof POForEach) || physicalPlan.getSuccessors(gfCross).size() != 1) {
+                return;
+            }
+            PhysicalOperator input = getSinglePredecessor(gfCross);
+            int index = ((POLocalRearrange)rearrange).getIndex();
+            if (input == null || index >= inputs.length || inputs[index] != null) {
+                return;
+            }
+            for (PhysicalOperator other : inputs) {
+                if (other == input) {
+                    // a plan can't connect an input twice to the same operator
+                    return;
+                }
+            }
+            inputs[index] = input;
+            crossPlan.add(gfCross);
+            crossPlan.add(rearrange);
+        }
+
+        PhysicalOperator pack = getSingleSuccessor(globalRearrange);
+        if (!(pack instanceof POPackage)) {
+            return;
+        }
+        PhysicalOperator flatten = getSingleSuccessor(pack);
+        if (!(flatten instanceof POForEach) || !isFlattenOfBags((POForEach)flatten, inputs.length)) {
+            return;
+        }
+        crossPlan.add(globalRearrange);
+        crossPlan.add(pack);
+
+        String scope = flatten.getOperatorKey().scope;
+        POCross poCross = new POCross(new OperatorKey(scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(scope)), flatten.getRequestedParallelism());
+        poCross.addOriginalLocation(flatten.getAlias(), flatten.getOriginalLocations());
+        poCross.setResultType(DataType.TUPLE);
+        for (PhysicalOperator physicalOperator : crossPlan) {
+            physicalPlan.remove(physicalOperator);
+        }
+        // replace keeps the position of the flatten among the inputs of its successors
+        physicalPlan.replace(flatten, poCross);
+        for (PhysicalOperator input : inputs) {
+            physicalPlan.connect(input, poCross);
+        }
+        LOG.info("Replaced the GFCross plan of " + flatten + " with " + poCross);
+    }
+
+    /**
+     * @return whether forEach flattens the bags 1 to count of the package and nothing else, as
+     * the plan of a CROSS does
+     */
+    private static boolean isFlattenOfBags(POForEach forEach, int count) {
+        List<PhysicalPlan> plans = forEach.getInputPlans();
+        List<Boolean> flattened = forEach.getToBeFlattened();
+        if (plans == null || flattened == null || plans.size() != count || flattened.size() != count) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                PhysicalPlan plan = plans.get(i);
+                if (!flattened.get(i) || plan.size() != 1 || !(plan.getLeaves().get(0) instanceof POProject)) {
+                    return false;
+                }
+                POProject project = (POProject)plan.getLeaves().get(0);
+                if (project.isStar() || project.getColumn() != i + 1) {
+                    return false;
+                }
+            }
+        } catch (ExecException e) {
+            // a projection of several columns
+            return false;
+        }
+        return true;
+    }
+
+    private PhysicalOperator getSinglePredecessor(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(physicalOperator);
+        return predecessors == null || predecessors.size() != 1 ? null : predecessors.get(0);
+    }
+
+    private PhysicalOperator getSingleSuccessor(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(physicalOperator);
+        return successors == null || successors.size() != 1 ? null : successors.get(0);
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * Finds the single input GROUPs by a constant key, such as GROUP ALL, the physical counterpart
+ * of what GroupByConstParallelSetter recognizes in the logical plan. All the values of such a
+ * GROUP belong to one group, so GlobalRearrangeConverter aggregates them in a tree when the GROUP
+ * is combined, and streams them to a single partition otherwise. Must run before
+ * SparkCombinerOptimizer, which replaces the key plans of the POLocalRearrange.
+ */
+public class SparkGroupAllOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SparkGroupAllOptimizer.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    // the POGlobalRearranges of the GROUPs by a constant key
+    private final Set<OperatorKey> constantKeyGroups = new HashSet<OperatorKey>();
+
+    public SparkGroupAllOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public Set<OperatorKey> getConstantKeyGroups() {
+        return constantKeyGroups;
+    }
+
+    public void optimize() {
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator.getClass().equals(POGlobalRearrange.class)
+                    && isConstantKey((POGlobalRearrange)physicalOperator)) {
+                LOG.info("Grouping by a constant key in " + physicalOperator);
+                constantKeyGroups.add(physicalOperator.getOperatorKey());
+            }
+        }
+    }
+
+    private boolean isConstantKey(POGlobalRearrange globalRearrange) {
+        List<PhysicalOperator> rearranges = physicalPlan.getPredecessors(globalRearrange);
+        if (rearranges == null || rearranges.size() != 1
+                || !rearranges.get(0).getClass().equals(POLocalRearrange.class)) {
+            return false;
+        }
+        List<PhysicalPlan> keyPlans = ((POLocalRearrange)rearranges.get(0)).getPlans();
+        if (keyPlans == null || keyPlans.isEmpty()) {
+            return false;
+        }
+        for (PhysicalPlan keyPlan : keyPlans) {
+            if (keyPlan.size() != 1 || !(keyPlan.getLeaves().get(0) instanceof ConstantExpression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
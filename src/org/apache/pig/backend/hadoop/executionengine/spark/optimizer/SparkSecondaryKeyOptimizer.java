@@ -0,0 +1,138 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.optimizer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.SecondaryKeyOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.PlanException;
+import org.apache.pig.impl.plan.VisitorException;
+import org.python.google.common.collect.Lists;
+
+/**
+ * Pushes the nested ORDER BYs (and DISTINCTs) of a GROUP into its shuffle, with
+ * {@link SecondaryKeyOptimizer} run on a throw-away MapReduceOper like SparkCombinerOptimizer
+ * does: the LocalRearranges then emit (main key, secondary key) keys, the nested sorts are
+ * removed, and the sort order of the secondary key is remembered per POGlobalRearrange so that
+ * GlobalRearrangeConverter sorts each partition by it.
+ */
+public class SparkSecondaryKeyOptimizer {
+
+    private static final Log LOG = LogFactory.getLog(SparkSecondaryKeyOptimizer.class);
+
+    private final PhysicalPlan physicalPlan;
+
+    // sort orders of the secondary keys keyed by POGlobalRearrange
+    private final Map<OperatorKey, boolean[]> secondarySortOrders = new HashMap<OperatorKey, boolean[]>();
+
+    public SparkSecondaryKeyOptimizer(PhysicalPlan physicalPlan) {
+        this.physicalPlan = physicalPlan;
+    }
+
+    public Map<OperatorKey, boolean[]> getSecondarySortOrders() {
+        return secondarySortOrders;
+    }
+
+    public void optimize() throws VisitorException, PlanException {
+        List<POGlobalRearrange> globalRearranges = Lists.newArrayList();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator.getClass().equals(POGlobalRearrange.class)) {
+                globalRearranges.add((POGlobalRearrange)physicalOperator);
+            }
+        }
+        for (POGlobalRearrange globalRearrange : globalRearranges) {
+            optimize(globalRearrange);
+        }
+    }
+
+    private void optimize(POGlobalRearrange globalRearrange) throws VisitorException, PlanException {
+        List<PhysicalOperator> rearranges = physicalPlan.getPredecessors(globalRearrange);
+        if (rearranges == null) {
+            return;
+        }
+        for (PhysicalOperator rearrange : rearranges) {
+            if (!rearrange.getClass().equals(POLocalRearrange.class)) {
+                return;
+            }
+        }
+
+        List<PhysicalOperator> packages = physicalPlan.getSuccessors(globalRearrange);
+        if (packages == null || packages.size() != 1
+                || !packages.get(0).getClass().equals(POPackage.class)) {
+            return;
+        }
+
+        // Package -> [Filter | Limit]* -> ForEach is what SecondaryKeyOptimizer looks at
+        List<PhysicalOperator> reduceChain = Lists.newArrayList();
+        PhysicalOperator successor = packages.get(0);
+        while (successor instanceof POPackage || successor instanceof POFilter
+                || successor instanceof POLimit) {
+            reduceChain.add(successor);
+            successor = getSingleSuccessor(successor);
+        }
+        if (!(successor instanceof POForEach)) {
+            return;
+        }
+        reduceChain.add(successor);
+
+        String scope = globalRearrange.getOperatorKey().scope;
+        MapReduceOper mr = new MapReduceOper(
+                new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+        if (rearranges.size() == 1) {
+            mr.mapPlan.add(rearranges.get(0));
+        } else {
+            // the map plan of a COGROUP ends with a union of its LocalRearranges
+            POUnion union = new POUnion(
+                    new OperatorKey(scope, NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+            mr.mapPlan.add(union);
+            for (PhysicalOperator rearrange : rearranges) {
+                mr.mapPlan.add(rearrange);
+                mr.mapPlan.connect(rearrange, union);
+            }
+        }
+        PhysicalOperator previous = null;
+        for (PhysicalOperator physicalOperator : reduceChain) {
+            mr.reducePlan.add(physicalOperator);
+            if (previous != null) {
+                mr.reducePlan.connect(previous, physicalOperator);
+            }
+            previous = physicalOperator;
+        }
+        MROperPlan mrPlan = new MROperPlan();
+        mrPlan.add(mr);
+
+        new SecondaryKeyOptimizer(mrPlan).visit();
+        // the temporary reduce plan resets the inputs of the operators it holds
+        for (PhysicalOperator physicalOperator : reduceChain) {
+            physicalOperator.setInputs(physicalPlan.getPredecessors(physicalOperator));
+        }
+
+        if (mr.getUseSecondaryKey()) {
+            LOG.info("Using a secondary sort in the shuffle of " + globalRearrange);
+            secondarySortOrders.put(globalRearrange.getOperatorKey(), mr.getSecondarySortOrder());
+        }
+    }
+
+    private PhysicalOperator getSingleSuccessor(PhysicalOperator physicalOperator) {
+        List<PhysicalOperator> successors = physicalPlan.getSuccessors(physicalOperator);
+        if (successors == null || successors.size() != 1) {
+            return null;
+        }
+        return successors.get(0);
+    }
+}
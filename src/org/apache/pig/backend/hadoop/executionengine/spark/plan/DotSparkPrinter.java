@@ -0,0 +1,61 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plan;
+
+import java.io.PrintStream;
+import java.util.HashSet;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.impl.plan.DotPlanDumper;
+import org.apache.pig.impl.plan.Operator;
+
+/**
+ * Prints a SparkOperPlan in the DOT format, one node per stage listing its operators. The stages
+ * starting with a shuffle are grey and the ones whose output is persisted are blue.
+ */
+public class DotSparkPrinter extends DotPlanDumper<SparkOperator, SparkOperPlan,
+                                     PhysicalOperator, PhysicalPlan> {
+
+    public DotSparkPrinter(SparkOperPlan plan, PrintStream ps) {
+        super(plan, ps, false, new HashSet<Operator>(), new HashSet<Operator>(),
+              new HashSet<Operator>());
+    }
+
+    @Override
+    protected String getName(SparkOperator op) {
+        StringBuilder name = new StringBuilder("Stage " + op.getOperatorKey().toString());
+        if (op.isShuffle()) {
+            name.append("\\nShuffle: " + SparkPrinter.getShuffle(op));
+            name.append("\\nPartitioner: " + SparkPrinter.getPartitioner(op));
+            name.append(", Parallelism: " + SparkPrinter.getParallelism(op));
+        }
+        if (isVerbose()) {
+            for (PhysicalOperator physicalOperator : op.getOperators()) {
+                if (physicalOperator instanceof POPipeline) {
+                    for (PhysicalOperator fused : ((POPipeline)physicalOperator).getOperators()) {
+                        name.append("\\n" + fused.name());
+                    }
+                } else {
+                    name.append("\\n" + physicalOperator.name());
+                }
+            }
+        }
+        return name.toString().replace("\"", "\\\"");
+    }
+
+    @Override
+    protected String[] getAttributes(SparkOperator op) {
+        String fillColor = "white";
+        if (SparkPrinter.isPersisted(op)) {
+            fillColor = "#CCE0FF";
+        } else if (op.isShuffle()) {
+            fillColor = "#EEEEEE";
+        }
+        String[] attributes = new String[4];
+        attributes[0] = "label=\"" + getName(op) + "\"";
+        attributes[1] = "shape=\"box\"";
+        attributes[2] = "style=\"filled\"";
+        attributes[3] = "fillcolor=\"" + fillColor + "\"";
+        return attributes;
+    }
+}
@@ -0,0 +1,19 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plan;
+
+import org.apache.pig.impl.plan.PlanVisitor;
+import org.apache.pig.impl.plan.PlanWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * A visitor for the SparkOperPlan class
+ */
+public class SparkOpPlanVisitor extends PlanVisitor<SparkOperator, SparkOperPlan> {
+
+    public SparkOpPlanVisitor(SparkOperPlan plan, PlanWalker<SparkOperator, SparkOperPlan> walker) {
+        super(plan, walker);
+    }
+
+    public void visitSparkOp(SparkOperator sparkOperator) throws VisitorException {
+        // do nothing
+    }
+}
@@ -0,0 +1,14 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plan;
+
+import org.apache.pig.impl.plan.OperatorPlan;
+
+/**
+ * The stages of a Spark job and their dependencies, see SparkCompiler
+ */
+public class SparkOperPlan extends OperatorPlan<SparkOperator> {
+
+    private static final long serialVersionUID = 1L;
+
+    public SparkOperPlan() {
+    }
+}
@@ -0,0 +1,151 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plan;
+
+import java.util.List;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.ShuffleStrategy;
+import org.apache.pig.impl.plan.Operator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.python.google.common.collect.Lists;
+
+/**
+ * A stage of a Spark job: the physical operators computed one after the other in the same tasks,
+ * from a shuffle (or from the inputs) up to the next shuffle or to an output read by several
+ * operators. The operators stay in the physical plan, which is the one converted to RDDs.
+ */
+public class SparkOperator extends Operator<SparkOpPlanVisitor> {
+
+    private static final long serialVersionUID = 1L;
+
+    // in the order they are computed
+    private final List<PhysicalOperator> operators = Lists.newArrayList();
+
+    // whether the stage starts with a shuffle of its inputs
+    private final boolean shuffle;
+
+    // whether the output of the stage is read by several operators, and persisted
+    private boolean shared = false;
+
+    // whether the shuffle is reduced by a combiner on the map side
+    private boolean combined = false;
+
+    // whether the values are sorted by a secondary key in the shuffle
+    private boolean secondarySort = false;
+
+    // whether the values of each group are streamed to accumulative UDFs
+    private boolean accumulative = false;
+
+    // whether the GROUP has a constant key, all the values going to a single group
+    private boolean constantKey = false;
+
+    // how the input of the stage is shuffled, as picked by the converter of its head
+    private ShuffleStrategy shuffleStrategy = null;
+
+    // the number of partitions of the shuffle estimated from the input size, -1 if not estimated
+    private int estimatedParallelism = -1;
+
+    public SparkOperator(OperatorKey k, boolean shuffle) {
+        super(k);
+        this.shuffle = shuffle;
+    }
+
+    public void add(PhysicalOperator physicalOperator) {
+        operators.add(physicalOperator);
+    }
+
+    public List<PhysicalOperator> getOperators() {
+        return operators;
+    }
+
+    public PhysicalOperator getHead() {
+        return operators.get(0);
+    }
+
+    public PhysicalOperator getTail() {
+        return operators.get(operators.size() - 1);
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    public boolean isCombined() {
+        return combined;
+    }
+
+    public void setCombined(boolean combined) {
+        this.combined = combined;
+    }
+
+    public boolean isSecondarySort() {
+        return secondarySort;
+    }
+
+    public void setSecondarySort(boolean secondarySort) {
+        this.secondarySort = secondarySort;
+    }
+
+    public boolean isAccumulative() {
+        return accumulative;
+    }
+
+    public void setAccumulative(boolean accumulative) {
+        this.accumulative = accumulative;
+    }
+
+    public boolean isConstantKey() {
+        return constantKey;
+    }
+
+    public void setConstantKey(boolean constantKey) {
+        this.constantKey = constantKey;
+    }
+
+    /**
+     * @return how the input of the stage is shuffled, null if it isn't
+     */
+    public ShuffleStrategy getShuffleStrategy() {
+        return shuffleStrategy;
+    }
+
+    public void setShuffleStrategy(ShuffleStrategy shuffleStrategy) {
+        this.shuffleStrategy = shuffleStrategy;
+    }
+
+    public int getEstimatedParallelism() {
+        return estimatedParallelism;
+    }
+
+    public void setEstimatedParallelism(int estimatedParallelism) {
+        this.estimatedParallelism = estimatedParallelism;
+    }
+
+    @Override
+    public void visit(SparkOpPlanVisitor v) throws VisitorException {
+        v.visitSparkOp(this);
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsMultipleOutputs() {
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "Spark - " + mKey.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package org.apache.pig.backend.hadoop.executionengine.spark.plan;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCache;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkUtil;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.POConverter;
+import org.apache.pig.backend.hadoop.executionengine.spark.converter.ShuffleStrategy;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.impl.plan.DependencyOrderWalker;
+import org.apache.pig.impl.plan.VisitorException;
+import org.python.google.common.collect.Lists;
+import org.python.google.common.collect.Sets;
+
+/**
+ * Prints the stages of a SparkOperPlan with the converter of each operator, how the input of
+ * the stage is shuffled, and which outputs are persisted. In verbose mode, the estimated sizes
+ * of the inputs are printed too.
+ */
+public class SparkPrinter extends SparkOpPlanVisitor {
+
+    private final PrintStream mStream;
+    private final Map<Class<? extends PhysicalOperator>, POConverter> convertMap;
+    private final Configuration conf;
+    private boolean isVerbose = true;
+
+    /**
+     * @param ps PrintStream to output plan information to
+     * @param plan Spark plan to print
+     * @param convertMap the converters the operators are run with
+     * @param conf configuration to read the sizes of the inputs with
+     */
+    public SparkPrinter(PrintStream ps, SparkOperPlan plan,
+            Map<Class<? extends PhysicalOperator>, POConverter> convertMap, Configuration conf) {
+        super(plan, new DependencyOrderWalker<SparkOperator, SparkOperPlan>(plan));
+        this.mStream = ps;
+        this.convertMap = convertMap;
+        this.conf = conf;
+        mStream.println("#--------------------------------------------------");
+        mStream.println("# Spark Plan                                       ");
+        mStream.println("#--------------------------------------------------");
+    }
+
+    public void setVerbose(boolean verbose) {
+        isVerbose = verbose;
+    }
+
+    @Override
+    public void visit() throws VisitorException {
+        super.visit();
+        printStores();
+    }
+
+    @Override
+    public void visitSparkOp(SparkOperator stage) throws VisitorException {
+        mStream.println("Spark stage " + stage.getOperatorKey().toString());
+        List<SparkOperator> inputs = mPlan.getPredecessors(stage);
+        if (inputs != null) {
+            mStream.println("Input stages: " + getKeys(inputs));
+        }
+        mStream.println("Shuffle: " + getShuffle(stage));
+        if (stage.isShuffle()) {
+            mStream.println("Partitioner: " + getPartitioner(stage));
+            mStream.println("Parallelism: " + getParallelism(stage));
+        }
+        if (stage.isSecondarySort()) {
+            mStream.println("Secondary sort: true");
+        }
+        if (stage.isAccumulative()) {
+            mStream.println("Accumulative: true");
+        }
+        if (isPersisted(stage)) {
+            mStream.println("Persisted: true");
+        }
+        mStream.println("--------");
+        for (PhysicalOperator physicalOperator : stage.getOperators()) {
+            printOperator(physicalOperator, "");
+        }
+        mStream.println("----------------");
+        mStream.println("");
+    }
+
+    private void printOperator(PhysicalOperator physicalOperator, String indent) {
+        POConverter converter = convertMap.get(physicalOperator.getClass());
+        mStream.println(indent + physicalOperator.name() + " <- "
+                + (converter == null ? "unsupported" : converter.getClass().getSimpleName()));
+        if (physicalOperator instanceof POPipeline) {
+            for (PhysicalOperator fused : ((POPipeline)physicalOperator).getOperators()) {
+                mStream.println(indent + "|   " + fused.name());
+            }
+        }
+        if (isVerbose && physicalOperator instanceof POLoad) {
+            long size = SparkUtil.getInputSize((POLoad)physicalOperator, conf);
+            mStream.println(indent + "|   Estimated input size: "
+                    + (size < 0 ? "unknown" : size + " bytes"));
+        }
+    }
+
+    /**
+     * Prints the stages each store depends on, in the order they are computed.
+     */
+    private void printStores() {
+        for (SparkOperator stage : mPlan) {
+            for (PhysicalOperator physicalOperator : stage.getOperators()) {
+                if (physicalOperator instanceof POStore) {
+                    List<SparkOperator> lineage = Lists.newArrayList();
+                    addLineage(stage, lineage, Sets.<SparkOperator>newHashSet());
+                    mStream.println("Store " + ((POStore)physicalOperator).getSFile().getFileName()
+                            + " runs stages " + getKeys(lineage));
+                }
+            }
+        }
+        mStream.println("");
+    }
+
+    private void addLineage(SparkOperator stage, List<SparkOperator> lineage, Set<SparkOperator> seen) {
+        if (!seen.add(stage)) {
+            return;
+        }
+        List<SparkOperator> inputs = mPlan.getPredecessors(stage);
+        if (inputs != null) {
+            for (SparkOperator input : inputs) {
+                addLineage(input, lineage, seen);
+            }
+        }
+        lineage.add(stage);
+    }
+
+    private static String getKeys(List<SparkOperator> stages) {
+        StringBuilder sb = new StringBuilder();
+        for (SparkOperator stage : stages) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage.getOperatorKey().toString());
+        }
+        return sb.toString();
+    }
+
+    static String getShuffle(SparkOperator stage) {
+        ShuffleStrategy strategy = stage.getShuffleStrategy();
+        return strategy == null ? "none" : strategy.getDescription();
+    }
+
+    static String getPartitioner(SparkOperator stage) {
+        ShuffleStrategy strategy = stage.getShuffleStrategy();
+        return strategy == null ? "none" : strategy.getPartitioner();
+    }
+
+    static String getParallelism(SparkOperator stage) {
+        if (stage.getEstimatedParallelism() > 0) {
+            return stage.getEstimatedParallelism() + " (estimated)";
+        }
+        int parallelism = stage.getHead().getRequestedParallelism();
+        return parallelism > 0 ? String.valueOf(parallelism) : "default";
+    }
+
+    static boolean isPersisted(SparkOperator stage) {
+        if (stage.isShared()) {
+            return true;
+        }
+        for (PhysicalOperator physicalOperator : stage.getOperators()) {
+            if (physicalOperator instanceof POCache) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -187,6 +187,28 @@ public class ExecutableManager {
 
     }
 
+    /**
+     * Kills the process if it is still running, when its output is not read to the end, and stops
+     * the thread sending it input.
+     * @throws IOException
+     */
+    public void kill() throws IOException {
+        if (process == null) {
+            return;
+        }
+        try {
+            exitCode = process.exitValue();
+            return;
+        } catch (IllegalThreadStateException e) {
+            // still running
+        }
+        LOG.info("Killing the streaming binary, its output is no longer read: " + command);
+        killProcess(process);
+        if (stdinThread != null) {
+            stdinThread.interrupt();
+        }
+    }
+
     /**
      *  Helper function to close input and output streams
      *  to the process and kill it
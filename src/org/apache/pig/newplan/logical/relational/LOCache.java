@@ -30,10 +30,21 @@ import org.apache.pig.newplan.PlanVisitor;
  */
 public class LOCache extends LogicalRelationalOperator {
 
+    // how the relation is cached, null for the default
+    private String storageLevel;
+
     public LOCache(OperatorPlan plan) {
         super("LOCache", plan);
     }
 
+    public String getStorageLevel() {
+        return storageLevel;
+    }
+
+    public void setStorageLevel(String storageLevel) {
+        this.storageLevel = storageLevel;
+    }
+
     @Override
     public LogicalSchema getSchema() throws FrontendException {
         if (schema == null) {
@@ -1354,6 +1354,7 @@ public class LogToPhyTranslationVisitor extends LogicalRelationalNodesVisitor {
     public void visit(LOCache loCache) throws FrontendException {
         POCache poCache = new POCache(new OperatorKey(DEFAULT_SCOPE,
                 nodeGen.getNextNodeId(DEFAULT_SCOPE)), currentPlan);
+        poCache.setStorageLevel(loCache.getStorageLevel());
         currentPlan.add(poCache);
         logToPhyMap.put(loCache, poCache);
         Operator op = loCache.getPredecessor();
@@ -386,7 +386,7 @@ bin_expr : ^( BIN_EXPR cond expr expr )
 limit_clause : ^( LIMIT rel ( INTEGER | LONGINTEGER | expr ) )
 ;
 
-rel_cache_clause : ^( CACHE IDENTIFIER)
+rel_cache_clause : ^( CACHE IDENTIFIER QUOTEDSTRING? )
 ;
 
 sample_clause : ^( SAMPLE rel ( DOUBLENUMBER | expr ) )
@@ -182,8 +182,8 @@ realias_clause : alias EQUAL identifier
 rel_cache_statement : rel_cache_clause SEMI_COLON!
 ;
 
-rel_cache_clause : CACHE alias
-    -> ^(CACHE alias)
+rel_cache_clause : CACHE alias ( USING QUOTEDSTRING )?
+    -> ^(CACHE alias QUOTEDSTRING?)
 ;
 
 parallel_clause : PARALLEL^ INTEGER
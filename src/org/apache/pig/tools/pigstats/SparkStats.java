@@ -1,9 +1,22 @@
 package org.apache.pig.tools.pigstats;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobClient;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.impl.PigContext;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -12,13 +25,156 @@ import java.util.Properties;
  * @author billg
  */
 public class SparkStats extends PigStats {
+    private static final Log LOG = LogFactory.getLog(SparkStats.class);
+
     private List<OutputStats> outputStatsList = new ArrayList<OutputStats>();
+    private List<InputStats> inputStatsList = new ArrayList<InputStats>();
+    private Map<String, OperatorStats> operatorStats = new LinkedHashMap<String, OperatorStats>();
     private JobGraph jobGraph = new JobGraph();
+    private PigContext pigContext;
+    private long startTime = -1;
+    private long endTime = -1;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    private long cacheEvictions = 0;
+    private long cacheMemorySize = 0;
+
+    /**
+     * Tuples read and produced by a physical operator, and the time spent in the operator itself,
+     * not in the operators pipelined before it. Only the operators whose converter counts them
+     * have statistics.
+     */
+    public static class OperatorStats {
+        private final String name;
+        private final long tuplesIn;
+        private final long tuplesOut;
+        private final long timeMillis;
+
+        public OperatorStats(String name, long tuplesIn, long tuplesOut, long timeMillis) {
+            this.name = name;
+            this.tuplesIn = tuplesIn;
+            this.tuplesOut = tuplesOut;
+            this.timeMillis = timeMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the tuples read, or -1 if one of the operators it reads from is not counted
+         */
+        public long getTuplesIn() {
+            return tuplesIn;
+        }
+
+        public long getTuplesOut() {
+            return tuplesOut;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": in=" + tuplesIn + " out=" + tuplesOut + " time=" + timeMillis + "ms";
+        }
+    }
+
+    public SparkStats(PigContext pigContext) {
+        this.pigContext = pigContext;
+    }
+
+    public void markStarted() {
+        startTime = System.currentTimeMillis();
+    }
 
-    public void addOutputInfo(POStore poStore, long totalBytes, long totalRecords, boolean success) {
+    public void stop() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public OutputStats addOutputInfo(POStore poStore, long totalBytes, long totalRecords, boolean success) {
         OutputStats outputStats = new OutputStats(poStore.getSFile().getFileName(), totalBytes, totalRecords, success);
         outputStats.setPOStore(poStore);
         outputStatsList.add(outputStats);
+        return outputStats;
+    }
+
+    public InputStats addInputInfo(String location, long totalBytes, long totalRecords, boolean success) {
+        InputStats inputStats = new InputStats(location, totalBytes, totalRecords, success);
+        inputStatsList.add(inputStats);
+        return inputStats;
+    }
+
+    public void addOperatorStats(OperatorStats stats) {
+        operatorStats.put(stats.getName(), stats);
+    }
+
+    /**
+     * @return the statistics of every physical operator, by operator name
+     */
+    public Map<String, OperatorStats> getOperatorStats() {
+        return Collections.unmodifiableMap(operatorStats);
+    }
+
+    /**
+     * Sets the statistics of the CACHE statements, accumulated since the SparkContext started.
+     */
+    public void setCacheStats(long hits, long misses, long evictions, long memorySize) {
+        this.cacheHits = hits;
+        this.cacheMisses = misses;
+        this.cacheEvictions = evictions;
+        this.cacheMemorySize = memorySize;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    /**
+     * @return the estimated size in bytes of the cached relations kept in memory
+     */
+    public long getCacheMemorySize() {
+        return cacheMemorySize;
+    }
+
+    /**
+     * @return the size in bytes of an hdfs location, or -1 if it is unknown
+     */
+    public static long getLocationSize(String location, Configuration conf) {
+        URI uri = null;
+        try {
+            uri = new URI(location);
+        } catch (URISyntaxException e) {
+            LOG.warn("invalid syntax for location: " + location, e);
+        }
+        long bytes = -1;
+        if (uri != null && (uri.getScheme() == null || uri.getScheme().equalsIgnoreCase("hdfs")
+                || uri.getScheme().equalsIgnoreCase("file"))) {
+            try {
+                Path p = new Path(location);
+                FileSystem fs = p.getFileSystem(conf);
+                FileStatus[] lst = fs.globStatus(p);
+                if (lst != null && lst.length > 0) {
+                    bytes = 0;
+                    for (FileStatus status : lst) {
+                        bytes += fs.getContentSummary(status.getPath()).getLength();
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("unable to get the size of " + location, e);
+            }
+        }
+        return bytes;
     }
 
     @Override
@@ -41,17 +197,23 @@ public class SparkStats extends PigStats {
 
     @Override
     public Map<String, List<PigStats>> getAllStats() {
-        return null;
+        return Collections.<String, List<PigStats>>singletonMap(getScriptId(),
+                Collections.<PigStats>singletonList(this));
     }
 
     @Override
     public List<String> getAllErrorMessages() {
-        return null;
+        List<String> messages = new ArrayList<String>();
+        if (getErrorMessage() != null) {
+            messages.add(getErrorMessage());
+        }
+        return messages;
     }
 
     @Override
     public Properties getPigProperties() {
-        return null;
+        if (pigContext == null) return null;
+        return pigContext.getProperties();
     }
 
     @Override
@@ -61,29 +223,70 @@ public class SparkStats extends PigStats {
 
     @Override
     public List<String> getOutputLocations() {
-        return null;
+        ArrayList<String> locations = new ArrayList<String>();
+        for (OutputStats output : outputStatsList) {
+            locations.add(output.getLocation());
+        }
+        return Collections.unmodifiableList(locations);
     }
 
     @Override
     public List<String> getOutputNames() {
-        return null;
+        ArrayList<String> names = new ArrayList<String>();
+        for (OutputStats output : outputStatsList) {
+            names.add(output.getName());
+        }
+        return Collections.unmodifiableList(names);
     }
 
     @Override
     public long getNumberBytes(String location) {
-        return 0;
+        OutputStats output = getOutput(location);
+        return output == null ? -1 : output.getBytes();
     }
 
     @Override
     public long getNumberRecords(String location) {
-        return 0;
+        OutputStats output = getOutput(location);
+        return output == null ? -1 : output.getNumberRecords();
     }
 
     @Override
     public String getOutputAlias(String location) {
+        OutputStats output = getOutput(location);
+        return output == null ? null : output.getAlias();
+    }
+
+    /**
+     * @return the output stored at location, compared once both are fully qualified, so that
+     * outputs with the same file name in different directories are not mistaken for each other
+     */
+    private OutputStats getOutput(String location) {
+        if (location == null) return null;
+        Configuration conf = pigContext == null ? new Configuration()
+                : ConfigurationUtil.toConfiguration(pigContext.getProperties());
+        String qualified = qualify(location, conf);
+        for (OutputStats output : outputStatsList) {
+            if (output.getLocation() != null && qualified.equals(qualify(output.getLocation(), conf))) {
+                return output;
+            }
+        }
         return null;
     }
 
+    private static String qualify(String location, Configuration conf) {
+        try {
+            Path path = new Path(location);
+            return path.getFileSystem(conf).makeQualified(path).toString();
+        } catch (IOException e) {
+            LOG.debug("unable to qualify " + location, e);
+            return location;
+        } catch (IllegalArgumentException e) {
+            LOG.debug("unable to qualify " + location, e);
+            return location;
+        }
+    }
+
     @Override
     public long getSMMSpillCount() {
         return 0;
@@ -101,32 +304,43 @@ public class SparkStats extends PigStats {
 
     @Override
     public long getBytesWritten() {
-        return 0;
+        long ret = 0;
+        for (OutputStats output : outputStatsList) {
+            if (output.getBytes() > 0) ret += output.getBytes();
+        }
+        return ret;
     }
 
     @Override
     public long getRecordWritten() {
-        return 0;
+        long ret = 0;
+        for (OutputStats output : outputStatsList) {
+            if (output.getNumberRecords() > 0) ret += output.getNumberRecords();
+        }
+        return ret;
     }
 
     @Override
     public String getScriptId() {
-        return null;
+        return ScriptState.get().getId();
     }
 
     @Override
     public String getFeatures() {
-        return null;
+        return ScriptState.get().getScriptFeatures();
     }
 
     @Override
     public long getDuration() {
-        return 0;
+        return (startTime > 0 && endTime > 0) ? (endTime - startTime) : -1;
     }
 
+    /**
+     * Every store runs as its own Spark job.
+     */
     @Override
     public int getNumberJobs() {
-        return 0;
+        return outputStatsList.size();
     }
 
     @Override
@@ -136,11 +350,16 @@ public class SparkStats extends PigStats {
 
     @Override
     public OutputStats result(String alias) {
+        for (OutputStats output : outputStatsList) {
+            if (alias.equals(output.getAlias())) {
+                return output;
+            }
+        }
         return null;
     }
 
     @Override
     public List<InputStats> getInputStats() {
-        return null;
+        return Collections.unmodifiableList(inputStatsList);
     }
 }
@@ -4,28 +4,69 @@ import static org.apache.pig.builtin.mock.Storage.bag;
 import static org.apache.pig.builtin.mock.Storage.tuple;
 import static org.junit.Assert.assertEquals;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Iterator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Level;
+import org.apache.pig.Accumulator;
+import org.apache.pig.Algebraic;
+import org.apache.pig.EvalFunc;
 import org.apache.pig.ExecType;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.UDFFinder;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POGlobalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.spark.PigSerializer;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkCompiler;
+import org.apache.pig.backend.hadoop.executionengine.spark.SparkSession;
+import org.apache.pig.backend.hadoop.executionengine.spark.operator.POPipeline;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperPlan;
+import org.apache.pig.backend.hadoop.executionengine.spark.plan.SparkOperator;
 import org.apache.pig.builtin.mock.Storage;
 import org.apache.pig.builtin.mock.Storage.Data;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.NullableText;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.logicalLayer.schema.Schema;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.test.TestMapSideCogroup;
+import org.apache.pig.test.Util;
+import org.apache.pig.tools.pigstats.PigStats;
 import org.junit.Assert;
 import org.junit.Test;
 
+import scala.Tuple2;
+import spark.SerializerInstance;
+
 public class TestSpark {
 
     private static final ExecType MODE = ExecType.SPARK;
@@ -86,6 +127,33 @@ public class TestSpark {
         assertEquals(Arrays.asList(tuple("test1"), tuple("test2")), resultList);
     }
 
+    @Test
+    public void testDumpOverPartitions() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a"),
+                tuple("b"),
+                tuple("c"),
+                tuple("a"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = GROUP A BY $0 PARALLEL 3;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, COUNT(A);");
+
+        // the partitions are read one after the other
+        List<Tuple> resultList = new ArrayList<Tuple>();
+        Iterator<Tuple> result = pigServer.openIterator("C");
+        while (result.hasNext()) {
+            resultList.add(result.next());
+        }
+        assertEquals(Arrays.asList(tuple("a", 2L), tuple("b", 1L), tuple("c", 1L)),
+                sortByIndex(resultList, 0));
+
+        // stopping early leaves the other partitions uncomputed
+        Assert.assertTrue(pigServer.openIterator("C").hasNext());
+    }
+
     @Test
     public void testGroupBy() throws Exception {
         PigServer pigServer = newPigServer();
@@ -161,6 +229,146 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testAlgebraicGroupBy() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("key1", 1),
+                tuple("key1", 2),
+                tuple("key2", 3),
+                tuple("key1", 4));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (k:chararray, v:int);");
+        pigServer.registerQuery("B = GROUP A BY k;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, COUNT(A), SUM(A.v), MAX(A.v);");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(tuple("key1", 3l, 7l, 4), tuple("key2", 1l, 3l, 3)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    /**
+     * COUNT recording the number of partial counts its Final step adds up.
+     */
+    public static class CombinedCount extends EvalFunc<Long> implements Algebraic {
+        private static final AtomicInteger largestFinalInput = new AtomicInteger();
+
+        @Override
+        public Long exec(Tuple input) throws IOException {
+            return ((DataBag)input.get(0)).size();
+        }
+
+        public String getInitial() {
+            return Initial.class.getName();
+        }
+
+        public String getIntermed() {
+            return Intermediate.class.getName();
+        }
+
+        public String getFinal() {
+            return Final.class.getName();
+        }
+
+        private static long sum(Tuple input) throws ExecException {
+            long sum = 0;
+            for (Tuple partial : (DataBag)input.get(0)) {
+                sum += (Long)partial.get(0);
+            }
+            return sum;
+        }
+
+        public static class Initial extends EvalFunc<Tuple> {
+            @Override
+            public Tuple exec(Tuple input) throws IOException {
+                return tuple(((DataBag)input.get(0)).size());
+            }
+        }
+
+        public static class Intermediate extends EvalFunc<Tuple> {
+            @Override
+            public Tuple exec(Tuple input) throws IOException {
+                return tuple(sum(input));
+            }
+        }
+
+        public static class Final extends EvalFunc<Long> {
+            @Override
+            public Long exec(Tuple input) throws IOException {
+                int size = (int)((DataBag)input.get(0)).size();
+                if (size > largestFinalInput.get()) {
+                    largestFinalInput.set(size);
+                }
+                return sum(input);
+            }
+        }
+    }
+
+    /**
+     * Counts the values of a bag, recording the largest batch it is given.
+     */
+    public static class BatchCount extends EvalFunc<Long> implements Accumulator<Long> {
+        private static final AtomicInteger largestBatch = new AtomicInteger();
+        private static final AtomicInteger batches = new AtomicInteger();
+
+        private long count = 0;
+
+        @Override
+        public Long exec(Tuple input) throws IOException {
+            accumulate(input);
+            Long value = getValue();
+            cleanup();
+            return value;
+        }
+
+        public void accumulate(Tuple input) throws IOException {
+            int size = (int)((DataBag)input.get(0)).size();
+            if (size > largestBatch.get()) {
+                largestBatch.set(size);
+            }
+            batches.incrementAndGet();
+            count += size;
+        }
+
+        public Long getValue() {
+            return count;
+        }
+
+        public void cleanup() {
+            count = 0;
+        }
+    }
+
+    @Test
+    public void testCombineThreshold() throws Exception {
+        // the values of a key are combined once there are pig.spark.combine.threshold of them,
+        // the default threshold is above the size of the group
+        for (String threshold : Arrays.asList("2", null)) {
+            Properties properties = new Properties();
+            if (threshold != null) {
+                properties.setProperty("pig.spark.combine.threshold", threshold);
+            }
+            PigServer pigServer = new PigServer(MODE, properties);
+            Data data = Storage.resetData(pigServer);
+            List<Tuple> input = new ArrayList<Tuple>();
+            for (int i = 0; i < 10; i++) {
+                input.add(tuple("k", i));
+            }
+            data.set("input", input);
+            CombinedCount.largestFinalInput.set(0);
+
+            pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (k:chararray, v:int);");
+            pigServer.registerQuery("B = GROUP A BY k;");
+            pigServer.registerQuery("C = FOREACH B GENERATE group, " + CombinedCount.class.getName() + "(A);");
+            pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+            assertEquals(Arrays.asList(tuple("k", 10L)), data.get("output"));
+            assertEquals(threshold == null ? 10 : 1, CombinedCount.largestFinalInput.get());
+        }
+    }
+
     @Test
     public void testCountWithNoData() throws Exception {
         PigServer pigServer = new PigServer(ExecType.SPARK);
@@ -250,6 +458,82 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testFilterForEachChain() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1", bag(tuple("a"), tuple("b"))),
+                tuple("2", bag(tuple("c"))),
+                tuple("1", bag(tuple("d"))));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, b:bag{t:(c:chararray)});");
+        pigServer.registerQuery("B = FILTER A BY s == '1';");
+        pigServer.registerQuery("C = FOREACH B GENERATE s, FLATTEN(b);");
+        pigServer.registerQuery("D = FILTER C BY c != 'b';");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(tuple("1", "a"), tuple("1", "d")),
+                data.get("output"));
+    }
+
+    @Test
+    public void testMultipleStores() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1"),
+                tuple("2"),
+                tuple("3"),
+                tuple("1"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = FILTER A BY $0 == '1';");
+        pigServer.registerQuery("C = FILTER A BY $0 != '1';");
+        pigServer.registerQuery("STORE A INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE B INTO 'output2' using mock.Storage;");
+        pigServer.registerQuery("STORE C INTO 'output3' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple("1"), tuple("2"), tuple("3"), tuple("1")),
+                data.get("output1"));
+        assertEquals(
+                Arrays.asList(tuple("1"), tuple("1")),
+                data.get("output2"));
+        assertEquals(
+                Arrays.asList(tuple("2"), tuple("3")),
+                data.get("output3"));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1"),
+                tuple("2"),
+                tuple("3"),
+                tuple("1"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = FILTER A BY $0 == '1';");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+        List<ExecJob> jobs = pigServer.executeBatch();
+
+        PigStats stats = jobs.get(0).getStatistics();
+        assertEquals(1, stats.getOutputStats().size());
+        assertEquals(2, stats.getOutputStats().get(0).getNumberRecords());
+        assertEquals(2, stats.getNumberRecords(stats.getOutputLocations().get(0)));
+        assertEquals(-1, stats.getNumberRecords("elsewhere/output"));
+        assertEquals(1, stats.getInputStats().size());
+        assertEquals(4, stats.getInputStats().get(0).getNumberRecords());
+        assertEquals(2, stats.getRecordWritten());
+    }
+
     @Test
     public void testDistinct() throws Exception {
         PigServer pigServer = newPigServer();
@@ -269,6 +553,28 @@ public class TestSpark {
                 sortByIndex(data.get("output"), 0));
     }
 
+    @Test
+    public void testDistinctAcrossPartitions() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1", 1),
+                tuple("2", 2),
+                tuple("1", 1),
+                tuple("1", 2));
+
+        // the duplicates are removed in each partition of the union, then after the shuffle
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = DISTINCT C PARALLEL 2;");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        List<Tuple> output = new ArrayList<Tuple>(data.get("output"));
+        Collections.sort(output);
+        assertEquals(Arrays.asList(tuple("1", 1), tuple("1", 2), tuple("2", 2)), output);
+    }
+
     @Test
     public void testLimit() throws Exception {
         PigServer pigServer = newPigServer();
@@ -288,6 +594,187 @@ public class TestSpark {
                 data.get("output"));
     }
 
+    @Test
+    public void testLimitOverPartitions() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("1"),
+                tuple("2"),
+                tuple("3"),
+                tuple("4"),
+                tuple("5"),
+                tuple("6"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (v:chararray);");
+        pigServer.registerQuery("B = GROUP A BY v PARALLEL 3;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group;");
+        pigServer.registerQuery("D = LIMIT C 2;");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        // global limit, not 2 tuples per partition: the partitions are read in order and the
+        // first one, which holds the keys whose hash code is a multiple of 3, is enough
+        List<Tuple> output = new ArrayList<Tuple>(data.get("output"));
+        Collections.sort(output);
+        assertEquals(Arrays.asList(tuple("3"), tuple("6")), output);
+    }
+
+    @Test
+    public void testOrderByLimit() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 5),
+                tuple("b", 1),
+                tuple("c", 7),
+                tuple("d", 3));
+        data.set("input2",
+                tuple("e", 6),
+                tuple("f", 2));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = ORDER C BY i DESC;");
+        pigServer.registerQuery("E = LIMIT D 3;");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("E", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: top-K per partition, merged in a single partition"));
+
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(tuple("c", 7), tuple("e", 6), tuple("a", 5)),
+                data.get("output"));
+    }
+
+    @Test
+    public void testOrderByLimitWithTies() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 2),
+                tuple("b", 3),
+                tuple("c", 2));
+        data.set("input2",
+                tuple("d", 1),
+                tuple("e", 2));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = ORDER C BY i;");
+        pigServer.registerQuery("E = LIMIT D 3;");
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
+
+        // any two of the tuples tied on 2 may be kept, but exactly two of them
+        List<Tuple> output = data.get("output");
+        assertEquals(3, output.size());
+        assertEquals(tuple("d", 1), output.get(0));
+        Set<Tuple> tied = new HashSet<Tuple>(Arrays.asList(tuple("a", 2), tuple("c", 2), tuple("e", 2)));
+        for (Tuple t : output.subList(1, 3)) {
+            Assert.assertTrue(t + " is not tied on 2", tied.contains(t));
+        }
+        Assert.assertFalse(output.get(1).equals(output.get(2)));
+    }
+
+    @Test
+    public void testOrderByLimitLargerThanInput() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 5),
+                tuple("b", 1));
+        data.set("input2",
+                tuple("c", 3));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = ORDER C BY i DESC;");
+        pigServer.registerQuery("E = LIMIT D 10;");
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(tuple("a", 5), tuple("c", 3), tuple("b", 1)),
+                data.get("output"));
+    }
+
+    @Test
+    public void testOrderByLimitLargerThanTopKMax() throws Exception {
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        // a limit of 4 is too large for a top-K
+        properties.put("pig.spark.sort.topk.max", "1");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 5),
+                tuple("b", 1),
+                tuple("c", 7),
+                tuple("d", 3));
+        data.set("input2",
+                tuple("e", 6),
+                tuple("f", 2));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = ORDER C BY i DESC PARALLEL 3;");
+        pigServer.registerQuery("E = LIMIT D 4;");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("E", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: sampled, sorted per partition"));
+
+        // the limit spans the range partitions, which are read back in order
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(tuple("c", 7), tuple("e", 6), tuple("a", 5), tuple("d", 3)),
+                data.get("output"));
+    }
+
+    @Test
+    public void testOrderBy() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("b", 1),
+                tuple("a", 2),
+                tuple("c", 3),
+                tuple("a", 4));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = ORDER A BY s ASC, i DESC PARALLEL 2;");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(tuple("a", 4), tuple("a", 2), tuple("b", 1), tuple("c", 3)),
+                data.get("output"));
+    }
+
+    @Test
+    public void testOrderByReplicatedJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "c"),
+                tuple(2, "a"),
+                tuple(1, "b"));
+        data.set("input2",
+                tuple(1, "x"),
+                tuple(2, "y"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage as (k:int, v:chararray);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (k:int, w:chararray);");
+        pigServer.registerQuery("C = JOIN A BY k, B BY k USING 'replicated';");
+        // the sample of the ORDER BY reads the join, whose input is broadcast first
+        pigServer.registerQuery("D = ORDER C BY v PARALLEL 2;");
+        pigServer.registerQuery("STORE D INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(tuple(2, "a", 2, "y"), tuple(1, "b", 1, "x"), tuple(1, "c", 1, "x")),
+                data.get("output"));
+    }
+
     @Test
     public void testCoGroup() throws Exception {
         PigServer pigServer = newPigServer();
@@ -347,37 +834,1275 @@ public class TestSpark {
     }
 
     @Test
-    public void testCachingLoad() throws Exception {
+    public void testReplicatedJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(2, "b"),
+                tuple(3, "c"),
+                tuple(1, "d"));
+        data.set("input2",
+                tuple(1, "e"),
+                tuple(2, "f"),
+                tuple(1, "g"));
 
-        testCaching("A = LOAD 'input' using mock.Storage;" +
-                "CACHE A;" +
-                "STORE A INTO 'output' using mock.Storage;");
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = JOIN A BY $0, B BY $0 USING 'replicated';");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "e"),
+                        tuple(1, "a", 1, "g"),
+                        tuple(1, "d", 1, "e"),
+                        tuple(1, "d", 1, "g"),
+                        tuple(2, "b", 2, "f")
+                        ),
+                        sortByIndex(data.get("output"), 0));
     }
 
     @Test
-    public void testCachingLoadCast() throws Exception {
+    public void testReplicatedJoinOfReplicatedJoin() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(2, "b"));
+        data.set("input2",
+                tuple(1, "c"),
+                tuple(3, "d"));
+        data.set("input3",
+                tuple(1, "e"),
+                tuple(2, "f"),
+                tuple(1, "g"));
 
-        testCaching("A = LOAD 'input' using mock.Storage as (foo:chararray);" +
-                "CACHE A;" +
-                "STORE A INTO 'output' using mock.Storage;");
-    }
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = JOIN A BY $0, B BY $0 USING 'replicated';");
+        pigServer.registerQuery("D = LOAD 'input3' using mock.Storage;");
+        // the replicated input C is itself a replicated join, whose input is broadcast first
+        pigServer.registerQuery("E = JOIN D BY $0, C BY $0 USING 'replicated';");
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
 
-    @Test
-    public void testCachingWithFilter() throws Exception {
-        testCaching("A = LOAD 'input' using mock.Storage; " +
-                "B = FILTER A by $0 == $0;" + // useless filter
-                "A = FOREACH B GENERATE (chararray) $0;" +
-                "CACHE A;" +
-                "STORE A INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "e", 1, "a", 1, "c"),
+                        tuple(1, "g", 1, "a", 1, "c")
+                        ),
+                        sortByIndex(data.get("output"), 1));
     }
 
     @Test
-    public void testCachingJoin() throws Exception {
-        testCaching("A = LOAD 'input' using mock.Storage; " +
-                "B = LOAD 'input' using mock.Storage; " +
-                "A = JOIN A by $0, B by LOWER($0); " +
-                "CACHE A; " +
-                "STORE A INTO 'output' using mock.Storage;");
+    public void testSkewedJoin() throws Exception {
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        // a partition holds at most 2 tuples of a key: key 1 is skewed
+        properties.put("pig.skewedjoin.reduce.maxtuple", "2");
+        properties.put("pig.sksampler.samplerate", "1000000");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(2, "b"),
+                tuple(1, "c"),
+                tuple(3, "d"),
+                tuple(1, "e"),
+                tuple(1, "f"));
+        data.set("input2",
+                tuple(1, "x"),
+                tuple(2, "y"),
+                tuple(4, "z"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = JOIN A BY $0, B BY $0 USING 'skewed' PARALLEL 3;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "x"),
+                        tuple(2, "b", 2, "y"),
+                        tuple(1, "c", 1, "x"),
+                        tuple(1, "e", 1, "x"),
+                        tuple(1, "f", 1, "x")
+                        ),
+                        sortByIndex(data.get("output"), 1));
+    }
+
+    @Test
+    public void testSkewedLeftOuterJoin() throws Exception {
+        assertEquals(
+                Arrays.asList(
+                        tuple(1, "a", 1, "x"),
+                        tuple(1, "c", 1, "x"),
+                        tuple(1, "e", 1, "x"),
+                        tuple(1, "f", 1, "x"),
+                        tuple(2, "b", 2, "y"),
+                        tuple(3, "d", null, null),
+                        tuple(5, "g", null, null),
+                        tuple(5, "h", null, null),
+                        tuple(5, "i", null, null),
+                        tuple(5, "j", null, null)
+                        ),
+                skewedOuterJoin("LEFT"));
+    }
+
+    @Test
+    public void testSkewedRightOuterJoin() throws Exception {
+        // the right row of the skewed key 1 is joined once with every left row, never padded
+        assertEquals(
+                Arrays.asList(
+                        tuple(null, null, 4, "z"),
+                        tuple(1, "a", 1, "x"),
+                        tuple(1, "c", 1, "x"),
+                        tuple(1, "e", 1, "x"),
+                        tuple(1, "f", 1, "x"),
+                        tuple(2, "b", 2, "y")
+                        ),
+                skewedOuterJoin("RIGHT"));
+    }
+
+    @Test
+    public void testSkewedFullOuterJoin() throws Exception {
+        assertEquals(
+                Arrays.asList(
+                        tuple(null, null, 4, "z"),
+                        tuple(1, "a", 1, "x"),
+                        tuple(1, "c", 1, "x"),
+                        tuple(1, "e", 1, "x"),
+                        tuple(1, "f", 1, "x"),
+                        tuple(2, "b", 2, "y"),
+                        tuple(3, "d", null, null),
+                        tuple(5, "g", null, null),
+                        tuple(5, "h", null, null),
+                        tuple(5, "i", null, null),
+                        tuple(5, "j", null, null)
+                        ),
+                skewedOuterJoin("FULL"));
+    }
+
+    /**
+     * Joins an input with the skewed keys 1, which has a match, and 5, which hasn't.
+     * @return the output sorted by its string form, the rows padded on the left first
+     */
+    private List<Tuple> skewedOuterJoin(String type) throws Exception {
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        properties.put("pig.skewedjoin.reduce.maxtuple", "2");
+        properties.put("pig.sksampler.samplerate", "1000000");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1, "a"),
+                tuple(2, "b"),
+                tuple(1, "c"),
+                tuple(3, "d"),
+                tuple(1, "e"),
+                tuple(1, "f"),
+                tuple(5, "g"),
+                tuple(5, "h"),
+                tuple(5, "i"),
+                tuple(5, "j"));
+        data.set("input2",
+                tuple(1, "x"),
+                tuple(2, "y"),
+                tuple(4, "z"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage as (k:int, v:chararray);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (k:int, v:chararray);");
+        pigServer.registerQuery("C = JOIN A BY k " + type + " OUTER, B BY k USING 'skewed' PARALLEL 3;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        List<Tuple> result = new ArrayList<Tuple>(data.get("output"));
+        Collections.sort(result, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple o1, Tuple o2) {
+                return o1.toString().compareTo(o2.toString());
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void testCachingLoad() throws Exception {
+
+        testCaching("A = LOAD 'input' using mock.Storage;" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+    }
+
+    @Test
+    public void testCachingLoadCast() throws Exception {
+
+        testCaching("A = LOAD 'input' using mock.Storage as (foo:chararray);" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+    }
+
+    @Test
+    public void testCachingWithFilter() throws Exception {
+        testCaching("A = LOAD 'input' using mock.Storage; " +
+                "B = FILTER A by $0 == $0;" + // useless filter
+                "A = FOREACH B GENERATE (chararray) $0;" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+    }
+
+    @Test
+    public void testCachingJoin() throws Exception {
+        testCaching("A = LOAD 'input' using mock.Storage; " +
+                "B = LOAD 'input' using mock.Storage; " +
+                "A = JOIN A by $0, B by LOWER($0); " +
+                "CACHE A; " +
+                "STORE A INTO 'output' using mock.Storage;");
+    }
+
+    @Test
+    public void testCachingWithStorageLevel() throws Exception {
+        testCaching("A = LOAD 'input' using mock.Storage; " +
+                "A = FILTER A by $0 != 'foo';" +
+                "CACHE A USING 'MEMORY_AND_DISK_SER';" +
+                "STORE A INTO 'output' using mock.Storage;");
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        // nothing fits: the cached relation is evicted once the script is done
+        properties.put("pig.spark.cache.memory.budget", "0");
+        PigServer pigServer = new PigServer(MODE, properties);
+
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test1"),
+                tuple("test2"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;" +
+                "A = FILTER A by $0 != 'evicted';" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("test1"), tuple("test2")), data.get("output"));
+
+        data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test3"),
+                tuple("test4"));
+        pigServer.registerQuery("STORE A INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("test3"), tuple("test4")), data.get("output"));
+    }
+
+    @Test
+    public void testCachingWithOtherStorageLevel() throws Exception {
+        PigServer pigServer = newPigServer();
+
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test1"),
+                tuple("test2"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("test1"), tuple("test2")), data.get("output"));
+
+        // the same relation cached with another storage level is not reused but cached again
+        data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test3"),
+                tuple("test4"));
+        pigServer.registerQuery("B = LOAD 'input' using mock.Storage;" +
+                "CACHE B USING 'MEMORY_AND_DISK';" +
+                "STORE B INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("test3"), tuple("test4")), data.get("output"));
+    }
+
+    @Test
+    public void testPersistentCache() throws Exception {
+        File input = File.createTempFile("input", ".txt");
+        input.deleteOnExit();
+        File cacheDir = File.createTempFile("cache", "");
+        cacheDir.delete();
+        FileWriter writer = new FileWriter(input);
+        writer.write("persisted1\npersisted2\n");
+        writer.close();
+
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        properties.put("pig.spark.cache.dir", cacheDir.getAbsolutePath());
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD '" + input.getAbsolutePath() + "' as (s:chararray);" +
+                "CACHE A;" +
+                "STORE A INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(Arrays.asList(tuple("persisted1"), tuple("persisted2")), data.get("output"));
+        // one complete entry, keyed by the plan and the input file
+        String[] entries = cacheDir.list();
+        assertEquals(1, entries.length);
+        Assert.assertFalse(entries[0].startsWith("_tmp"));
+    }
+
+    /**
+     * Returns its input, counting the calls across the tasks run in this JVM.
+     */
+    public static class CountedValue extends EvalFunc<String> {
+        private static final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String exec(Tuple input) throws IOException {
+            calls.incrementAndGet();
+            return (String)input.get(0);
+        }
+    }
+
+    @Test
+    public void testPersistentCacheAcrossSessions() throws Exception {
+        File input = File.createTempFile("input", ".txt");
+        input.deleteOnExit();
+        File cacheDir = File.createTempFile("cache", "");
+        cacheDir.delete();
+        FileWriter writer = new FileWriter(input);
+        writer.write("persisted1\npersisted2\n");
+        writer.close();
+        String script = "A = LOAD '" + input.getAbsolutePath() + "' as (s:chararray);" +
+                "B = FOREACH A GENERATE " + CountedValue.class.getName() + "(s);" +
+                "CACHE B;" +
+                "STORE B INTO 'output' using mock.Storage;";
+        Properties properties = new Properties();
+        properties.put("io.sort.mb", "1");
+        properties.put("pig.spark.cache.dir", cacheDir.getAbsolutePath());
+        int calls = CountedValue.calls.get();
+
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        pigServer.setBatchOn();
+        pigServer.registerQuery(script);
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("persisted1"), tuple("persisted2")), data.get("output"));
+        assertEquals(calls + 2, CountedValue.calls.get());
+
+        // a fresh session reads the entry back instead of computing the relation
+        SparkSession.stop();
+        pigServer = new PigServer(MODE, properties);
+        data = Storage.resetData(pigServer);
+        pigServer.setBatchOn();
+        pigServer.registerQuery(script);
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("persisted1"), tuple("persisted2")), data.get("output"));
+        assertEquals(calls + 2, CountedValue.calls.get());
+
+        // the entry is not read once the input has changed
+        writer = new FileWriter(input);
+        writer.write("changed\n");
+        writer.close();
+        SparkSession.stop();
+        pigServer = new PigServer(MODE, properties);
+        data = Storage.resetData(pigServer);
+        pigServer.setBatchOn();
+        pigServer.registerQuery(script);
+        pigServer.executeBatch();
+        assertEquals(Arrays.asList(tuple("changed")), data.get("output"));
+        assertEquals(calls + 3, CountedValue.calls.get());
+
+        // one complete entry per version of the input, no temporary directory left
+        String[] entries = cacheDir.list();
+        assertEquals(2, entries.length);
+        for (String entry : entries) {
+            Assert.assertFalse(entry.startsWith("_tmp"));
+        }
+    }
+
+    @Test
+    public void testMergeJoin() throws Exception {
+        File left = File.createTempFile("left", ".txt");
+        left.deleteOnExit();
+        FileWriter writer = new FileWriter(left);
+        writer.write("1\ta\n2\tb\n3\tc\n5\te\n");
+        writer.close();
+        File right = File.createTempFile("right", ".txt");
+        right.deleteOnExit();
+        writer = new FileWriter(right);
+        writer.write("1\tx\n3\ty\n3\tz\n4\tw\n");
+        writer.close();
+
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD '" + left.getAbsolutePath() + "' as (i:int, s:chararray);" +
+                "B = LOAD '" + right.getAbsolutePath() + "' as (i:int, s:chararray);" +
+                "C = JOIN A BY i, B BY i USING 'merge';" +
+                "STORE C INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple(1, "a", 1, "x"), tuple(3, "c", 3, "y"), tuple(3, "c", 3, "z")),
+                data.get("output"));
+    }
+
+    @Test
+    public void testMergeJoinOverSplits() throws Exception {
+        // every file is a split, the right one is read from the split its index points to
+        File left = writeSplits("left", "1\ta\n2\tb\n", "3\tc\n5\te\n");
+        File right = writeSplits("right", "1\tx\n", "3\ty\n3\tz\n", "4\tw\n6\tv\n");
+
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD '" + left.getAbsolutePath() + "' as (i:int, s:chararray);" +
+                "B = LOAD '" + right.getAbsolutePath() + "' as (i:int, s:chararray);" +
+                "C = JOIN A BY i, B BY i USING 'merge';" +
+                "STORE C INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple(1, "a", 1, "x"), tuple(3, "c", 3, "y"), tuple(3, "c", 3, "z")),
+                data.get("output"));
+    }
+
+    @Test
+    public void testMergeCogroup() throws Exception {
+        File base = File.createTempFile("base", ".txt");
+        base.deleteOnExit();
+        FileWriter writer = new FileWriter(base);
+        writer.write("1\t1\n1\t2\n2\t1\n3\t1\n");
+        writer.close();
+        File side = File.createTempFile("side", ".txt");
+        side.deleteOnExit();
+        writer = new FileWriter(side);
+        writer.write("1\t5\n3\t6\n3\t7\n");
+        writer.close();
+
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD '" + base.getAbsolutePath() + "' using "
+                + TestMapSideCogroup.DummyCollectableLoader.class.getName() + "() as (c1:chararray, c2:int);" +
+                "B = LOAD '" + side.getAbsolutePath() + "' using "
+                + TestMapSideCogroup.DummyIndexableLoader.class.getName() + "() as (c1:chararray, c2:int);" +
+                "C = COGROUP A BY c1, B BY c1 USING 'merge';" +
+                "STORE C INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(
+                        tuple("1", bag(tuple("1", 1), tuple("1", 2)), bag(tuple("1", 5))),
+                        tuple("2", bag(tuple("2", 1)), bag()),
+                        tuple("3", bag(tuple("3", 1)), bag(tuple("3", 6), tuple("3", 7)))),
+                data.get("output"));
+    }
+
+    /**
+     * @return a directory of one file per content, in order
+     */
+    private static File writeSplits(String prefix, String... contents) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        for (int i = 0; i < contents.length; ++i) {
+            File split = new File(dir, "part-" + i);
+            split.deleteOnExit();
+            FileWriter writer = new FileWriter(split);
+            writer.write(contents[i]);
+            writer.close();
+        }
+        return dir;
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("test1"),
+                tuple("test2"),
+                tuple("test3"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = STREAM A THROUGH `cat` AS (s:chararray);");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple("test1"), tuple("test2"), tuple("test3")),
+                data.get("output"));
+    }
+
+    @Test
+    public void testStreamFailure() throws Exception {
+        File script = File.createTempFile("fail", ".sh");
+        script.deleteOnExit();
+        FileWriter writer = new FileWriter(script);
+        writer.write("#!/bin/sh\ncat > /dev/null\nexit 3\n");
+        writer.close();
+        script.setExecutable(true);
+        File cached = File.createTempFile("cached", ".txt");
+        cached.deleteOnExit();
+
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input", tuple("test1"), tuple("test2"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("DEFINE fail `" + script.getAbsolutePath() + "` SHIP('"
+                + script.getAbsolutePath() + "') CACHE('" + cached.getAbsolutePath() + "#cached.txt');");
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = STREAM A THROUGH fail AS (s:chararray);");
+        pigServer.registerQuery("STORE B INTO 'output' using mock.Storage;");
+        boolean failed;
+        try {
+            List<ExecJob> jobs = pigServer.executeBatch();
+            failed = jobs.get(0).getStatus() == ExecJob.JOB_STATUS.FAILED;
+        } catch (Exception e) {
+            failed = true;
+        }
+        Assert.assertTrue("the non-zero exit status is not reported", failed);
+    }
+
+    @Test
+    public void testStreamKilledWhenNotRead() throws Exception {
+        File pidFile = File.createTempFile("stream", ".pid");
+        pidFile.deleteOnExit();
+        File script = File.createTempFile("endless", ".sh");
+        script.deleteOnExit();
+        FileWriter writer = new FileWriter(script);
+        writer.write("#!/bin/sh\necho $$ > " + pidFile.getAbsolutePath() + "\nwhile true; do echo x; done\n");
+        writer.close();
+        script.setExecutable(true);
+
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input", tuple("test1"));
+
+        pigServer.registerQuery("DEFINE endless `" + script.getAbsolutePath() + "` SHIP('"
+                + script.getAbsolutePath() + "');");
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = STREAM A THROUGH endless AS (s:chararray);");
+        pigServer.registerQuery("C = LIMIT B 3;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        assertEquals(Arrays.asList(tuple("x"), tuple("x"), tuple("x")), data.get("output"));
+
+        // the LIMIT stops reading the output of the process, which is killed with the task
+        BufferedReader reader = new BufferedReader(new FileReader(pidFile));
+        String pid = reader.readLine().trim();
+        reader.close();
+        int alive = 0;
+        for (int i = 0; i < 50 && alive == 0; i++) {
+            Thread.sleep(100);
+            alive = Runtime.getRuntime().exec(new String[] { "kill", "-0", pid }).waitFor();
+        }
+        Assert.assertTrue("process " + pid + " is still running", alive != 0);
+    }
+
+    @Test
+    public void testUnion() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple("test1"),
+                tuple("test2"));
+        data.set("input2",
+                tuple("test3"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage;");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage;");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple("test1"), tuple("test2"), tuple("test3")),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple(1),
+                tuple(2),
+                tuple(3));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (i:int);");
+        pigServer.registerQuery("SPLIT A INTO B IF i < 2, C IF i >= 2;");
+        pigServer.registerQuery("STORE B INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE C INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(Arrays.asList(tuple(1)), data.get("output1"));
+        assertEquals(Arrays.asList(tuple(2), tuple(3)), data.get("output2"));
+    }
+
+    @Test
+    public void testStageShuffleBoundaries() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("pig.spark.nofusion", "true");
+        properties.setProperty("pig.exec.nocombiner", "true");
+        PigServer pigServer = new PigServer(MODE, properties);
+        PhysicalPlan physicalPlan = Util.buildPp(pigServer,
+                "A = LOAD 'input' using mock.Storage as (a:chararray, b:int);" +
+                "B = FILTER A BY b > 0;" +
+                "C = GROUP B BY a;" +
+                "D = FOREACH C GENERATE group, COUNT(B);" +
+                "STORE D INTO 'output' using mock.Storage;");
+        SparkCompiler sparkCompiler = new SparkCompiler(physicalPlan, pigServer.getPigContext());
+        sparkCompiler.compile();
+        SparkOperPlan sparkPlan = sparkCompiler.getSparkPlan();
+
+        // the map side up to the POLocalRearrange, and the shuffle up to the store
+        assertEquals(2, sparkPlan.size());
+        SparkOperator mapStage = sparkPlan.getRoots().get(0);
+        SparkOperator reduceStage = sparkPlan.getLeaves().get(0);
+        assertEquals(Arrays.asList(reduceStage), sparkPlan.getSuccessors(mapStage));
+        Assert.assertFalse(mapStage.isShuffle());
+        Assert.assertTrue(mapStage.getHead() instanceof POLoad);
+        Assert.assertTrue(mapStage.getTail() instanceof POLocalRearrange);
+        Assert.assertTrue(reduceStage.isShuffle());
+        Assert.assertTrue(reduceStage.getHead() instanceof POGlobalRearrange);
+        Assert.assertTrue(reduceStage.getTail() instanceof POStore);
+        assertStagesFollowPlan(physicalPlan, sparkPlan);
+    }
+
+    @Test
+    public void testSharedStage() throws Exception {
+        PigServer pigServer = newPigServer();
+        PhysicalPlan physicalPlan = Util.buildPp(pigServer,
+                "A = LOAD 'input' using mock.Storage as (a:chararray, b:int);" +
+                "B = FILTER A BY b > 0;" +
+                "C = FILTER B BY b > 1;" +
+                "D = FILTER B BY b < 3;" +
+                "STORE C INTO 'output1' using mock.Storage;" +
+                "STORE D INTO 'output2' using mock.Storage;");
+        SparkCompiler sparkCompiler = new SparkCompiler(physicalPlan, pigServer.getPigContext());
+        sparkCompiler.compile();
+        SparkOperPlan sparkPlan = sparkCompiler.getSparkPlan();
+
+        // the output of B is computed by a stage of its own, read by the stages of both stores
+        List<SparkOperator> sharedStages = new ArrayList<SparkOperator>();
+        for (SparkOperator stage : sparkPlan) {
+            if (stage.isShared()) {
+                sharedStages.add(stage);
+            }
+        }
+        assertEquals(1, sharedStages.size());
+        SparkOperator shared = sharedStages.get(0);
+        assertEquals(2, physicalPlan.getSuccessors(shared.getTail()).size());
+        assertEquals(2, sparkPlan.getSuccessors(shared).size());
+        for (SparkOperator reader : sparkPlan.getSuccessors(shared)) {
+            Assert.assertFalse(reader.isShuffle());
+            Assert.assertFalse(reader.isShared());
+            Assert.assertTrue(reader.getTail() instanceof POStore);
+        }
+        assertStagesFollowPlan(physicalPlan, sparkPlan);
+    }
+
+    /**
+     * Asserts that every operator of physicalPlan is in one stage, after its inputs: earlier in
+     * the same stage, or at the end of a stage the stage reads.
+     */
+    private static void assertStagesFollowPlan(PhysicalPlan physicalPlan, SparkOperPlan sparkPlan) {
+        Set<PhysicalOperator> staged = new HashSet<PhysicalOperator>();
+        for (SparkOperator stage : sparkPlan) {
+            List<SparkOperator> predecessorStages = sparkPlan.getPredecessors(stage);
+            List<PhysicalOperator> operators = stage.getOperators();
+            for (int i = 0; i < operators.size(); i++) {
+                PhysicalOperator physicalOperator = operators.get(i);
+                Assert.assertTrue(staged.add(physicalOperator));
+                List<PhysicalOperator> predecessors = physicalPlan.getPredecessors(physicalOperator);
+                if (predecessors == null) {
+                    continue;
+                }
+                for (PhysicalOperator predecessor : predecessors) {
+                    if (operators.subList(0, i).contains(predecessor)) {
+                        continue;
+                    }
+                    boolean read = false;
+                    for (SparkOperator predecessorStage : predecessorStages == null
+                            ? Collections.<SparkOperator>emptyList() : predecessorStages) {
+                        read |= predecessorStage.getTail() == predecessor;
+                    }
+                    Assert.assertTrue(predecessor + " is not read by the stage of " + physicalOperator, read);
+                }
+            }
+        }
+        assertEquals(physicalPlan.size(), staged.size());
+    }
+
+    @Test
+    public void testVisitFusedOperators() throws Exception {
+        PigServer pigServer = newPigServer();
+        PhysicalPlan physicalPlan = Util.buildPp(pigServer,
+                "A = LOAD 'input' using mock.Storage as (s:chararray);" +
+                "B = FOREACH A GENERATE org.apache.pig.spark.LowercaseUDF(s) AS s;" +
+                "C = FILTER B BY s != 'x';" +
+                "STORE C INTO 'output' using mock.Storage;");
+        new SparkCompiler(physicalPlan, pigServer.getPigContext()).compile();
+        boolean fused = false;
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            fused |= physicalOperator instanceof POPipeline;
+        }
+        Assert.assertTrue(fused);
+
+        // the visitors still reach the operators of the pipelines
+        UDFFinder udfFinder = new UDFFinder();
+        udfFinder.setPlan(physicalPlan);
+        udfFinder.visit();
+        assertEquals(Arrays.asList(LowercaseUDF.class.getName()), udfFinder.getUDFs());
+    }
+
+    @Test
+    public void testCross() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input1",
+                tuple(1),
+                tuple(2));
+        data.set("input2",
+                tuple("a"),
+                tuple("b"));
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage as (i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray);");
+        pigServer.registerQuery("C = CROSS A, B;");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        pigServer.executeBatch();
+
+        List<Tuple> output = sortByIndex(sortByIndex(data.get("output"), 1), 0);
+        assertEquals(
+                Arrays.asList(tuple(1, "a"), tuple(1, "b"), tuple(2, "a"), tuple(2, "b")),
+                output);
+    }
+
+    @Test
+    public void testReplicatedCross() throws Exception {
+        File small = File.createTempFile("small", ".txt");
+        small.deleteOnExit();
+        FileWriter writer = new FileWriter(small);
+        writer.write("1\n2\n");
+        writer.close();
+        File large = File.createTempFile("large", ".txt");
+        large.deleteOnExit();
+        writer = new FileWriter(large);
+        writer.write("aaaa\nbbbb\ncccc\n");
+        writer.close();
+
+        // a threshold of 0 crosses the partitions, the other one broadcasts the smaller input,
+        // first or second
+        for (String replicateBytes : Arrays.asList("0", "1000000")) {
+            Properties properties = new Properties();
+            properties.setProperty("pig.spark.cross.replicate.bytes", replicateBytes);
+            PigServer pigServer = new PigServer(MODE, properties);
+            Data data = Storage.resetData(pigServer);
+
+            pigServer.setBatchOn();
+            pigServer.registerQuery("A = LOAD '" + small.getAbsolutePath() + "' as (i:int);");
+            pigServer.registerQuery("B = LOAD '" + large.getAbsolutePath() + "' as (s:chararray);");
+            pigServer.registerQuery("C = CROSS A, B;");
+            pigServer.registerQuery("D = CROSS B, A;");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            pigServer.explain("C", new PrintStream(out));
+            Assert.assertTrue(out.toString().contains(replicateBytes.equals("0")
+                    ? "Shuffle: cartesian product" : "Shuffle: smaller input broadcast"));
+            pigServer.registerQuery("STORE C INTO 'output1' using mock.Storage;");
+            pigServer.registerQuery("STORE D INTO 'output2' using mock.Storage;");
+            pigServer.executeBatch();
+
+            assertEquals(
+                    Arrays.asList(tuple(1, "aaaa"), tuple(1, "bbbb"), tuple(1, "cccc"),
+                            tuple(2, "aaaa"), tuple(2, "bbbb"), tuple(2, "cccc")),
+                    sortByIndex(sortByIndex(data.get("output1"), 1), 0));
+            assertEquals(
+                    Arrays.asList(tuple("aaaa", 1), tuple("aaaa", 2), tuple("bbbb", 1),
+                            tuple("bbbb", 2), tuple("cccc", 1), tuple("cccc", 2)),
+                    sortByIndex(sortByIndex(data.get("output2"), 1), 0));
+        }
+    }
+
+    @Test
+    public void testReplicatedCrossOfUnknownSize() throws Exception {
+        File small = File.createTempFile("small", ".txt");
+        small.deleteOnExit();
+        FileWriter writer = new FileWriter(small);
+        writer.write("1\n2\n");
+        writer.close();
+
+        Properties properties = new Properties();
+        properties.setProperty("pig.spark.cross.replicate.bytes", "1000000");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.setBatchOn();
+        pigServer.registerQuery("A = LOAD '" + small.getAbsolutePath() + "' as (i:int);");
+        // a FLATTEN may output more than it reads, a filter may not
+        pigServer.registerQuery("B = FOREACH A GENERATE FLATTEN(TOBAG(i, i));");
+        pigServer.registerQuery("C = FILTER A BY i > 1;");
+        pigServer.registerQuery("D = CROSS B, C;");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("D", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: smaller input broadcast"));
+
+        // neither size is known
+        pigServer.registerQuery("E = DISTINCT A;");
+        pigServer.registerQuery("F = CROSS B, E;");
+        out = new ByteArrayOutputStream();
+        pigServer.explain("F", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: cartesian product"));
+
+        pigServer.registerQuery("STORE D INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("STORE F INTO 'output2' using mock.Storage;");
+        pigServer.executeBatch();
+
+        assertEquals(
+                Arrays.asList(tuple(1, 2), tuple(1, 2), tuple(2, 2), tuple(2, 2)),
+                sortByIndex(data.get("output1"), 0));
+        assertEquals(
+                Arrays.asList(tuple(1, 1), tuple(1, 1), tuple(1, 2), tuple(1, 2),
+                        tuple(2, 1), tuple(2, 1), tuple(2, 2), tuple(2, 2)),
+                sortByIndex(sortByIndex(data.get("output2"), 1), 0));
+    }
+
+    @Test
+    public void testNestedOrderBy() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 2),
+                tuple("b", 5),
+                tuple("a", 3),
+                tuple("a", 1),
+                tuple("b", 4));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (user:chararray, ts:int);");
+        pigServer.registerQuery("B = GROUP A BY user;");
+        pigServer.registerQuery("C = FOREACH B { D = ORDER A BY ts DESC; GENERATE group, D.ts; };");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Secondary sort: true"));
+
+        // the values come out of the shuffle sorted, the nested ORDER BY is gone
+        PhysicalPlan physicalPlan = Util.buildPp(pigServer,
+                "A = LOAD 'input' using mock.Storage as (user:chararray, ts:int);" +
+                "B = GROUP A BY user;" +
+                "C = FOREACH B { D = ORDER A BY ts DESC; GENERATE group, D.ts; };" +
+                "STORE C INTO 'output' using mock.Storage;");
+        SparkCompiler sparkCompiler = new SparkCompiler(physicalPlan, pigServer.getPigContext());
+        sparkCompiler.compile();
+        assertEquals(1, sparkCompiler.getSecondarySortOrders().size());
+        List<PhysicalOperator> operators = new ArrayList<PhysicalOperator>();
+        for (PhysicalOperator physicalOperator : physicalPlan) {
+            if (physicalOperator instanceof POPipeline) {
+                operators.addAll(((POPipeline)physicalOperator).getOperators());
+            } else {
+                operators.add(physicalOperator);
+            }
+        }
+        int forEaches = 0;
+        for (PhysicalOperator physicalOperator : operators) {
+            if (physicalOperator instanceof POForEach) {
+                ++forEaches;
+                for (PhysicalPlan innerPlan : ((POForEach)physicalOperator).getInputPlans()) {
+                    for (PhysicalOperator inner : innerPlan) {
+                        Assert.assertFalse(inner + " is still sorted", inner instanceof POSort);
+                    }
+                }
+            }
+        }
+        assertEquals(1, forEaches);
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        List<Tuple> output = sortByIndex(data.get("output"), 0);
+        assertEquals(2, output.size());
+        assertEquals(Arrays.asList(tuple(3), tuple(2), tuple(1)), toList((DataBag)output.get(0).get(1)));
+        assertEquals(Arrays.asList(tuple(5), tuple(4)), toList((DataBag)output.get(1).get(1)));
+    }
+
+    @Test
+    public void testAccumulativeGroupNotMaterialized() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        // a single group larger than the batches of POPackage, 20000 values by default
+        List<Tuple> input = new ArrayList<Tuple>();
+        for (int i = 0; i < 50000; i++) {
+            input.add(tuple("a", i));
+        }
+        input.add(tuple("b", 0));
+        data.set("input", input);
+        BatchCount.largestBatch.set(0);
+        BatchCount.batches.set(0);
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = GROUP A BY s;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, " + BatchCount.class.getName() + "(A);");
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+
+        assertEquals(Arrays.asList(tuple("a", 50000L), tuple("b", 1L)),
+                sortByIndex(data.get("output"), 0));
+        // the values of the large group reach the UDF in batches, never all at once
+        Assert.assertTrue(BatchCount.largestBatch.get() <= 20000);
+        Assert.assertTrue(BatchCount.batches.get() >= 4);
+    }
+
+    @Test
+    public void testAccumulativeGroup() throws Exception {
+        Properties properties = new Properties();
+        // leave the GROUP to the accumulative UDFs rather than to the combiner
+        properties.put("pig.exec.nocombiner", "true");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 1),
+                tuple("b", 2),
+                tuple("a", 3),
+                tuple("c", 4),
+                tuple("a", 5));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = GROUP A BY s;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, COUNT(A), SUM(A.i);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Accumulative: true"));
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(tuple("a", 3L, 9L), tuple("b", 1L, 2L), tuple("c", 1L, 4L)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testGroupAllTreeAggregation() throws Exception {
+        Properties properties = new Properties();
+        // three input partitions, aggregated two at a time
+        properties.put("pig.spark.groupall.fanin", "2");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input1", tuple(1), tuple(5));
+        data.set("input2", tuple(3));
+        data.set("input3", tuple(2), tuple(4));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage as (i:int);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (i:int);");
+        pigServer.registerQuery("C = LOAD 'input3' using mock.Storage as (i:int);");
+        pigServer.registerQuery("D = UNION A, B, C;");
+        pigServer.registerQuery("E = GROUP D ALL;");
+        pigServer.registerQuery("F = FOREACH E GENERATE COUNT(D), SUM(D.i), MAX(D.i);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("F", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: tree aggregation"));
+        Assert.assertFalse(out.toString().contains("Partitioner: none, single partition"));
+
+        pigServer.registerQuery("STORE F INTO 'output' using mock.Storage;");
+        assertEquals(Arrays.asList(tuple(5L, 15L, 5)), data.get("output"));
+    }
+
+    @Test
+    public void testGroupAllSingleGroup() throws Exception {
+        Properties properties = new Properties();
+        properties.put("pig.exec.nocombiner", "true");
+        properties.put("opt.accumulator", "false");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input1", tuple("a"), tuple("b"));
+        data.set("input2", tuple("c"));
+
+        pigServer.registerQuery("A = LOAD 'input1' using mock.Storage as (s:chararray);");
+        pigServer.registerQuery("B = LOAD 'input2' using mock.Storage as (s:chararray);");
+        pigServer.registerQuery("C = UNION A, B;");
+        pigServer.registerQuery("D = GROUP C ALL;");
+        pigServer.registerQuery("E = FOREACH D GENERATE group, COUNT(C);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("E", new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("Shuffle: single group, streamed"));
+
+        pigServer.registerQuery("STORE E INTO 'output' using mock.Storage;");
+        assertEquals(Arrays.asList(tuple("all", 3L)), data.get("output"));
+    }
+
+    /**
+     * Returns the value it was given on the front end, read from the UDFContext on the back end.
+     */
+    public static class UDFContextValue extends EvalFunc<String> {
+        private final String value;
+        private String signature;
+
+        public UDFContextValue(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void setUDFContextSignature(String signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public Schema outputSchema(Schema input) {
+            UDFContext.getUDFContext().getUDFProperties(getClass(), new String[] { signature })
+                    .setProperty("value", value);
+            return new Schema(new Schema.FieldSchema(null, DataType.CHARARRAY));
+        }
+
+        @Override
+        public String exec(Tuple input) {
+            return UDFContext.getUDFContext().getUDFProperties(getClass(), new String[] { signature })
+                    .getProperty("value");
+        }
+    }
+
+    @Test
+    public void testUDFContextAcrossLaunches() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input", tuple("a"));
+
+        // each STORE is a launch of its own, broadcasting its own UDFContext
+        pigServer.registerQuery("DEFINE first " + UDFContextValue.class.getName() + "('first');");
+        pigServer.registerQuery("DEFINE second " + UDFContextValue.class.getName() + "('second');");
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray);");
+        pigServer.registerQuery("B = FOREACH A GENERATE s, first(s);");
+        pigServer.registerQuery("STORE B INTO 'output1' using mock.Storage;");
+        pigServer.registerQuery("C = FOREACH A GENERATE s, second(s);");
+        pigServer.registerQuery("STORE C INTO 'output2' using mock.Storage;");
+
+        assertEquals(Arrays.asList(tuple("a", "first")), data.get("output1"));
+        assertEquals(Arrays.asList(tuple("a", "second")), data.get("output2"));
+    }
+
+    private List<Tuple> toList(DataBag bag) {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (Tuple t : bag) {
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    @Test
+    public void testExplain() throws Exception {
+        PigServer pigServer = newPigServer();
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a", 1),
+                tuple("b", 2));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage as (s:chararray, i:int);");
+        pigServer.registerQuery("B = GROUP A BY s PARALLEL 3;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, COUNT(A);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(out));
+
+        String explain = out.toString();
+        LOG.debug(explain);
+        Assert.assertTrue(explain.contains("# Spark Plan"));
+        Assert.assertTrue(explain.contains("Shuffle: with map-side combine"));
+        Assert.assertTrue(explain.contains("Partitioner: HashPartitioner"));
+        Assert.assertTrue(explain.contains("Parallelism: 3"));
+        Assert.assertTrue(explain.contains("GlobalRearrangeConverter"));
+    }
+
+    /**
+     * A Nullable writable PigSerializer has no tag for.
+     */
+    public static class NullableCustom extends NullableText {
+    }
+
+    @Test
+    public void testPigSerializer() throws Exception {
+        SerializerInstance serializer = new PigSerializer().newInstance();
+        List<Object> objects = new ArrayList<Object>();
+        objects.add(tuple("a", 1, 2L, 3.0f, 4.0, null, tuple("nested")));
+        objects.add(bag(tuple("a", 1), tuple("b", 2)));
+        objects.add(new Tuple2<Object, Object>("key", tuple("value")));
+        objects.add(new ArrayList<Object>(Arrays.asList(tuple("x"), tuple("y"))));
+        // not Pig data: Java serialization
+        objects.add(new java.util.Date(0));
+        for (Object o : objects) {
+            assertEquals(o, serializer.deserialize(serializer.serialize(o)));
+        }
+
+        NullableTuple nullableTuple = new NullableTuple(tuple("k", 1));
+        nullableTuple.setIndex((byte)2);
+        NullableCustom custom = new NullableCustom();
+        custom.setNull(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.serializeStream(bytes).writeObject(nullableTuple).writeObject(custom).close();
+        scala.collection.Iterator<Object> read = serializer.deserializeStream(
+                new ByteArrayInputStream(bytes.toByteArray())).asIterator();
+
+        NullableTuple readTuple = (NullableTuple)read.next();
+        assertEquals(tuple("k", 1), readTuple.getValueAsPigType());
+        assertEquals(2, readTuple.getIndex());
+        NullableCustom readCustom = (NullableCustom)read.next();
+        Assert.assertTrue(readCustom.isNull());
+        Assert.assertFalse(read.hasNext());
+    }
+
+    @Test
+    public void testSerializerPropertyRestored() throws Exception {
+        SparkSession.stop();
+        System.clearProperty("spark.serializer");
+        System.clearProperty("spark.mesos.coarse");
+        System.clearProperty("spark.cores.max");
+        System.clearProperty("spark.executor.memory");
+        Properties properties = new Properties();
+        properties.setProperty("spark.executor.memory", "512m");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input", tuple("a"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("STORE A INTO 'output' using mock.Storage;");
+        assertEquals(PigSerializer.class.getName(), System.getProperty("spark.serializer"));
+        assertEquals("true", System.getProperty("spark.mesos.coarse"));
+        assertEquals("32", System.getProperty("spark.cores.max"));
+        assertEquals("512m", System.getProperty("spark.executor.memory"));
+
+        SparkSession.stop();
+        Assert.assertNull(System.getProperty("spark.serializer"));
+        Assert.assertNull(System.getProperty("spark.mesos.coarse"));
+        Assert.assertNull(System.getProperty("spark.cores.max"));
+        Assert.assertNull(System.getProperty("spark.executor.memory"));
+    }
+
+    @Test
+    public void testSessionRestartedOnceIdle() throws Exception {
+        SparkSession.stop();
+        Properties properties = new Properties();
+        properties.setProperty("spark.cores.max", "2");
+        Properties newProperties = new Properties();
+        newProperties.setProperty("spark.cores.max", "4");
+
+        SparkSession running = SparkSession.acquire(properties);
+        // the running launch keeps the session, the new one runs in it too
+        assertEquals(running, SparkSession.acquire(newProperties));
+        running.release();
+        assertEquals(running, SparkSession.getSession());
+        // the restart happens once the session is idle
+        running.release();
+        Assert.assertNull(SparkSession.getSession());
+
+        SparkSession restarted = SparkSession.acquire(newProperties);
+        Assert.assertNotSame(running, restarted);
+        assertEquals("4", System.getProperty("spark.cores.max"));
+        restarted.release();
+        SparkSession.stop();
+    }
+
+    @Test
+    public void testSessionIdleTimeout() throws Exception {
+        Properties properties = new Properties();
+        properties.put("pig.spark.session.idle.timeout", "1");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a"),
+                tuple("b"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("STORE A INTO 'output1' using mock.Storage;");
+        // the session is stopped in between, and started again by the next STORE
+        Thread.sleep(2500);
+        pigServer.registerQuery("STORE A INTO 'output2' using mock.Storage;");
+
+        assertEquals(Arrays.asList(tuple("a"), tuple("b")), data.get("output1"));
+        assertEquals(Arrays.asList(tuple("a"), tuple("b")), data.get("output2"));
+    }
+
+    @Test
+    public void testAbandonedDumpReleasesSession() throws Exception {
+        Properties properties = new Properties();
+        properties.put("pig.spark.session.idle.timeout", "1");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+        data.set("input",
+                tuple("a"),
+                tuple("b"),
+                tuple("c"));
+
+        pigServer.registerQuery("A = LOAD 'input' using mock.Storage;");
+        pigServer.registerQuery("B = GROUP A BY $0 PARALLEL 3;");
+        Iterator<Tuple> result = pigServer.openIterator("B");
+        Assert.assertTrue(result.hasNext());
+        result.next();
+
+        // the iterator is not read to the end, the session is stopped anyway once idle
+        Thread.sleep(2500);
+        Assert.assertNull(SparkSession.getSession());
+    }
+
+    @Test
+    public void testEstimatedParallelism() throws Exception {
+        File input = File.createTempFile("input", ".txt");
+        input.deleteOnExit();
+        FileWriter writer = new FileWriter(input);
+        writer.write("a\t1\nb\t2\na\t3\n");
+        writer.close();
+
+        Properties properties = new Properties();
+        properties.put("pig.exec.reducers.bytes.per.reducer", "5");
+        PigServer pigServer = new PigServer(MODE, properties);
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.registerQuery("A = LOAD '" + input.getAbsolutePath() + "' as (s:chararray, i:int);");
+        pigServer.registerQuery("B = GROUP A BY s;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, SUM(A.i);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(out));
+        // 12 bytes of input at 5 bytes per partition
+        Assert.assertTrue(out.toString().contains("Parallelism: 3 (estimated)"));
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(tuple("a", 4L), tuple("b", 2L)),
+                sortByIndex(data.get("output"), 0));
+    }
+
+    @Test
+    public void testDefaultParallel() throws Exception {
+        File input = File.createTempFile("input", ".txt");
+        input.deleteOnExit();
+        FileWriter writer = new FileWriter(input);
+        writer.write("a\t1\nb\t2\na\t3\n");
+        writer.close();
+
+        Properties properties = new Properties();
+        properties.put("pig.exec.reducers.bytes.per.reducer", "5");
+        PigServer pigServer = new PigServer(MODE, properties);
+        pigServer.setDefaultParallel(2);
+        Data data = Storage.resetData(pigServer);
+
+        pigServer.registerQuery("A = LOAD '" + input.getAbsolutePath() + "' as (s:chararray, i:int);");
+        pigServer.registerQuery("B = GROUP A BY s;");
+        pigServer.registerQuery("C = FOREACH B GENERATE group, SUM(A.i);");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(out));
+        // default_parallel wins over the estimate of 3 partitions
+        Assert.assertTrue(out.toString().contains("Parallelism: 2"));
+        Assert.assertFalse(out.toString().contains("(estimated)"));
+
+        pigServer.registerQuery("STORE C INTO 'output' using mock.Storage;");
+        assertEquals(
+                Arrays.asList(tuple("a", 4L), tuple("b", 2L)),
+                sortByIndex(data.get("output"), 0));
     }
 
     @Test